@@ -0,0 +1,178 @@
+/*
+ * Thin native client of the jlox daemon (jlox --daemon socket), see Daemon.java for the protocol
+ *
+ * Usage: jlox-client socket script | -
+ * a script path is sent as an absolute path for the daemon to read, - sends the source read from
+ * stdin. What the script prints is copied to stdout and stderr and the client exits with the
+ * script's status, like DaemonClient but without starting a JVM.
+ *
+ * Build: cc -O2 -o jlox-client client/jlox-client.c
+ */
+#include <errno.h>
+#include <signal.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <unistd.h>
+
+#define PATH 'P'
+#define SOURCE 'S'
+#define ERR 'E'
+#define EXIT 'X'
+
+static const char *socket_path;
+
+static void fail(const char *what) {
+  fprintf(stderr, "Error: %s: %s\n", what, strerror(errno));
+  exit(74);
+}
+
+// 0 once count bytes were read, -1 at the end of the stream
+static int read_fully(int fd, void *buffer, size_t count) {
+  char *bytes = buffer;
+  while (count > 0) {
+    ssize_t n = read(fd, bytes, count);
+    if (n < 0 && errno == EINTR) {
+      continue;
+    }
+    if (n < 0) {
+      fail(socket_path);
+    }
+    if (n == 0) {
+      return -1;
+    }
+    bytes += n;
+    count -= n;
+  }
+  return 0;
+}
+
+static void write_fully(int fd, const void *buffer, size_t count, const char *what) {
+  const char *bytes = buffer;
+  while (count > 0) {
+    ssize_t n = write(fd, bytes, count);
+    if (n < 0 && errno == EINTR) {
+      continue;
+    }
+    if (n < 0) {
+      fail(what);
+    }
+    bytes += n;
+    count -= n;
+  }
+}
+
+// the whole of stdin, its length in length
+static char *read_stdin(size_t *length) {
+  size_t capacity = 64 * 1024;
+  char *source = malloc(capacity);
+  *length = 0;
+  while (source != NULL) {
+    ssize_t n = read(STDIN_FILENO, source + *length, capacity - *length);
+    if (n < 0 && errno == EINTR) {
+      continue;
+    }
+    if (n < 0) {
+      fail("stdin");
+    }
+    if (n == 0) {
+      return source;
+    }
+    *length += n;
+    if (*length == capacity) {
+      capacity *= 2;
+      source = realloc(source, capacity);
+    }
+  }
+  fail("stdin");
+  return NULL;
+}
+
+// path made absolute against the working directory, the daemon may run elsewhere
+static char *absolute(const char *path, size_t *length) {
+  char *result;
+  if (path[0] == '/') {
+    result = strdup(path);
+  } else {
+    char *directory = getcwd(NULL, 0);
+    if (directory == NULL) {
+      fail("getcwd");
+    }
+    result = malloc(strlen(directory) + strlen(path) + 2);
+    if (result != NULL) {
+      sprintf(result, "%s/%s", directory, path);
+    }
+    free(directory);
+  }
+  if (result == NULL) {
+    fail(path);
+  }
+  *length = strlen(result);
+  return result;
+}
+
+int main(int argc, char **argv) {
+  if (argc != 3) {
+    fprintf(stderr, "Usage: jlox-client <socket> <script | ->\n");
+    return 64;
+  }
+  socket_path = argv[1];
+  signal(SIGPIPE, SIG_IGN);
+
+  size_t length;
+  char tag = strcmp(argv[2], "-") == 0 ? SOURCE : PATH;
+  char *payload = tag == SOURCE ? read_stdin(&length) : absolute(argv[2], &length);
+
+  struct sockaddr_un address;
+  memset(&address, 0, sizeof(address));
+  address.sun_family = AF_UNIX;
+  if (strlen(socket_path) >= sizeof(address.sun_path)) {
+    errno = ENAMETOOLONG;
+    fail(socket_path);
+  }
+  strcpy(address.sun_path, socket_path);
+
+  int fd = socket(AF_UNIX, SOCK_STREAM, 0);
+  if (fd < 0 || connect(fd, (struct sockaddr *) &address, sizeof(address)) < 0) {
+    fail(socket_path);
+  }
+
+  unsigned char header[5] = {tag, length >> 24, length >> 16, length >> 8, length};
+  write_fully(fd, header, sizeof(header), socket_path);
+  write_fully(fd, payload, length, socket_path);
+  free(payload);
+
+  char buffer[64 * 1024];
+  while (1) {
+    if (read_fully(fd, header, sizeof(header)) < 0) {
+      fprintf(stderr, "Error: the daemon closed the connection.\n");
+      return 70;
+    }
+    uint32_t remaining = (uint32_t) header[1] << 24 | (uint32_t) header[2] << 16
+        | (uint32_t) header[3] << 8 | header[4];
+
+    if (header[0] == EXIT) {
+      unsigned char status[4];
+      if (remaining != 4 || read_fully(fd, status, sizeof(status)) < 0) {
+        fprintf(stderr, "Error: the daemon closed the connection.\n");
+        return 70;
+      }
+      return (int) ((uint32_t) status[0] << 24 | (uint32_t) status[1] << 16
+          | (uint32_t) status[2] << 8 | status[3]);
+    }
+
+    int out = header[0] == ERR ? STDERR_FILENO : STDOUT_FILENO;
+    while (remaining > 0) {
+      size_t chunk = remaining < sizeof(buffer) ? remaining : sizeof(buffer);
+      if (read_fully(fd, buffer, chunk) < 0) {
+        fprintf(stderr, "Error: the daemon closed the connection.\n");
+        return 70;
+      }
+      write_fully(out, buffer, chunk, out == STDERR_FILENO ? "stderr" : "stdout");
+      remaining -= chunk;
+    }
+  }
+}
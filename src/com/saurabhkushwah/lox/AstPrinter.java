@@ -67,6 +67,96 @@ public class AstPrinter implements Expr.Visitor<String> {
     return null;
   }
 
+  @Override
+  public String visitInlineExpr(Expr.Inline expr) {
+    return null;
+  }
+
+  @Override
+  public String visitSpeculateExpr(Expr.Speculate expr) {
+    return null;
+  }
+
+  @Override
+  public String visitInvariantExpr(Expr.Invariant expr) {
+    return null;
+  }
+
+  @Override
+  public String visitArithmeticExpr(Expr.Arithmetic expr) {
+    return expr.left.accept(this) + " " + expr.right.accept(this) + " " + expr.operator.lexeme;
+  }
+
+  @Override
+  public String visitNegateExpr(Expr.Negate expr) {
+    return expr.right.accept(this) + " " + expr.operator.lexeme;
+  }
+
+  @Override
+  public String visitArrayExpr(Expr.Array expr) {
+    StringBuilder builder = new StringBuilder();
+    for (Expr element : expr.elements) {
+      builder.append(element.accept(this)).append(" ");
+    }
+    return builder.append("[]").toString();
+  }
+
+  @Override
+  public String visitIndexExpr(Expr.Index expr) {
+    return expr.object.accept(this) + " " + expr.index.accept(this) + " []";
+  }
+
+  @Override
+  public String visitIndexAssignExpr(Expr.IndexAssign expr) {
+    return expr.object.accept(this) + " " + expr.index.accept(this) + " "
+        + expr.value.accept(this) + " []=";
+  }
+
+  @Override
+  public String visitMapExpr(Expr.Map expr) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < expr.keys.size(); i++) {
+      builder.append(expr.keys.get(i).accept(this)).append(" ")
+          .append(expr.values.get(i).accept(this)).append(" ");
+    }
+    return builder.append("{}").toString();
+  }
+
+  @Override
+  public String visitGetExpr(Expr.Get expr) {
+    return expr.object.accept(this) + " ." + expr.name.lexeme;
+  }
+
+  @Override
+  public String visitSetExpr(Expr.Set expr) {
+    return expr.object.accept(this) + " " + expr.value.accept(this) + " ." + expr.name.lexeme
+        + "=";
+  }
+
+  @Override
+  public String visitThisExpr(Expr.This expr) {
+    return "this";
+  }
+
+  @Override
+  public String visitSuperExpr(Expr.Super expr) {
+    return "super." + expr.method.lexeme;
+  }
+
+  @Override
+  public String visitIntrinsicExpr(Expr.Intrinsic expr) {
+    return visitCallExpr(expr.call);
+  }
+
+  @Override
+  public String visitConcatExpr(Expr.Concat expr) {
+    StringBuilder builder = new StringBuilder();
+    for (Expr operand : expr.operands) {
+      builder.append(operand.accept(this)).append(" ");
+    }
+    return builder.append("concat").toString();
+  }
+
   private String parenthesize(String name, Expr... exprs) {
     StringBuilder sb = new StringBuilder();
 
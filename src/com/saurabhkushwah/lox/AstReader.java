@@ -0,0 +1,461 @@
+package com.saurabhkushwah.lox;
+
+import static com.saurabhkushwah.lox.AstWriter.ARITHMETIC;
+import static com.saurabhkushwah.lox.AstWriter.ARRAY;
+import static com.saurabhkushwah.lox.AstWriter.ASSIGN;
+import static com.saurabhkushwah.lox.AstWriter.BINARY;
+import static com.saurabhkushwah.lox.AstWriter.BLOCK;
+import static com.saurabhkushwah.lox.AstWriter.BREAK;
+import static com.saurabhkushwah.lox.AstWriter.CALL;
+import static com.saurabhkushwah.lox.AstWriter.CLASS;
+import static com.saurabhkushwah.lox.AstWriter.CONCAT;
+import static com.saurabhkushwah.lox.AstWriter.EXPRESSION;
+import static com.saurabhkushwah.lox.AstWriter.FALSE_VALUE;
+import static com.saurabhkushwah.lox.AstWriter.FOR;
+import static com.saurabhkushwah.lox.AstWriter.FUNCTION;
+import static com.saurabhkushwah.lox.AstWriter.FUNCTION_EXPR;
+import static com.saurabhkushwah.lox.AstWriter.GET;
+import static com.saurabhkushwah.lox.AstWriter.GLOBAL;
+import static com.saurabhkushwah.lox.AstWriter.GROUPING;
+import static com.saurabhkushwah.lox.AstWriter.IF;
+import static com.saurabhkushwah.lox.AstWriter.INDEX;
+import static com.saurabhkushwah.lox.AstWriter.INDEX_ASSIGN;
+import static com.saurabhkushwah.lox.AstWriter.INLINE;
+import static com.saurabhkushwah.lox.AstWriter.INTRINSIC;
+import static com.saurabhkushwah.lox.AstWriter.INVARIANT;
+import static com.saurabhkushwah.lox.AstWriter.LITERAL;
+import static com.saurabhkushwah.lox.AstWriter.LOGICAL;
+import static com.saurabhkushwah.lox.AstWriter.MAP;
+import static com.saurabhkushwah.lox.AstWriter.NEGATE;
+import static com.saurabhkushwah.lox.AstWriter.NIL_VALUE;
+import static com.saurabhkushwah.lox.AstWriter.NULL;
+import static com.saurabhkushwah.lox.AstWriter.NUMBER_VALUE;
+import static com.saurabhkushwah.lox.AstWriter.PRINT;
+import static com.saurabhkushwah.lox.AstWriter.RETURN;
+import static com.saurabhkushwah.lox.AstWriter.SET;
+import static com.saurabhkushwah.lox.AstWriter.SPECULATE;
+import static com.saurabhkushwah.lox.AstWriter.STRING_VALUE;
+import static com.saurabhkushwah.lox.AstWriter.SUPER;
+import static com.saurabhkushwah.lox.AstWriter.THIS;
+import static com.saurabhkushwah.lox.AstWriter.TRUE_VALUE;
+import static com.saurabhkushwah.lox.AstWriter.UNARY;
+import static com.saurabhkushwah.lox.AstWriter.VAR;
+import static com.saurabhkushwah.lox.AstWriter.VARIABLE;
+import static com.saurabhkushwah.lox.AstWriter.WHILE;
+import static com.saurabhkushwah.lox.AstWriter.WHOLE_VALUE;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AstReader rebuilds the tree written by {@link AstWriter}
+ * <p>
+ * Malformed input surfaces as {@link CorruptAstException} (or the buffer's own runtime
+ * exceptions), resolved slots and layouts are collected in {@link #resolution()} and only handed
+ * to the interpreter once the whole tree was read successfully.
+ */
+public class AstReader {
+
+  private static final TokenType[] TOKEN_TYPES = TokenType.values();
+  private static final Slot.Kind[] SLOT_KINDS = Slot.Kind.values();
+  private static final Builtin[] BUILTINS = Builtin.values();
+
+  private final ByteBuffer buffer;
+  private final Resolution resolution = new Resolution();
+  private final List<Token> declarations = new ArrayList<>();
+
+  public AstReader(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  public List<Stmt> read() {
+    resolution.script = readLayout();
+    List<Stmt> statements = readStatements();
+    if (buffer.hasRemaining()) {
+      throw new CorruptAstException("Trailing bytes after AST.");
+    }
+    return statements;
+  }
+
+  public Resolution resolution() {
+    return resolution;
+  }
+
+  private Expr readExpr() {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case LITERAL:
+        return new Expr.Literal(readValue());
+      case VARIABLE: {
+        Expr.Variable expr = new Expr.Variable(readToken());
+        readReference(expr);
+        return expr;
+      }
+      case ASSIGN: {
+        Token name = readToken();
+        Expr.Assign expr = new Expr.Assign(name, readExpr());
+        readReference(expr);
+        return expr;
+      }
+      case GROUPING:
+        return new Expr.Grouping(readExpr());
+      case CALL:
+        return readCall();
+      case UNARY: {
+        Token operator = readToken();
+        return new Expr.Unary(operator, readExpr());
+      }
+      case BINARY: {
+        Expr left = readExpr();
+        Token operator = readToken();
+        return new Expr.Binary(left, operator, readExpr());
+      }
+      case LOGICAL: {
+        Expr left = readExpr();
+        Token operator = readToken();
+        return new Expr.Logical(left, operator, readExpr());
+      }
+      case FUNCTION_EXPR: {
+        List<Token> parameters = readTokens();
+        Expr.Function expr = new Expr.Function(parameters, readStatements());
+        resolution.layouts.put(expr, readLayout());
+        return expr;
+      }
+      case INLINE: {
+        if (buffer.get() != CALL) {
+          throw new CorruptAstException("Expect call in inlined expression.");
+        }
+        Expr.Call call = readCall();
+        Token function = readDeclaration();
+        List<Token> parameters = readTokens();
+        List<Expr> arguments = readExpressions();
+        Expr.Inline expr = new Expr.Inline(call, function, parameters, arguments, readExpr());
+        resolution.layouts.put(expr, readLayout());
+        return expr;
+      }
+      case SPECULATE:
+        return new Expr.Speculate(readExpr());
+      case INVARIANT: {
+        Token name = readToken();
+        Expr.Invariant expr = new Expr.Invariant(name, readExpr());
+        readReference(expr);
+        return expr;
+      }
+      case ARITHMETIC: {
+        Expr left = readExpr();
+        Token operator = readToken();
+        return new Expr.Arithmetic(left, operator, readExpr());
+      }
+      case NEGATE: {
+        Token operator = readToken();
+        return new Expr.Negate(operator, readExpr());
+      }
+      case CONCAT:
+        return new Expr.Concat(readExpressions());
+      case ARRAY: {
+        Token bracket = readToken();
+        return new Expr.Array(bracket, readExpressions());
+      }
+      case INDEX: {
+        Expr object = readExpr();
+        Token bracket = readToken();
+        return new Expr.Index(object, bracket, readExpr());
+      }
+      case INDEX_ASSIGN: {
+        Expr object = readExpr();
+        Token bracket = readToken();
+        Expr index = readExpr();
+        return new Expr.IndexAssign(object, bracket, index, readExpr());
+      }
+      case MAP: {
+        Token brace = readToken();
+        List<Expr> keys = readExpressions();
+        return new Expr.Map(brace, keys, readExpressions());
+      }
+      case GET: {
+        Expr object = readExpr();
+        return new Expr.Get(object, readToken());
+      }
+      case SET: {
+        Expr object = readExpr();
+        Token name = readToken();
+        return new Expr.Set(object, name, readExpr());
+      }
+      case THIS:
+        return readThis();
+      case SUPER: {
+        Token keyword = readToken();
+        Token method = readToken();
+        if (buffer.get() != THIS) {
+          throw new CorruptAstException("Expect this in super expression.");
+        }
+        Expr.Super expr = new Expr.Super(keyword, method, readThis());
+        readReference(expr);
+        return expr;
+      }
+      case INTRINSIC: {
+        if (buffer.get() != CALL) {
+          throw new CorruptAstException("Expect call in intrinsic.");
+        }
+        Expr.Call call = readCall();
+        byte builtin = buffer.get();
+        if (builtin < 0 || builtin >= BUILTINS.length) {
+          throw new CorruptAstException("Unknown builtin " + builtin + ".");
+        }
+        return new Expr.Intrinsic(call, BUILTINS[builtin]);
+      }
+    }
+
+    throw new CorruptAstException("Unknown expression tag " + tag + ".");
+  }
+
+  private Stmt readStmt() {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case EXPRESSION:
+        return new Stmt.Expression(readExpr());
+      case FUNCTION: {
+        Token name = readDeclaration();
+        List<Token> parameters = readTokens();
+        Stmt.Function stmt = new Stmt.Function(name, parameters, readStatements());
+        readDefinition(stmt);
+        resolution.layouts.put(stmt, readLayout());
+        if (buffer.get() == TRUE_VALUE) {
+          resolution.memoized.add(stmt);
+        }
+        return stmt;
+      }
+      case IF: {
+        Expr condition = readExpr();
+        Stmt thenBranch = readStmt();
+        return new Stmt.If(condition, thenBranch, readStmt());
+      }
+      case BREAK:
+        return new Stmt.Break(readToken());
+      case PRINT:
+        return new Stmt.Print(readExpr());
+      case WHILE: {
+        Expr condition = readExpr();
+        return new Stmt.While(condition, readStmt());
+      }
+      case FOR: {
+        Stmt initializer = readStmt();
+        Expr condition = readExpr();
+        Expr increment = readExpr();
+        return new Stmt.For(initializer, condition, increment, readStmt());
+      }
+      case RETURN: {
+        Token keyword = readToken();
+        Stmt.Return stmt = new Stmt.Return(keyword, readExpr());
+        if (buffer.get() == TRUE_VALUE) {
+          if (!(stmt.value instanceof Expr.Call)) {
+            throw new CorruptAstException("Tail call without a call.");
+          }
+          resolution.tailCalls.add(stmt);
+        }
+        return stmt;
+      }
+      case VAR: {
+        Token name = readToken();
+        Stmt.Var stmt = new Stmt.Var(name, readExpr());
+        readDefinition(stmt);
+        return stmt;
+      }
+      case BLOCK:
+        return new Stmt.Block(readStatements());
+      case CLASS:
+        return readClass();
+    }
+
+    throw new CorruptAstException("Unknown statement tag " + tag + ".");
+  }
+
+  private Expr.This readThis() {
+    Expr.This expr = new Expr.This(readToken());
+    readReference(expr);
+    return expr;
+  }
+
+  private Stmt.Class readClass() {
+    Token name = readToken();
+    Expr superclass = readExpr();
+    if (superclass != null && !(superclass instanceof Expr.Variable)) {
+      throw new CorruptAstException("Expect variable as superclass.");
+    }
+
+    int size = readSize();
+    List<Stmt.Function> methods = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      Stmt method = readStmt();
+      if (!(method instanceof Stmt.Function)) {
+        throw new CorruptAstException("Expect function as method.");
+      }
+      methods.add((Stmt.Function) method);
+    }
+
+    Stmt.Class stmt = new Stmt.Class(name, (Expr.Variable) superclass, methods);
+    readDefinition(stmt);
+    if (superclass != null) {
+      Slot slot = readSlot();
+      if (slot == null) {
+        throw new CorruptAstException("Global super.");
+      }
+      resolution.superclasses.put(stmt, slot);
+    }
+    return stmt;
+  }
+
+  private Expr.Call readCall() {
+    Expr callee = readExpr();
+    Token paren = readToken();
+    return new Expr.Call(callee, paren, readExpressions());
+  }
+
+  private List<Expr> readExpressions() {
+    int size = readSize();
+    List<Expr> expressions = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      expressions.add(readExpr());
+    }
+    return expressions;
+  }
+
+  private List<Stmt> readStatements() {
+    int size = readSize();
+    List<Stmt> statements = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      statements.add(readStmt());
+    }
+    return statements;
+  }
+
+  private List<Token> readTokens() {
+    int size = readSize();
+    List<Token> tokens = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      tokens.add(readToken());
+    }
+    return tokens;
+  }
+
+  private Token readToken() {
+    int type = buffer.get();
+    if (type < 0 || type >= TOKEN_TYPES.length) {
+      throw new CorruptAstException("Unknown token type " + type + ".");
+    }
+
+    String lexeme = readString();
+    Object literal = readValue();
+    int line = buffer.getInt();
+    return new Token(TOKEN_TYPES[type], lexeme, literal, line);
+  }
+
+  private Token readDeclaration() {
+    int id = buffer.getInt();
+    if (id == declarations.size()) {
+      declarations.add(readToken());
+    } else if (id < 0 || id > declarations.size()) {
+      throw new CorruptAstException("Invalid declaration " + id + ".");
+    }
+    return declarations.get(id);
+  }
+
+  private void readReference(Expr expr) {
+    Slot slot = readSlot();
+    if (slot != null) {
+      resolution.references.put(expr, slot);
+    }
+  }
+
+  private void readDefinition(Stmt stmt) {
+    Slot slot = readSlot();
+    if (slot != null) {
+      resolution.definitions.put(stmt, slot);
+    }
+  }
+
+  private Slot readSlot() {
+    byte kind = buffer.get();
+    if (kind == GLOBAL) {
+      return null;
+    }
+    if (kind < 0 || kind >= SLOT_KINDS.length) {
+      throw new CorruptAstException("Unknown slot kind " + kind + ".");
+    }
+
+    int index = buffer.getInt();
+    if (index < 0) {
+      throw new CorruptAstException("Invalid slot " + index + ".");
+    }
+    return new Slot(SLOT_KINDS[kind], index);
+  }
+
+  private FrameLayout readLayout() {
+    int size = buffer.getInt();
+    if (size < 0) {
+      throw new CorruptAstException("Invalid frame size " + size + ".");
+    }
+
+    boolean[] capturedParameters = new boolean[readSize()];
+    for (int i = 0; i < capturedParameters.length; i++) {
+      capturedParameters[i] = buffer.get() == TRUE_VALUE;
+    }
+
+    Slot[] upvalues = new Slot[readSize()];
+    for (int i = 0; i < upvalues.length; i++) {
+      upvalues[i] = readSlot();
+      if (upvalues[i] == null) {
+        throw new CorruptAstException("Global upvalue.");
+      }
+    }
+    return new FrameLayout(size, capturedParameters, upvalues);
+  }
+
+  private Object readValue() {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NIL_VALUE:
+        return null;
+      case TRUE_VALUE:
+        return true;
+      case FALSE_VALUE:
+        return false;
+      case NUMBER_VALUE:
+        return buffer.getDouble();
+      case STRING_VALUE:
+        return readString();
+      case WHOLE_VALUE:
+        return Numbers.of(buffer.getLong());
+    }
+
+    throw new CorruptAstException("Unknown value tag " + tag + ".");
+  }
+
+  private String readString() {
+    byte[] encoded = new byte[readSize()];
+    buffer.get(encoded);
+    return new String(encoded, StandardCharsets.UTF_8);
+  }
+
+  // sizes are bounded by what is left in the buffer, guards against huge allocations
+  private int readSize() {
+    int size = buffer.getInt();
+    if (size < 0 || size > buffer.remaining()) {
+      throw new CorruptAstException("Invalid size " + size + ".");
+    }
+    return size;
+  }
+
+  static class CorruptAstException extends RuntimeException {
+
+    CorruptAstException(String message) {
+      super(message, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,380 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.Expr.Assign;
+import com.saurabhkushwah.lox.Expr.Binary;
+import com.saurabhkushwah.lox.Expr.Call;
+import com.saurabhkushwah.lox.Expr.Grouping;
+import com.saurabhkushwah.lox.Expr.Literal;
+import com.saurabhkushwah.lox.Expr.Logical;
+import com.saurabhkushwah.lox.Expr.Unary;
+import com.saurabhkushwah.lox.Expr.Variable;
+import com.saurabhkushwah.lox.Stmt.Block;
+import com.saurabhkushwah.lox.Stmt.Expression;
+import com.saurabhkushwah.lox.Stmt.Function;
+import com.saurabhkushwah.lox.Stmt.If;
+import com.saurabhkushwah.lox.Stmt.Print;
+import com.saurabhkushwah.lox.Stmt.Var;
+import com.saurabhkushwah.lox.Stmt.While;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class of the AST to AST optimization passes
+ * <p>
+ * Every visit rebuilds its node from the transformed children, returning the very same node when
+ * none of them changed so untouched subtrees are shared with the input. A statement visit may
+ * return null to drop the statement, a dropped branch or loop body becomes an empty block.
+ * <p>
+ * Passes run on resolved trees and the result is resolved again before execution, so they are
+ * free to create new nodes.
+ */
+abstract class AstTransformer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+  List<Stmt> transform(List<Stmt> statements) {
+    List<Stmt> result = null;
+
+    for (int i = 0; i < statements.size(); i++) {
+      Stmt stmt = statements.get(i);
+      Stmt transformed = transform(stmt);
+
+      if (result == null && transformed != stmt) {
+        result = new ArrayList<>(statements.subList(0, i));
+      }
+      if (result != null && transformed != null) {
+        result.add(transformed);
+      }
+    }
+
+    return result == null ? statements : result;
+  }
+
+  Stmt transform(Stmt stmt) {
+    return stmt == null ? null : stmt.accept(this);
+  }
+
+  Expr transform(Expr expr) {
+    return expr == null ? null : expr.accept(this);
+  }
+
+  // statement nested in another statement can't just disappear
+  Stmt transformBranch(Stmt stmt) {
+    Stmt transformed = transform(stmt);
+    return transformed == null ? new Block(new ArrayList<>()) : transformed;
+  }
+
+  List<Expr> transformExpressions(List<Expr> expressions) {
+    List<Expr> result = null;
+
+    for (int i = 0; i < expressions.size(); i++) {
+      Expr expr = expressions.get(i);
+      Expr transformed = transform(expr);
+
+      if (result == null && transformed != expr) {
+        result = new ArrayList<>(expressions.subList(0, i));
+      }
+      if (result != null) {
+        result.add(transformed);
+      }
+    }
+
+    return result == null ? expressions : result;
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Variable expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitAssignExpr(Assign expr) {
+    Expr value = transform(expr.value);
+    return value == expr.value ? expr : new Assign(expr.name, value);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Grouping expr) {
+    Expr expression = transform(expr.expression);
+    return expression == expr.expression ? expr : new Grouping(expression);
+  }
+
+  @Override
+  public Expr visitCallExpr(Call expr) {
+    Expr callee = transform(expr.callee);
+    List<Expr> arguments = transformExpressions(expr.arguments);
+
+    if (callee == expr.callee && arguments == expr.arguments) {
+      return expr;
+    }
+    return new Call(callee, expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Unary expr) {
+    Expr right = transform(expr.right);
+    return right == expr.right ? expr : new Unary(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Binary expr) {
+    Expr left = transform(expr.left);
+    Expr right = transform(expr.right);
+
+    if (left == expr.left && right == expr.right) {
+      return expr;
+    }
+    return new Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Logical expr) {
+    Expr left = transform(expr.left);
+    Expr right = transform(expr.right);
+
+    if (left == expr.left && right == expr.right) {
+      return expr;
+    }
+    return new Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitFunctionExpr(Expr.Function expr) {
+    List<Stmt> body = transform(expr.body);
+    return body == expr.body ? expr : new Expr.Function(expr.parameters, body);
+  }
+
+  @Override
+  public Expr visitInlineExpr(Expr.Inline expr) {
+    // the fallback call is transformed in place, it must stay a plain call
+    Expr callee = transform(expr.call.callee);
+    List<Expr> callArguments = transformExpressions(expr.call.arguments);
+    List<Expr> arguments = transformExpressions(expr.arguments);
+    Expr body = transform(expr.body);
+
+    if (callee == expr.call.callee && callArguments == expr.call.arguments
+        && arguments == expr.arguments && body == expr.body) {
+      return expr;
+    }
+
+    Call call = callee == expr.call.callee && callArguments == expr.call.arguments
+        ? expr.call : new Call(callee, expr.call.paren, callArguments);
+    return new Expr.Inline(call, expr.function, expr.parameters, arguments, body);
+  }
+
+  @Override
+  public Expr visitSpeculateExpr(Expr.Speculate expr) {
+    Expr expression = transform(expr.expression);
+    return expression == expr.expression ? expr : new Expr.Speculate(expression);
+  }
+
+  @Override
+  public Expr visitInvariantExpr(Expr.Invariant expr) {
+    Expr expression = transform(expr.expression);
+    return expression == expr.expression ? expr : new Expr.Invariant(expr.name, expression);
+  }
+
+  @Override
+  public Expr visitArithmeticExpr(Expr.Arithmetic expr) {
+    Expr left = transform(expr.left);
+    Expr right = transform(expr.right);
+
+    if (left == expr.left && right == expr.right) {
+      return expr;
+    }
+    return new Expr.Arithmetic(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitNegateExpr(Expr.Negate expr) {
+    Expr right = transform(expr.right);
+    return right == expr.right ? expr : new Expr.Negate(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitConcatExpr(Expr.Concat expr) {
+    List<Expr> operands = transformExpressions(expr.operands);
+    return operands == expr.operands ? expr : new Expr.Concat(operands);
+  }
+
+  @Override
+  public Expr visitArrayExpr(Expr.Array expr) {
+    List<Expr> elements = transformExpressions(expr.elements);
+    return elements == expr.elements ? expr : new Expr.Array(expr.bracket, elements);
+  }
+
+  @Override
+  public Expr visitIndexExpr(Expr.Index expr) {
+    Expr object = transform(expr.object);
+    Expr index = transform(expr.index);
+
+    if (object == expr.object && index == expr.index) {
+      return expr;
+    }
+    return new Expr.Index(object, expr.bracket, index);
+  }
+
+  @Override
+  public Expr visitIndexAssignExpr(Expr.IndexAssign expr) {
+    Expr object = transform(expr.object);
+    Expr index = transform(expr.index);
+    Expr value = transform(expr.value);
+
+    if (object == expr.object && index == expr.index && value == expr.value) {
+      return expr;
+    }
+    return new Expr.IndexAssign(object, expr.bracket, index, value);
+  }
+
+  @Override
+  public Expr visitMapExpr(Expr.Map expr) {
+    List<Expr> keys = transformExpressions(expr.keys);
+    List<Expr> values = transformExpressions(expr.values);
+
+    if (keys == expr.keys && values == expr.values) {
+      return expr;
+    }
+    return new Expr.Map(expr.brace, keys, values);
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    Expr object = transform(expr.object);
+    return object == expr.object ? expr : new Expr.Get(object, expr.name);
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    Expr object = transform(expr.object);
+    Expr value = transform(expr.value);
+
+    if (object == expr.object && value == expr.value) {
+      return expr;
+    }
+    return new Expr.Set(object, expr.name, value);
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  // the fallback call is transformed in place, like the one of an inlined call
+  @Override
+  public Expr visitIntrinsicExpr(Expr.Intrinsic expr) {
+    Expr callee = transform(expr.call.callee);
+    List<Expr> arguments = transformExpressions(expr.call.arguments);
+
+    if (callee == expr.call.callee && arguments == expr.call.arguments) {
+      return expr;
+    }
+    return new Expr.Intrinsic(new Call(callee, expr.call.paren, arguments), expr.builtin);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Expression stmt) {
+    Expr expression = transform(stmt.expression);
+    return expression == stmt.expression ? stmt : new Expression(expression);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Function stmt) {
+    List<Stmt> body = transform(stmt.body);
+    return body == stmt.body ? stmt : new Function(stmt.name, stmt.parameters, body);
+  }
+
+  @Override
+  public Stmt visitIfStmt(If stmt) {
+    Expr condition = transform(stmt.condition);
+    Stmt thenBranch = transformBranch(stmt.thenBranch);
+    Stmt elseBranch = transform(stmt.elseBranch);
+
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch
+        && elseBranch == stmt.elseBranch) {
+      return stmt;
+    }
+    return new If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitBreakStmt(Stmt.Break stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Print stmt) {
+    Expr expression = transform(stmt.expression);
+    return expression == stmt.expression ? stmt : new Print(expression);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(While stmt) {
+    Expr condition = transform(stmt.condition);
+    Stmt body = transformBranch(stmt.body);
+
+    if (condition == stmt.condition && body == stmt.body) {
+      return stmt;
+    }
+    return new While(condition, body);
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    Stmt initializer = transform(stmt.initializer);
+    Expr condition = transform(stmt.condition);
+    Expr increment = transform(stmt.increment);
+    Stmt body = transformBranch(stmt.body);
+
+    if (initializer == stmt.initializer && condition == stmt.condition
+        && increment == stmt.increment && body == stmt.body) {
+      return stmt;
+    }
+    return new Stmt.For(initializer, condition, increment, body);
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    Expr value = transform(stmt.value);
+    return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Var stmt) {
+    Expr initializer = transform(stmt.initializer);
+    return initializer == stmt.initializer ? stmt : new Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Block stmt) {
+    List<Stmt> statements = transform(stmt.statements);
+    return statements == stmt.statements ? stmt : new Block(statements);
+  }
+
+  // the superclass stays a variable, methods stay functions
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    List<Function> methods = null;
+
+    for (int i = 0; i < stmt.methods.size(); i++) {
+      Function method = stmt.methods.get(i);
+      Function transformed = (Function) transform(method);
+
+      if (methods == null && transformed != method) {
+        methods = new ArrayList<>(stmt.methods.subList(0, i));
+      }
+      if (methods != null) {
+        methods.add(transformed);
+      }
+    }
+
+    return methods == null ? stmt : new Stmt.Class(stmt.name, stmt.superclass, methods);
+  }
+}
@@ -0,0 +1,543 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.Expr.Assign;
+import com.saurabhkushwah.lox.Expr.Binary;
+import com.saurabhkushwah.lox.Expr.Call;
+import com.saurabhkushwah.lox.Expr.Grouping;
+import com.saurabhkushwah.lox.Expr.Literal;
+import com.saurabhkushwah.lox.Expr.Logical;
+import com.saurabhkushwah.lox.Expr.Unary;
+import com.saurabhkushwah.lox.Expr.Variable;
+import com.saurabhkushwah.lox.Stmt.Block;
+import com.saurabhkushwah.lox.Stmt.Expression;
+import com.saurabhkushwah.lox.Stmt.Function;
+import com.saurabhkushwah.lox.Stmt.If;
+import com.saurabhkushwah.lox.Stmt.Print;
+import com.saurabhkushwah.lox.Stmt.Var;
+import com.saurabhkushwah.lox.Stmt.While;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AstWriter serializes a resolved AST into the compact binary form stored by {@link ScriptCache}
+ * <p>
+ * Every node is written as a one byte tag followed by its fields in declaration order. Variable
+ * references and declarations also carry the slot computed by the resolver, functions and inlined
+ * calls their frame layout, so that a loaded tree can be executed without resolving it again.
+ * <p>
+ * Bump FORMAT_VERSION whenever a node or the encoding changes.
+ */
+public class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+  static final int FORMAT_VERSION = 14;
+
+  // node tags, 0 is reserved for null
+  static final byte NULL = 0;
+
+  static final byte LITERAL = 1;
+  static final byte VARIABLE = 2;
+  static final byte ASSIGN = 3;
+  static final byte GROUPING = 4;
+  static final byte CALL = 5;
+  static final byte UNARY = 6;
+  static final byte BINARY = 7;
+  static final byte LOGICAL = 8;
+  static final byte FUNCTION_EXPR = 9;
+  static final byte INLINE = 10;
+  static final byte SPECULATE = 11;
+  static final byte INVARIANT = 12;
+  static final byte ARITHMETIC = 13;
+  static final byte NEGATE = 14;
+  static final byte CONCAT = 15;
+  static final byte ARRAY = 16;
+  static final byte INDEX = 17;
+  static final byte INDEX_ASSIGN = 18;
+  static final byte MAP = 19;
+  static final byte GET = 20;
+  static final byte SET = 21;
+  static final byte THIS = 22;
+  static final byte SUPER = 23;
+  static final byte INTRINSIC = 24;
+
+  static final byte EXPRESSION = 32;
+  static final byte FUNCTION = 33;
+  static final byte IF = 34;
+  static final byte BREAK = 35;
+  static final byte PRINT = 36;
+  static final byte WHILE = 37;
+  static final byte RETURN = 38;
+  static final byte VAR = 39;
+  static final byte BLOCK = 40;
+  static final byte FOR = 41;
+  static final byte CLASS = 42;
+
+  // literal value tags
+  static final byte NIL_VALUE = 0;
+  static final byte TRUE_VALUE = 1;
+  static final byte FALSE_VALUE = 2;
+  static final byte NUMBER_VALUE = 3;
+  static final byte STRING_VALUE = 4;
+  static final byte WHOLE_VALUE = 5;
+
+  // slot kind of globals
+  static final byte GLOBAL = -1;
+
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  private final DataOutputStream out = new DataOutputStream(bytes);
+  private final Resolution resolution;
+
+  // function names are shared by their declaration and the calls inlined from it
+  private final Map<Token, Integer> declarations = new IdentityHashMap<>();
+
+  public AstWriter(Resolution resolution) {
+    this.resolution = resolution;
+  }
+
+  public byte[] write(List<Stmt> statements) {
+    writeLayout(resolution.script);
+    writeStatements(statements);
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public Void visitLiteralExpr(Literal expr) {
+    writeByte(LITERAL);
+    writeValue(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Variable expr) {
+    writeByte(VARIABLE);
+    writeToken(expr.name);
+    writeSlot(resolution.references.get(expr));
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Assign expr) {
+    writeByte(ASSIGN);
+    writeToken(expr.name);
+    write(expr.value);
+    writeSlot(resolution.references.get(expr));
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Grouping expr) {
+    writeByte(GROUPING);
+    write(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Call expr) {
+    writeByte(CALL);
+    write(expr.callee);
+    writeToken(expr.paren);
+    writeExpressions(expr.arguments);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Unary expr) {
+    writeByte(UNARY);
+    writeToken(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Binary expr) {
+    writeByte(BINARY);
+    write(expr.left);
+    writeToken(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Logical expr) {
+    writeByte(LOGICAL);
+    write(expr.left);
+    writeToken(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionExpr(Expr.Function expr) {
+    writeByte(FUNCTION_EXPR);
+    writeTokens(expr.parameters);
+    writeStatements(expr.body);
+    writeLayout(resolution.layouts.get(expr));
+    return null;
+  }
+
+  @Override
+  public Void visitInlineExpr(Expr.Inline expr) {
+    writeByte(INLINE);
+    visitCallExpr(expr.call);
+    writeDeclaration(expr.function);
+    writeTokens(expr.parameters);
+    writeExpressions(expr.arguments);
+    write(expr.body);
+    writeLayout(resolution.layouts.get(expr));
+    return null;
+  }
+
+  @Override
+  public Void visitSpeculateExpr(Expr.Speculate expr) {
+    writeByte(SPECULATE);
+    write(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitInvariantExpr(Expr.Invariant expr) {
+    writeByte(INVARIANT);
+    writeToken(expr.name);
+    write(expr.expression);
+    writeSlot(resolution.references.get(expr));
+    return null;
+  }
+
+  @Override
+  public Void visitArithmeticExpr(Expr.Arithmetic expr) {
+    writeByte(ARITHMETIC);
+    write(expr.left);
+    writeToken(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitNegateExpr(Expr.Negate expr) {
+    writeByte(NEGATE);
+    writeToken(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitConcatExpr(Expr.Concat expr) {
+    writeByte(CONCAT);
+    writeExpressions(expr.operands);
+    return null;
+  }
+
+  @Override
+  public Void visitArrayExpr(Expr.Array expr) {
+    writeByte(ARRAY);
+    writeToken(expr.bracket);
+    writeExpressions(expr.elements);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    writeByte(INDEX);
+    write(expr.object);
+    writeToken(expr.bracket);
+    write(expr.index);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+    writeByte(INDEX_ASSIGN);
+    write(expr.object);
+    writeToken(expr.bracket);
+    write(expr.index);
+    write(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitMapExpr(Expr.Map expr) {
+    writeByte(MAP);
+    writeToken(expr.brace);
+    writeExpressions(expr.keys);
+    writeExpressions(expr.values);
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    writeByte(GET);
+    write(expr.object);
+    writeToken(expr.name);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    writeByte(SET);
+    write(expr.object);
+    writeToken(expr.name);
+    write(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    writeByte(THIS);
+    writeToken(expr.keyword);
+    writeSlot(resolution.references.get(expr));
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    writeByte(SUPER);
+    writeToken(expr.keyword);
+    writeToken(expr.method);
+    write(expr.receiver);
+    writeSlot(resolution.references.get(expr));
+    return null;
+  }
+
+  @Override
+  public Void visitIntrinsicExpr(Expr.Intrinsic expr) {
+    writeByte(INTRINSIC);
+    visitCallExpr(expr.call);
+    writeByte((byte) expr.builtin.ordinal());
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Expression stmt) {
+    writeByte(EXPRESSION);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Function stmt) {
+    writeByte(FUNCTION);
+    writeDeclaration(stmt.name);
+    writeTokens(stmt.parameters);
+    writeStatements(stmt.body);
+    writeSlot(resolution.definitions.get(stmt));
+    writeLayout(resolution.layouts.get(stmt));
+    writeByte(resolution.memoized.contains(stmt) ? TRUE_VALUE : FALSE_VALUE);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(If stmt) {
+    writeByte(IF);
+    write(stmt.condition);
+    write(stmt.thenBranch);
+    write(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    writeByte(BREAK);
+    writeToken(stmt.keyword);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Print stmt) {
+    writeByte(PRINT);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(While stmt) {
+    writeByte(WHILE);
+    write(stmt.condition);
+    write(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    writeByte(FOR);
+    write(stmt.initializer);
+    write(stmt.condition);
+    write(stmt.increment);
+    write(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    writeByte(RETURN);
+    writeToken(stmt.keyword);
+    write(stmt.value);
+    writeByte(resolution.tailCalls.contains(stmt) ? TRUE_VALUE : FALSE_VALUE);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Var stmt) {
+    writeByte(VAR);
+    writeToken(stmt.name);
+    write(stmt.initializer);
+    writeSlot(resolution.definitions.get(stmt));
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Block stmt) {
+    writeByte(BLOCK);
+    writeStatements(stmt.statements);
+    return null;
+  }
+
+  // methods are written as function statements, super's slot only follows a superclass
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    writeByte(CLASS);
+    writeToken(stmt.name);
+    write(stmt.superclass);
+    writeInt(stmt.methods.size());
+    for (Function method : stmt.methods) {
+      write(method);
+    }
+    writeSlot(resolution.definitions.get(stmt));
+    if (stmt.superclass != null) {
+      writeSlot(resolution.superclasses.get(stmt));
+    }
+    return null;
+  }
+
+  private void write(Expr expr) {
+    if (expr == null) {
+      writeByte(NULL);
+    } else {
+      expr.accept(this);
+    }
+  }
+
+  private void write(Stmt stmt) {
+    if (stmt == null) {
+      writeByte(NULL);
+    } else {
+      stmt.accept(this);
+    }
+  }
+
+  private void writeExpressions(List<Expr> expressions) {
+    writeInt(expressions.size());
+    for (Expr expr : expressions) {
+      write(expr);
+    }
+  }
+
+  private void writeStatements(List<Stmt> statements) {
+    writeInt(statements.size());
+    for (Stmt stmt : statements) {
+      write(stmt);
+    }
+  }
+
+  private void writeTokens(List<Token> tokens) {
+    writeInt(tokens.size());
+    for (Token token : tokens) {
+      writeToken(token);
+    }
+  }
+
+  private void writeToken(Token token) {
+    writeByte((byte) token.type.ordinal());
+    writeString(token.lexeme);
+    writeValue(token.literal);
+    writeInt(token.line);
+  }
+
+  // first occurrence writes a fresh id and the token, later ones only the id
+  private void writeDeclaration(Token name) {
+    Integer id = declarations.get(name);
+    if (id != null) {
+      writeInt(id);
+      return;
+    }
+
+    writeInt(declarations.size());
+    declarations.put(name, declarations.size());
+    writeToken(name);
+  }
+
+  private void writeSlot(Slot slot) {
+    if (slot == null) {
+      writeByte(GLOBAL);
+    } else {
+      writeByte((byte) slot.kind.ordinal());
+      writeInt(slot.index);
+    }
+  }
+
+  private void writeLayout(FrameLayout layout) {
+    writeInt(layout.size);
+    writeInt(layout.capturedParameters.length);
+    for (boolean captured : layout.capturedParameters) {
+      writeByte(captured ? TRUE_VALUE : FALSE_VALUE);
+    }
+    writeInt(layout.upvalues.length);
+    for (Slot upvalue : layout.upvalues) {
+      writeSlot(upvalue);
+    }
+  }
+
+  private void writeValue(Object value) {
+    try {
+      if (value == null) {
+        out.writeByte(NIL_VALUE);
+      } else if (value instanceof Boolean) {
+        out.writeByte((boolean) value ? TRUE_VALUE : FALSE_VALUE);
+      } else if (value instanceof Long) {
+        out.writeByte(WHOLE_VALUE);
+        out.writeLong((long) value);
+      } else if (value instanceof Double) {
+        out.writeByte(NUMBER_VALUE);
+        out.writeDouble((double) value);
+      } else if (value instanceof String) {
+        out.writeByte(STRING_VALUE);
+        writeString((String) value);
+      } else {
+        throw new IllegalArgumentException("Cannot serialize literal " + value);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // writeUTF is limited to 64KB, string literals are not
+  private void writeString(String str) {
+    byte[] encoded = str.getBytes(StandardCharsets.UTF_8);
+    writeInt(encoded.length);
+    try {
+      out.write(encoded);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeByte(byte value) {
+    try {
+      out.writeByte(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeInt(int value) {
+    try {
+      out.writeInt(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
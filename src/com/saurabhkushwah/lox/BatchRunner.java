@@ -0,0 +1,197 @@
+package com.saurabhkushwah.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs many scripts in one JVM on a fixed size worker pool
+ * <p>
+ * Every script gets its own Interpreter (globals), ErrorReporter and limits, its stdout and stderr
+ * are buffered and replayed in input order once it finishes, followed by a status line on stderr.
+ * A summary with the throughput is printed at the end.
+ * <p>
+ * Exit status is 0 when every script succeeded, otherwise the status of the worst failure:
+ * 74 unreadable script, 65 compile error, 70 runtime error. A script that fails in any other way,
+ * out of memory for one, is reported as failed 70 and the batch carries on.
+ */
+public class BatchRunner {
+
+  // interpreter recursion is deep, worker threads get a main thread sized stack
+  private static final long WORKER_STACK_SIZE = 8L * 1024 * 1024;
+
+  private final ScriptCache cache;
+  private final int workers;
+
+  public BatchRunner(ScriptCache cache, int workers) {
+    this.cache = cache;
+    this.workers = workers;
+  }
+
+  /**
+   * directories are searched recursively for *.lox files, *.lox files are taken as is and any
+   * other file is a list with one script path per line ('#' starts a comment line)
+   */
+  public static List<Path> collect(List<String> sources) throws IOException {
+    List<Path> scripts = new ArrayList<>();
+
+    for (String source : sources) {
+      Path path = Paths.get(source);
+      if (Files.isDirectory(path)) {
+        try (Stream<Path> files = Files.walk(path)) {
+          scripts.addAll(files
+              .filter(file -> Files.isRegularFile(file) && isScript(file))
+              .sorted()
+              .collect(Collectors.toList()));
+        }
+      } else if (isScript(path)) {
+        scripts.add(path);
+      } else {
+        for (String line : Files.readAllLines(path)) {
+          line = line.trim();
+          if (!line.isEmpty() && !line.startsWith("#")) {
+            scripts.add(Paths.get(line));
+          }
+        }
+      }
+    }
+
+    return scripts;
+  }
+
+  private static boolean isScript(Path path) {
+    return path.getFileName().toString().endsWith(".lox");
+  }
+
+  public int run(List<Path> scripts) {
+    ExecutorService executor = Executors.newFixedThreadPool(workers, new WorkerFactory());
+    long start = System.nanoTime();
+
+    List<Future<Result>> results = new ArrayList<>(scripts.size());
+    for (Path script : scripts) {
+      results.add(executor.submit(() -> execute(script)));
+    }
+
+    int status = 0;
+    int failed = 0;
+    try {
+      for (Future<Result> future : results) {
+        Result result = future.get();
+        System.out.print(result.out);
+        System.err.print(result.err);
+        System.err.printf("[%s] %s (%.3f ms)\n",
+            result.status == 0 ? "ok" : "failed " + result.status, result.script,
+            result.nanos / 1e6);
+
+        if (result.status != 0) {
+          failed++;
+          status = worse(status, result.status);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      status = 70;
+    } catch (ExecutionException e) {
+      // execute reports whatever a script throws in its Result
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.err.printf("%d scripts, %d ok, %d failed in %.3f s (%.1f scripts/s, %d workers)\n",
+        scripts.size(), scripts.size() - failed, failed, seconds, scripts.size() / seconds,
+        workers);
+    return status;
+  }
+
+  private Result execute(Path script) {
+    long start = System.nanoTime();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    PrintStream outStream = new PrintStream(out, true);
+    PrintStream errStream = new PrintStream(err, true);
+
+    ErrorReporter reporter = new ErrorReporter(errStream);
+    Interpreter interpreter = new Interpreter(outStream, reporter);
+    Lox.configure(interpreter);
+
+    int status;
+    try {
+      String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+      List<Stmt> statements = Lox.load(source, interpreter, reporter, cache);
+      if (statements != null) {
+        interpreter.interpret(statements);
+      }
+      status = reporter.hadError() ? 65 : reporter.hadRuntimeError() ? 70 : 0;
+    } catch (IOException e) {
+      errStream.printf("Error: cannot read %s: %s\n", script, e.getMessage());
+      status = 74;
+    } catch (StackOverflowError e) {
+      errStream.println("Error: stack overflow.");
+      status = 70;
+    } catch (OutOfMemoryError e) {
+      errStream.println("Error: out of memory.");
+      status = 70;
+    } catch (Throwable e) {
+      // one broken script must not take the rest of the batch down
+      errStream.printf("Error: internal error: %s\n", e);
+      status = 70;
+    }
+
+    return new Result(script, status, out.toString(), err.toString(), System.nanoTime() - start);
+  }
+
+  private static int worse(int status, int other) {
+    for (int candidate : new int[]{74, 65, 70}) {
+      if (status == candidate || other == candidate) {
+        return candidate;
+      }
+    }
+    return Math.max(status, other);
+  }
+
+  private static class Result {
+
+    final Path script;
+    final int status;
+    final String out;
+    final String err;
+    final long nanos;
+
+    Result(Path script, int status, String out, String err, long nanos) {
+      this.script = script;
+      this.status = status;
+      this.out = out;
+      this.err = err;
+      this.nanos = nanos;
+    }
+  }
+
+  private static class WorkerFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(null, runnable, "lox-batch-" + count.incrementAndGet(),
+          WORKER_STACK_SIZE);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.saurabhkushwah.lox;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What is left of the {@link Limits} of one run, shared by the interpreters of its tasks and
+ * parallelMap workers
+ * <p>
+ * Interpreters count steps down on their own and come here every {@link #CHECK_INTERVAL} steps at
+ * most, to take the next steps from the budget, read the clock and add what their thread
+ * allocated. Allocations are the JVM's per thread counters, threads without one (virtual threads)
+ * aren't counted.
+ */
+final class Budget {
+
+  static final int CHECK_INTERVAL = 1024;
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  final Limits limits;
+  private final long deadline;
+  private final AtomicLong steps;
+  private final AtomicLong allocated = new AtomicLong();
+
+  Budget(Limits limits) {
+    this.limits = limits;
+    this.deadline = System.nanoTime() + limits.timeout * 1_000_000;
+    this.steps = new AtomicLong(limits.steps > 0 ? limits.steps : Long.MAX_VALUE);
+  }
+
+  // steps the caller may take before coming back, the one it is taking included
+  long take() {
+    if (limits.timeout > 0 && System.nanoTime() - deadline > 0) {
+      throw new LimitError(LimitError.Kind.TIMEOUT,
+          String.format("Exceeded the time limit of %d ms.", limits.timeout));
+    }
+
+    while (true) {
+      long left = steps.get();
+      if (left <= 0) {
+        throw new LimitError(LimitError.Kind.STEPS,
+            String.format("Exceeded the limit of %d steps.", limits.steps));
+      }
+      long granted = Math.min(left, CHECK_INTERVAL);
+      if (steps.compareAndSet(left, left - granted)) {
+        return granted;
+      }
+    }
+  }
+
+  void allocate(long bytes) {
+    if (allocated.addAndGet(bytes) > limits.memory && limits.memory > 0) {
+      throw new LimitError(LimitError.Kind.MEMORY,
+          String.format("Exceeded the allocation limit of %d bytes.", limits.memory));
+    }
+  }
+
+  LimitError tooDeep() {
+    return new LimitError(LimitError.Kind.DEPTH,
+        String.format("Exceeded the call depth limit of %d.", limits.depth));
+  }
+
+  // bytes the current thread allocated since it started, -1 when the JVM doesn't count them
+  static long allocatedBytes() {
+    if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    return ((com.sun.management.ThreadMXBean) THREADS)
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
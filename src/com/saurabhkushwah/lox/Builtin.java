@@ -0,0 +1,38 @@
+package com.saurabhkushwah.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Core natives whose calls are computed in place by {@link Expr.Intrinsic}
+ */
+enum Builtin {
+  SQRT("sqrt", 1),
+  FLOOR("floor", 1),
+  ABS("abs", 1),
+  MIN("min", 2),
+  MAX("max", 2),
+  LEN("len", 1),
+  SUBSTRING("substring", 3);
+
+  private static final Map<String, Builtin> byName = new HashMap<>();
+
+  static {
+    for (Builtin builtin : values()) {
+      byName.put(builtin.name, builtin);
+    }
+  }
+
+  final String name;
+  final int arity;
+
+  Builtin(String name, int arity) {
+    this.name = name;
+    this.arity = arity;
+  }
+
+  // null when name isn't a builtin
+  static Builtin named(String name) {
+    return byName.get(name);
+  }
+}
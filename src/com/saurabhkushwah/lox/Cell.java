@@ -0,0 +1,18 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Heap box of a captured variable, shared by the frame that declared it and the closures using it
+ * <p>
+ * The owner is the interpreter whose frame declared it, functions run by parallelMap only assign
+ * cells of their own worker.
+ */
+final class Cell {
+
+  Object value;
+  final Interpreter owner;
+
+  Cell(Object value, Interpreter owner) {
+    this.value = value;
+    this.owner = owner;
+  }
+}
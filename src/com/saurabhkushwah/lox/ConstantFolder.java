@@ -0,0 +1,186 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.Expr.Binary;
+import com.saurabhkushwah.lox.Expr.Grouping;
+import com.saurabhkushwah.lox.Expr.Literal;
+import com.saurabhkushwah.lox.Expr.Logical;
+import com.saurabhkushwah.lox.Expr.Unary;
+import com.saurabhkushwah.lox.Expr.Variable;
+import com.saurabhkushwah.lox.Stmt.If;
+import com.saurabhkushwah.lox.Stmt.Var;
+import com.saurabhkushwah.lox.Stmt.While;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds constant subtrees and propagates constant locals
+ * <p>
+ * 1. Unary, Binary, Logical and Grouping over literals are evaluated at compile time, by the
+ * interpreter itself so folded values can never differ from what execution would produce. An
+ * operation that fails (1 / 0, -"a") is left in place and still raises at runtime on its line.
+ * Calls are never folded, even of pure natives: their globals can be redefined later, by the
+ * prompt, another program of the context or its inputs. The Intrinsifier computes them in place
+ * behind a check that the global is still the native.
+ * <p>
+ * 2. Local variables that are never assigned after their declaration and are initialized with a
+ * constant are replaced by that constant wherever they are read. Globals are left alone, any
+ * script (or REPL line) can redefine them.
+ * <p>
+ * 3. If, While and For with constant conditions are reduced to the branch taken, or removed.
+ */
+class ConstantFolder extends AstTransformer {
+
+  private final Resolver resolver;
+  private final Interpreter interpreter;
+
+  // constant value of never reassigned locals, keyed by declaring token
+  private final Map<Token, Literal> constants = new HashMap<>();
+
+  ConstantFolder(Resolver resolver, Interpreter interpreter) {
+    this.resolver = resolver;
+    this.interpreter = interpreter;
+  }
+
+  List<Stmt> fold(List<Stmt> statements) {
+    return transform(statements);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Variable expr) {
+    Token declaration = resolver.declarationOf(expr);
+    if (declaration != null && constants.containsKey(declaration)) {
+      return constants.get(declaration);
+    }
+    return expr;
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Grouping expr) {
+    Expr expression = transform(expr.expression);
+    if (expression instanceof Literal) {
+      return expression;
+    }
+    return expression == expr.expression ? expr : new Grouping(expression);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Unary expr) {
+    Expr folded = super.visitUnaryExpr(expr);
+    if (folded instanceof Unary && ((Unary) folded).right instanceof Literal) {
+      return evaluate(folded);
+    }
+    return folded;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Binary expr) {
+    Expr folded = super.visitBinaryExpr(expr);
+    if (folded instanceof Binary && ((Binary) folded).left instanceof Literal
+        && ((Binary) folded).right instanceof Literal) {
+      return evaluate(folded);
+    }
+    return folded;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Logical expr) {
+    Expr left = transform(expr.left);
+    Expr right = transform(expr.right);
+
+    // the result is one of the operands, the right one doesn't need to be constant
+    if (left instanceof Literal) {
+      boolean truthy = Interpreter.isTruthy(((Literal) left).value);
+      boolean shortCircuit = expr.operator.type == TokenType.OR ? truthy : !truthy;
+      return shortCircuit ? left : right;
+    }
+
+    if (left == expr.left && right == expr.right) {
+      return expr;
+    }
+    return new Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Var stmt) {
+    Stmt folded = super.visitVarStmt(stmt);
+    Expr initializer = ((Var) folded).initializer;
+
+    if (!resolver.isReassigned(stmt.name)) {
+      if (initializer == null) {
+        constants.put(stmt.name, new Literal(null));
+      } else if (initializer instanceof Literal) {
+        constants.put(stmt.name, (Literal) initializer);
+      }
+    }
+    return folded;
+  }
+
+  @Override
+  public Stmt visitIfStmt(If stmt) {
+    Expr condition = transform(stmt.condition);
+    if (!(condition instanceof Literal)) {
+      Stmt thenBranch = transformBranch(stmt.thenBranch);
+      Stmt elseBranch = transform(stmt.elseBranch);
+
+      if (condition == stmt.condition && thenBranch == stmt.thenBranch
+          && elseBranch == stmt.elseBranch) {
+        return stmt;
+      }
+      return new If(condition, thenBranch, elseBranch);
+    }
+
+    if (Interpreter.isTruthy(((Literal) condition).value)) {
+      return transform(stmt.thenBranch);
+    }
+    return transform(stmt.elseBranch);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(While stmt) {
+    Expr condition = transform(stmt.condition);
+    if (condition instanceof Literal && !Interpreter.isTruthy(((Literal) condition).value)) {
+      return null;
+    }
+
+    Stmt body = transformBranch(stmt.body);
+    if (condition == stmt.condition && body == stmt.body) {
+      return stmt;
+    }
+    return new While(condition, body);
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    Stmt initializer = transform(stmt.initializer);
+    Expr condition = transform(stmt.condition);
+    if (condition instanceof Literal && !Interpreter.isTruthy(((Literal) condition).value)) {
+      return initializer == null ? null : new Stmt.Block(List.of(initializer));
+    }
+
+    Expr increment = transform(stmt.increment);
+    Stmt body = transformBranch(stmt.body);
+    if (initializer == stmt.initializer && condition == stmt.condition
+        && increment == stmt.increment && body == stmt.body) {
+      return stmt;
+    }
+    return new Stmt.For(initializer, condition, increment, body);
+  }
+
+  // operands are literals, nothing here can touch an environment
+  private Expr evaluate(Expr expr) {
+    try {
+      Object value = interpreter.evaluate(expr);
+      if (value instanceof Rope) {
+        return new Literal(value.toString());
+      }
+      if (value == null || Numbers.isNumber(value) || value instanceof Boolean
+          || value instanceof String) {
+        return new Literal(value);
+      }
+    } catch (RuntimeError error) {
+      // raised again at runtime
+    }
+    return expr;
+  }
+}
@@ -0,0 +1,230 @@
+package com.saurabhkushwah.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs scripts sent over a Unix domain socket in one warm JVM, started by jlox --daemon socket
+ * <p>
+ * A request is a single frame, the response the frames of stdout and stderr as the script writes
+ * them, then its exit status:
+ * <p>
+ * request   PATH absolute path of the script | SOURCE the script itself
+ * response  (OUT bytes | ERR bytes)* EXIT status
+ * <p>
+ * A frame is its tag byte, a 4 byte big endian length and that many bytes, UTF-8 text or the 4
+ * bytes of the status. Every request gets a fresh Interpreter and ErrorReporter on a thread of its
+ * own, requests share the compiled script cache, the -Djlox settings and the JIT, nothing of each
+ * other's state. The socket is only accessible to its owner. {@link DaemonClient} is the Java
+ * client.
+ */
+final class Daemon {
+
+  static final byte PATH = 'P';
+  static final byte SOURCE = 'S';
+  static final byte OUT = 'O';
+  static final byte ERR = 'E';
+  static final byte EXIT = 'X';
+
+  // larger requests are refused before reading them
+  static final int MAX_REQUEST = 64 * 1024 * 1024;
+
+  // interpreter recursion is deep, request threads get a main thread sized stack
+  private static final long STACK_SIZE = 8L * 1024 * 1024;
+
+  private final Path socket;
+  private final ScriptCache cache;
+
+  Daemon(Path socket, ScriptCache cache) {
+    this.socket = socket;
+    this.cache = cache;
+  }
+
+  // serves until the JVM is stopped, a socket left behind by a daemon that is gone is replaced.
+  // Returns 74 right away when a live daemon already listens on the socket.
+  int serve() throws IOException {
+    if (isListening()) {
+      System.err.printf("Error: a daemon is already listening on %s\n", socket);
+      return 74;
+    }
+
+    ExecutorService executor = Executors.newCachedThreadPool(new RequestFactory());
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      bind(server);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          Files.deleteIfExists(socket);
+        } catch (IOException ignored) {
+        }
+      }));
+      System.err.printf("jlox daemon listening on %s\n", socket);
+
+      while (true) {
+        SocketChannel client = server.accept();
+        executor.execute(() -> handle(client));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // a socket file some daemon accepts connections on, one refusing them was left by a dead one
+  private boolean isListening() throws IOException {
+    if (!Files.exists(socket, LinkOption.NOFOLLOW_LINKS) || !Files.readAttributes(socket,
+        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+      return false;
+    }
+    try (SocketChannel ignored = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      return true;
+    } catch (ConnectException e) {
+      return false;
+    }
+  }
+
+  // binds in a directory only the owner can enter and makes the socket rw------- there before
+  // moving it to its path, no other user can connect in between
+  private void bind(ServerSocketChannel server) throws IOException {
+    Path directory;
+    try {
+      directory = Files.createTempDirectory(socket.toAbsolutePath().getParent(), ".jlox-",
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    } catch (UnsupportedOperationException e) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      return;
+    }
+
+    Path bound = directory.resolve("socket");
+    try {
+      server.bind(UnixDomainSocketAddress.of(bound));
+      Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+      Files.move(bound, socket, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(bound);
+      Files.delete(directory);
+    }
+  }
+
+  private void handle(SocketChannel client) {
+    try (client) {
+      DataInputStream input = new DataInputStream(Channels.newInputStream(client));
+      Frames frames = new Frames(
+          new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client))));
+      int status = run(input, frames);
+      frames.write(EXIT, new byte[]{(byte) (status >>> 24), (byte) (status >>> 16),
+          (byte) (status >>> 8), (byte) status}, 0, 4);
+    } catch (IOException ignored) {
+      // the client went away, nothing is left to tell it
+    }
+  }
+
+  // exit status of the script, as jlox script would exit
+  private int run(DataInputStream input, Frames frames) throws IOException {
+    PrintStream out = new PrintStream(new BufferedOutputStream(frames.stream(OUT)), true,
+        StandardCharsets.UTF_8);
+    PrintStream err = new PrintStream(new BufferedOutputStream(frames.stream(ERR)), true,
+        StandardCharsets.UTF_8);
+
+    try {
+      byte tag = input.readByte();
+      int length = input.readInt();
+      if ((tag != PATH && tag != SOURCE) || length < 0 || length > MAX_REQUEST) {
+        err.println("Error: malformed request.");
+        return 64;
+      }
+      byte[] payload = input.readNBytes(length);
+      String text = new String(payload, StandardCharsets.UTF_8);
+
+      String source;
+      try {
+        source = tag == SOURCE ? text : Files.readString(Path.of(text));
+      } catch (IOException e) {
+        err.printf("Error: cannot read %s: %s\n", text, e.getMessage());
+        return 74;
+      }
+
+      ErrorReporter reporter = new ErrorReporter(err);
+      Interpreter interpreter = new Interpreter(out, reporter);
+      Lox.configure(interpreter);
+      List<Stmt> statements = Lox.load(source, interpreter, reporter, cache);
+      if (statements != null) {
+        interpreter.interpret(statements);
+      }
+      return reporter.hadError() ? 65 : reporter.hadRuntimeError() ? 70 : 0;
+    } catch (StackOverflowError e) {
+      err.println("Error: stack overflow.");
+      return 70;
+    } finally {
+      out.flush();
+      err.flush();
+    }
+  }
+
+  // frames of a response, written whole by whichever thread of the script prints
+  private static final class Frames {
+
+    private final DataOutputStream output;
+
+    Frames(DataOutputStream output) {
+      this.output = output;
+    }
+
+    synchronized void write(byte tag, byte[] bytes, int offset, int length) throws IOException {
+      output.writeByte(tag);
+      output.writeInt(length);
+      output.write(bytes, offset, length);
+      output.flush();
+    }
+
+    OutputStream stream(byte tag) {
+      return new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+          if (length > 0) {
+            Frames.this.write(tag, bytes, offset, length);
+          }
+        }
+      };
+    }
+  }
+
+  private static class RequestFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(null, runnable, "lox-daemon-" + count.incrementAndGet(),
+          STACK_SIZE);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
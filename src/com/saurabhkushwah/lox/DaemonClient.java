@@ -0,0 +1,89 @@
+package com.saurabhkushwah.lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Thin client of a {@link Daemon}: sends a script, copies what it prints and exits with its status
+ * <p>
+ * Usage: jlox-client socket script | -
+ * a script path is sent as an absolute path for the daemon to read, - sends the source read from
+ * stdin. Only the socket and the frames are loaded here, none of the interpreter. It still pays
+ * for starting a JVM, client/jlox-client.c does the same natively in a few milliseconds.
+ */
+public final class DaemonClient {
+
+  private DaemonClient() {
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.err.println("Usage: jlox-client <socket> <script | ->");
+      System.exit(64);
+    }
+
+    try {
+      Path socket = Path.of(args[0]);
+      System.exit(args[1].equals("-")
+          ? request(socket, Daemon.SOURCE, System.in.readAllBytes(), System.out, System.err)
+          : request(socket, Daemon.PATH, Path.of(args[1]).toAbsolutePath().toString()
+              .getBytes(StandardCharsets.UTF_8), System.out, System.err));
+    } catch (IOException e) {
+      System.err.printf("Error: %s: %s\n", args[0], e.getMessage());
+      System.exit(74);
+    }
+  }
+
+  /**
+   * runs source in the daemon listening on socket, copying what it prints, returns its exit status
+   */
+  public static int execute(Path socket, String source, PrintStream out, PrintStream err)
+      throws IOException {
+    return request(socket, Daemon.SOURCE, source.getBytes(StandardCharsets.UTF_8), out, err);
+  }
+
+  private static int request(Path socket, byte tag, byte[] payload, PrintStream out,
+      PrintStream err) throws IOException {
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+      byte[] frame = new byte[5 + payload.length];
+      frame[0] = tag;
+      frame[1] = (byte) (payload.length >>> 24);
+      frame[2] = (byte) (payload.length >>> 16);
+      frame[3] = (byte) (payload.length >>> 8);
+      frame[4] = (byte) payload.length;
+      System.arraycopy(payload, 0, frame, 5, payload.length);
+      request.write(frame);
+
+      DataInputStream response = new DataInputStream(
+          new BufferedInputStream(Channels.newInputStream(channel)));
+      while (true) {
+        byte kind;
+        try {
+          kind = response.readByte();
+        } catch (EOFException e) {
+          err.println("Error: the daemon closed the connection.");
+          return 70;
+        }
+
+        byte[] bytes = response.readNBytes(response.readInt());
+        if (kind == Daemon.EXIT) {
+          return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8)
+              | (bytes[3] & 0xff);
+        }
+        PrintStream stream = kind == Daemon.ERR ? err : out;
+        stream.write(bytes);
+        stream.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.Expr.Assign;
+import com.saurabhkushwah.lox.Expr.Binary;
+import com.saurabhkushwah.lox.Expr.Grouping;
+import com.saurabhkushwah.lox.Expr.Literal;
+import com.saurabhkushwah.lox.Expr.Logical;
+import com.saurabhkushwah.lox.Expr.Unary;
+import com.saurabhkushwah.lox.Expr.Variable;
+import com.saurabhkushwah.lox.Stmt.Block;
+import com.saurabhkushwah.lox.Stmt.Expression;
+import com.saurabhkushwah.lox.Stmt.Function;
+import com.saurabhkushwah.lox.Stmt.If;
+import com.saurabhkushwah.lox.Stmt.Var;
+import com.saurabhkushwah.lox.Stmt.While;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes code that can't run or whose result is never observed
+ * <p>
+ * 1. statements following a return or break (or an if whose branches both end in one) in the same
+ * block or function body. Top level statements are kept, the interpreter reports a stray break
+ * and carries on with the next statement.
+ * <p>
+ * 2. branches behind constant conditions and if statements left with nothing to run.
+ * <p>
+ * 3. local variables and functions that are never read, together with every assignment to them.
+ * An initializer or assigned value that may have an effect (a call, an assignment, an operation
+ * that can fail at runtime) is kept as an expression statement.
+ * <p>
+ * 4. expression statements and empty blocks without effect.
+ * <p>
+ * {@link #removed()} reports how many AST nodes were dropped.
+ */
+class DeadCodeEliminator extends AstTransformer {
+
+  private final Resolver resolver;
+  private int removed;
+
+  DeadCodeEliminator(Resolver resolver) {
+    this.resolver = resolver;
+  }
+
+  List<Stmt> eliminate(List<Stmt> statements) {
+    return transform(statements);
+  }
+
+  int removed() {
+    return removed;
+  }
+
+  @Override
+  public Expr visitAssignExpr(Assign expr) {
+    Token declaration = resolver.declarationOf(expr);
+    if (declaration != null && resolver.isUnread(declaration)) {
+      removed++;
+      return transform(expr.value);
+    }
+    return super.visitAssignExpr(expr);
+  }
+
+  @Override
+  public Expr visitFunctionExpr(Expr.Function expr) {
+    List<Stmt> body = transformReachable(expr.body);
+    return body == expr.body ? expr : new Expr.Function(expr.parameters, body);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Expression stmt) {
+    Expr expression = transform(stmt.expression);
+    if (isPure(expression)) {
+      removed += count(expression) + 1;
+      return null;
+    }
+    return expression == stmt.expression ? stmt : new Expression(expression);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Function stmt) {
+    if (resolver.isUnread(stmt.name)) {
+      removed += count(stmt);
+      return null;
+    }
+
+    List<Stmt> body = transformReachable(stmt.body);
+    return body == stmt.body ? stmt : new Function(stmt.name, stmt.parameters, body);
+  }
+
+  @Override
+  public Stmt visitIfStmt(If stmt) {
+    Expr condition = transform(stmt.condition);
+
+    if (condition instanceof Literal) {
+      removed += 2;
+      boolean truthy = Interpreter.isTruthy(((Literal) condition).value);
+      removed += count(truthy ? stmt.elseBranch : stmt.thenBranch);
+      return transform(truthy ? stmt.thenBranch : stmt.elseBranch);
+    }
+
+    Stmt thenBranch = transformBranch(stmt.thenBranch);
+    Stmt elseBranch = transform(stmt.elseBranch);
+    if (isEmpty(elseBranch)) {
+      removed += count(elseBranch);
+      elseBranch = null;
+    }
+
+    if (isEmpty(thenBranch) && elseBranch == null) {
+      removed += count(thenBranch) + 1;
+      if (isPure(condition)) {
+        removed += count(condition);
+        return null;
+      }
+      return new Expression(condition);
+    }
+
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch
+        && elseBranch == stmt.elseBranch) {
+      return stmt;
+    }
+    return new If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(While stmt) {
+    if (stmt.condition instanceof Literal
+        && !Interpreter.isTruthy(((Literal) stmt.condition).value)) {
+      removed += count(stmt);
+      return null;
+    }
+    return super.visitWhileStmt(stmt);
+  }
+
+  // the initializer still runs once, in its own scope
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    if (stmt.condition instanceof Literal
+        && !Interpreter.isTruthy(((Literal) stmt.condition).value)) {
+      removed += 1 + count(stmt.condition) + count(stmt.increment) + count(stmt.body);
+      Stmt initializer = transform(stmt.initializer);
+      return initializer == null ? null : new Block(List.of(initializer));
+    }
+    return super.visitForStmt(stmt);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Var stmt) {
+    if (!resolver.isUnread(stmt.name)) {
+      return super.visitVarStmt(stmt);
+    }
+
+    removed++;
+    Expr initializer = transform(stmt.initializer);
+    if (initializer == null || isPure(initializer)) {
+      removed += count(initializer);
+      return null;
+    }
+    return new Expression(initializer);
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Block stmt) {
+    List<Stmt> statements = transformReachable(stmt.statements);
+    if (statements.isEmpty()) {
+      removed++;
+      return null;
+    }
+    return statements == stmt.statements ? stmt : new Block(statements);
+  }
+
+  // like transform but drops everything after a statement that always jumps away
+  private List<Stmt> transformReachable(List<Stmt> statements) {
+    List<Stmt> transformed = transform(statements);
+
+    for (int i = 0; i < transformed.size() - 1; i++) {
+      if (terminates(transformed.get(i))) {
+        List<Stmt> unreachable = transformed.subList(i + 1, transformed.size());
+        for (Stmt stmt : unreachable) {
+          removed += count(stmt);
+        }
+        return new ArrayList<>(transformed.subList(0, i + 1));
+      }
+    }
+
+    return transformed;
+  }
+
+  private static boolean terminates(Stmt stmt) {
+    if (stmt instanceof Stmt.Return || stmt instanceof Stmt.Break) {
+      return true;
+    }
+
+    if (stmt instanceof Block) {
+      List<Stmt> statements = ((Block) stmt).statements;
+      return !statements.isEmpty() && terminates(statements.get(statements.size() - 1));
+    }
+
+    if (stmt instanceof If) {
+      If ifStmt = (If) stmt;
+      return ifStmt.elseBranch != null && terminates(ifStmt.thenBranch)
+          && terminates(ifStmt.elseBranch);
+    }
+
+    return false;
+  }
+
+  private static boolean isEmpty(Stmt stmt) {
+    return stmt == null || (stmt instanceof Block && ((Block) stmt).statements.isEmpty());
+  }
+
+  // evaluating expr can neither fail nor change state
+  private boolean isPure(Expr expr) {
+    if (expr instanceof Literal || expr instanceof Expr.Function) {
+      return true;
+    }
+
+    if (expr instanceof Variable) {
+      // locals are always defined, a global read fails when the global is missing
+      return resolver.declarationOf(expr) != null;
+    }
+
+    if (expr instanceof Grouping) {
+      return isPure(((Grouping) expr).expression);
+    }
+
+    if (expr instanceof Logical) {
+      return isPure(((Logical) expr).left) && isPure(((Logical) expr).right);
+    }
+
+    if (expr instanceof Unary) {
+      return ((Unary) expr).operator.type == TokenType.BANG && isPure(((Unary) expr).right);
+    }
+
+    if (expr instanceof Binary) {
+      TokenType operator = ((Binary) expr).operator.type;
+      return (operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL)
+          && isPure(((Binary) expr).left) && isPure(((Binary) expr).right);
+    }
+
+    return false;
+  }
+
+  private static int count(Expr expr) {
+    return expr == null ? 0 : new NodeCounter().count(expr);
+  }
+
+  private static int count(Stmt stmt) {
+    return stmt == null ? 0 : new NodeCounter().count(stmt);
+  }
+
+  private static class NodeCounter extends AstTransformer {
+
+    private int nodes;
+
+    int count(Expr expr) {
+      transform(expr);
+      return nodes;
+    }
+
+    int count(Stmt stmt) {
+      transform(stmt);
+      return nodes;
+    }
+
+    @Override
+    Expr transform(Expr expr) {
+      if (expr != null) {
+        nodes++;
+      }
+      return super.transform(expr);
+    }
+
+    @Override
+    Stmt transform(Stmt stmt) {
+      if (stmt != null) {
+        nodes++;
+      }
+      return super.transform(stmt);
+    }
+  }
+}
@@ -2,65 +2,72 @@ package com.saurabhkushwah.lox;
 
 import java.util.HashMap;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Global variables, locals live in the interpreter's frames
+ * <p>
+ * Globals are a plain map until a {@link LoxTask} or parallelMap may access them from another
+ * thread, then a concurrent one so that reads don't lock. nil is stored as NIL, which also takes a
+ * single lookup to tell undefined from nil.
+ */
 public class Environment {
 
-  private final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
-
-  public Environment() {
-    enclosing = null;
-  }
+  private static final Object NIL = new Object();
 
-  public Environment(Environment enclosing) {
-    this.enclosing = enclosing;
-  }
+  private Map<String, Object> values = new HashMap<>();
+  private boolean shared;
+  // changes whenever a callable stored in a global is replaced, memo results may depend on it
+  private final AtomicInteger version = new AtomicInteger();
 
   // var similar to JS
   public void define(String name, Object value) {
-    values.put(name, value);
+    replaced(values.put(name, value != null ? value : NIL));
   }
 
   public Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
-    }
-
-    if (enclosing != null) {
-      return enclosing.get(name);
+    Object value = values.get(name.lexeme);
+    if (value == null) {
+      throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    return value != NIL ? value : null;
   }
 
-  public Object getAt(Integer distance, String lexeme) {
-    return ancestor(distance).values.get(lexeme);
+  // null when undefined
+  Object lookup(String name) {
+    Object value = values.get(name);
+    return value != NIL ? value : null;
   }
 
   public void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
+    Object previous = values.replace(name.lexeme, value != null ? value : NIL);
+    if (previous == null) {
+      throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
-
-    if (enclosing != null) {
-      enclosing.assign(name, value);
-      return;
-    }
-
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    replaced(previous);
   }
 
-  private Environment ancestor(int distance) {
-    Environment environment = this;
-    for (int i = 0; i < distance; i++) {
-      environment = (environment != null) ? environment.enclosing : null;
+  // called by the thread spawning a task or mapping in parallel, before the other threads start
+  void share() {
+    if (!shared) {
+      values = new ConcurrentHashMap<>(values);
+      shared = true;
     }
+  }
 
-    return environment;
+  // a task or parallelMap was started, other threads may assign globals from now on
+  boolean isShared() {
+    return shared;
   }
 
-  public void assignAt(Integer distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+  int version() {
+    return version.get();
   }
 
+  private void replaced(Object previous) {
+    if (previous instanceof LoxCallable) {
+      version.incrementAndGet();
+    }
+  }
 }
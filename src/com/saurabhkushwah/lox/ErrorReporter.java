@@ -0,0 +1,74 @@
+package com.saurabhkushwah.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Collects the errors of one script run
+ * <p>
+ * Scanner, Parser and Resolver report compile errors and the Interpreter reports runtime errors
+ * here instead of through global state, so that scripts running side by side don't observe each
+ * other's failures.
+ */
+public class ErrorReporter {
+
+  private final PrintStream err;
+  private boolean hadError;
+  private boolean hadRuntimeError;
+  private LimitError.Kind exceeded;
+
+  public ErrorReporter(PrintStream err) {
+    this.err = err;
+  }
+
+  public void error(int line, String message) {
+    report(line, "", message);
+  }
+
+  public void error(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      report(token.line, "at end", message);
+    } else {
+      report(token.line, "at '" + token.lexeme + "'", message);
+    }
+  }
+
+  private void report(int line, String where, String message) {
+    err.printf("Error [Line %d] %s: %s\n", line, where, message);
+    hadError = true;
+  }
+
+  // informational output, doesn't fail the run
+  public void note(String message) {
+    err.println(message);
+  }
+
+  public void runtimeError(RuntimeError error) {
+    if (error instanceof LimitError) {
+      err.printf("Error [Limit] : %s\n", error.getMessage());
+      exceeded = ((LimitError) error).kind;
+    } else {
+      err.printf("Error [Line %s] : %s\n", error.token.line, error.getMessage());
+    }
+    hadRuntimeError = true;
+  }
+
+  public boolean hadError() {
+    return hadError;
+  }
+
+  public boolean hadRuntimeError() {
+    return hadRuntimeError;
+  }
+
+  // the limit the run went over, null when it didn't
+  public LimitError.Kind exceeded() {
+    return exceeded;
+  }
+
+  // REPL keeps going after a bad line
+  public void reset() {
+    hadError = false;
+    hadRuntimeError = false;
+    exceeded = null;
+  }
+}
@@ -25,6 +25,36 @@ abstract class Expr {
     R visitLogicalExpr(Logical expr);
 
     R visitFunctionExpr(Function expr);
+
+    R visitInlineExpr(Inline expr);
+
+    R visitSpeculateExpr(Speculate expr);
+
+    R visitInvariantExpr(Invariant expr);
+
+    R visitArithmeticExpr(Arithmetic expr);
+
+    R visitNegateExpr(Negate expr);
+
+    R visitConcatExpr(Concat expr);
+
+    R visitArrayExpr(Array expr);
+
+    R visitIndexExpr(Index expr);
+
+    R visitIndexAssignExpr(IndexAssign expr);
+
+    R visitMapExpr(Map expr);
+
+    R visitGetExpr(Get expr);
+
+    R visitSetExpr(Set expr);
+
+    R visitThisExpr(This expr);
+
+    R visitSuperExpr(Super expr);
+
+    R visitIntrinsicExpr(Intrinsic expr);
   }
 
   static class Literal extends Expr {
@@ -167,4 +197,260 @@ abstract class Expr {
       return visitor.visitFunctionExpr(this);
     }
   }
+
+  static class Inline extends Expr {
+
+    final Call call;
+    final Token function;
+    final List<Token> parameters;
+    final List<Expr> arguments;
+    final Expr body;
+
+    Inline(Call call, Token function, List<Token> parameters, List<Expr> arguments, Expr body) {
+      this.call = call;
+      this.function = function;
+      this.parameters = parameters;
+      this.arguments = arguments;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInlineExpr(this);
+    }
+  }
+
+  static class Speculate extends Expr {
+
+    final Expr expression;
+
+    Speculate(Expr expression) {
+      this.expression = expression;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSpeculateExpr(this);
+    }
+  }
+
+  static class Invariant extends Expr {
+
+    final Token name;
+    final Expr expression;
+
+    Invariant(Token name, Expr expression) {
+      this.name = name;
+      this.expression = expression;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInvariantExpr(this);
+    }
+  }
+
+  static class Arithmetic extends Expr {
+
+    final Expr left;
+    final Token operator;
+    final Expr right;
+
+    Arithmetic(Expr left, Token operator, Expr right) {
+      this.left = left;
+      this.operator = operator;
+      this.right = right;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitArithmeticExpr(this);
+    }
+  }
+
+  static class Negate extends Expr {
+
+    final Token operator;
+    final Expr right;
+
+    Negate(Token operator, Expr right) {
+      this.operator = operator;
+      this.right = right;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNegateExpr(this);
+    }
+  }
+
+  static class Concat extends Expr {
+
+    final List<Expr> operands;
+
+    Concat(List<Expr> operands) {
+      this.operands = operands;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitConcatExpr(this);
+    }
+  }
+
+  static class Array extends Expr {
+
+    final Token bracket;
+    final List<Expr> elements;
+
+    Array(Token bracket, List<Expr> elements) {
+      this.bracket = bracket;
+      this.elements = elements;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitArrayExpr(this);
+    }
+  }
+
+  static class Index extends Expr {
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+
+    Index(Expr object, Token bracket, Expr index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+  }
+
+  static class IndexAssign extends Expr {
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+
+    IndexAssign(Expr object, Token bracket, Expr index, Expr value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexAssignExpr(this);
+    }
+  }
+
+  static class Map extends Expr {
+
+    final Token brace;
+    final List<Expr> keys;
+    final List<Expr> values;
+
+    Map(Token brace, List<Expr> keys, List<Expr> values) {
+      this.brace = brace;
+      this.keys = keys;
+      this.values = values;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitMapExpr(this);
+    }
+  }
+
+  static class Get extends Expr {
+
+    final Expr object;
+    final Token name;
+    final PropertyCache cache = new PropertyCache();
+
+    Get(Expr object, Token name) {
+      this.object = object;
+      this.name = name;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitGetExpr(this);
+    }
+  }
+
+  static class Set extends Expr {
+
+    final Expr object;
+    final Token name;
+    final Expr value;
+    final PropertyCache cache = new PropertyCache();
+
+    Set(Expr object, Token name, Expr value) {
+      this.object = object;
+      this.name = name;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSetExpr(this);
+    }
+  }
+
+  static class This extends Expr {
+
+    final Token keyword;
+
+    This(Token keyword) {
+      this.keyword = keyword;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitThisExpr(this);
+    }
+  }
+
+  static class Super extends Expr {
+
+    final Token keyword;
+    final Token method;
+    final This receiver;
+
+    Super(Token keyword, Token method, This receiver) {
+      this.keyword = keyword;
+      this.method = method;
+      this.receiver = receiver;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSuperExpr(this);
+    }
+  }
+
+  static class Intrinsic extends Expr {
+
+    final Call call;
+    final Builtin builtin;
+
+    Intrinsic(Call call, Builtin builtin) {
+      this.call = call;
+      this.builtin = builtin;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIntrinsicExpr(this);
+    }
+  }
 }
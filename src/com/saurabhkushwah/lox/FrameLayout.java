@@ -0,0 +1,23 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Frame of a function body, an inlined call or a script's top level blocks
+ * <p>
+ * Parameters come first in the frame, the slots of sibling blocks are reused so size is the most
+ * locals alive at once. upvalues tells where the closure finds each captured variable when it is
+ * created: a CELL slot of the enclosing frame or an UPVALUE of the enclosing closure.
+ */
+final class FrameLayout {
+
+  static final FrameLayout EMPTY = new FrameLayout(0, new boolean[0], new Slot[0]);
+
+  final int size;
+  final boolean[] capturedParameters;
+  final Slot[] upvalues;
+
+  FrameLayout(int size, boolean[] capturedParameters, Slot[] upvalues) {
+    this.size = size;
+    this.capturedParameters = capturedParameters;
+    this.upvalues = upvalues;
+  }
+}
@@ -0,0 +1,321 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.Expr.Assign;
+import com.saurabhkushwah.lox.Expr.Call;
+import com.saurabhkushwah.lox.Expr.Literal;
+import com.saurabhkushwah.lox.Expr.Variable;
+import com.saurabhkushwah.lox.Stmt.Function;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces calls to small functions with their bodies
+ * <p>
+ * A function is inlined when
+ * 1. its body is a single return of an expression of at most maxSize nodes
+ * 2. that expression only refers to the function's parameters and to globals, and creates no
+ * closures, so it means the same thing wherever it is placed
+ * 3. it can't reach itself through calls to other known functions
+ * 4. its name is never assigned, and declared only once when it is a global
+ * <p>
+ * The call becomes an {@link Expr.Inline} that still evaluates the callee and checks it is the
+ * function that was inlined, falling back to the original call when the binding changed at
+ * runtime (a global redefined by a later script or REPL line, a call before the declaration ran).
+ * Literal arguments are substituted into the body, the others are bound to the parameters.
+ * <p>
+ * maxSize is configured with -Djlox.inline.size, 0 disables inlining.
+ */
+class Inliner extends AstTransformer {
+
+  static final int DEFAULT_MAX_SIZE = 24;
+
+  private final Resolver resolver;
+  private final int maxSize;
+
+  // candidates by global name or by declaring token of a local function
+  private final Map<String, Function> globalCandidates = new HashMap<>();
+  private final Map<Token, Function> localCandidates = new HashMap<>();
+
+  // literal arguments of the calls being expanded, keyed by parameter token
+  private final Map<Token, Literal> substitutions = new HashMap<>();
+
+  private int inlined;
+
+  Inliner(Resolver resolver, int maxSize) {
+    this.resolver = resolver;
+    this.maxSize = maxSize;
+  }
+
+  static int maxSizeFromSystemProperties() {
+    return Integer.getInteger("jlox.inline.size", DEFAULT_MAX_SIZE);
+  }
+
+  List<Stmt> inline(List<Stmt> statements) {
+    if (maxSize <= 0) {
+      return statements;
+    }
+
+    new CandidateCollector().collect(statements);
+    removeRecursive();
+    return transform(statements);
+  }
+
+  int inlined() {
+    return inlined;
+  }
+
+  @Override
+  public Expr visitCallExpr(Call expr) {
+    Expr transformed = super.visitCallExpr(expr);
+    if (!(transformed instanceof Call)) {
+      return transformed;
+    }
+
+    Call call = (Call) transformed;
+    Function function = candidate(call.callee);
+    if (function == null || function.parameters.size() != call.arguments.size()) {
+      return call;
+    }
+
+    Expr value = returnValue(function);
+    Set<Token> assigned = assignedParameters(function);
+
+    List<Token> parameters = new ArrayList<>();
+    List<Expr> arguments = new ArrayList<>();
+    for (int i = 0; i < call.arguments.size(); i++) {
+      Token parameter = function.parameters.get(i);
+      Expr argument = call.arguments.get(i);
+
+      if (argument instanceof Literal && !assigned.contains(parameter)) {
+        substitutions.put(parameter, (Literal) argument);
+      } else {
+        parameters.add(parameter);
+        arguments.add(argument);
+      }
+    }
+
+    // nested calls in the body are expanded too, recursion was ruled out up front
+    Expr body;
+    try {
+      body = new Copier().transform(transform(value));
+    } finally {
+      for (Token parameter : function.parameters) {
+        substitutions.remove(parameter);
+      }
+    }
+
+    inlined++;
+    return new Expr.Inline(call, function.name, parameters, arguments, body);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Variable expr) {
+    Token declaration = resolver.declarationOf(expr);
+    if (declaration != null && substitutions.containsKey(declaration)) {
+      return substitutions.get(declaration);
+    }
+    return expr;
+  }
+
+  private Function candidate(Expr callee) {
+    if (!(callee instanceof Variable)) {
+      return null;
+    }
+
+    Token declaration = resolver.declarationOf(callee);
+    if (declaration == null) {
+      return globalCandidates.get(((Variable) callee).name.lexeme);
+    }
+    return localCandidates.get(declaration);
+  }
+
+  private static Expr returnValue(Function function) {
+    return ((Stmt.Return) function.body.get(0)).value;
+  }
+
+  private Set<Token> assignedParameters(Function function) {
+    Set<Token> assigned = new HashSet<>();
+    new AstTransformer() {
+      @Override
+      public Expr visitAssignExpr(Assign expr) {
+        Token declaration = resolver.declarationOf(expr);
+        if (declaration != null) {
+          assigned.add(declaration);
+        }
+        return super.visitAssignExpr(expr);
+      }
+    }.transform(returnValue(function));
+    return assigned;
+  }
+
+  private boolean isInlinable(Function function) {
+    if (function.body.size() != 1 || !(function.body.get(0) instanceof Stmt.Return)) {
+      return false;
+    }
+
+    Expr value = returnValue(function);
+    if (value == null) {
+      return false;
+    }
+
+    Set<Token> parameters = new HashSet<>(function.parameters);
+    BodyCheck check = new BodyCheck(parameters);
+    check.transform(value);
+    return check.valid && check.size <= maxSize;
+  }
+
+  // drops every candidate that can call itself through other candidates
+  private void removeRecursive() {
+    Map<Function, Set<Function>> calls = new HashMap<>();
+    List<Function> candidates = new ArrayList<>(globalCandidates.values());
+    candidates.addAll(localCandidates.values());
+
+    for (Function function : candidates) {
+      Set<Function> callees = new HashSet<>();
+      new AstTransformer() {
+        @Override
+        public Expr visitCallExpr(Call expr) {
+          Function callee = candidate(expr.callee);
+          if (callee != null) {
+            callees.add(callee);
+          }
+          return super.visitCallExpr(expr);
+        }
+      }.transform(returnValue(function));
+      calls.put(function, callees);
+    }
+
+    Set<Function> recursive = new HashSet<>();
+    for (Function function : candidates) {
+      if (reaches(function, function, calls, new HashSet<>())) {
+        recursive.add(function);
+      }
+    }
+
+    globalCandidates.values().removeAll(recursive);
+    localCandidates.values().removeAll(recursive);
+  }
+
+  private static boolean reaches(Function from, Function target, Map<Function, Set<Function>> calls,
+      Set<Function> visited) {
+    for (Function callee : calls.get(from)) {
+      if (callee == target) {
+        return true;
+      }
+      if (visited.add(callee) && reaches(callee, target, calls, visited)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private class CandidateCollector extends AstTransformer {
+
+    void collect(List<Stmt> statements) {
+      for (Stmt stmt : statements) {
+        if (stmt instanceof Function) {
+          Function function = (Function) stmt;
+          if (!resolver.isReassignedGlobal(function.name.lexeme) && isInlinable(function)) {
+            globalCandidates.put(function.name.lexeme, function);
+          }
+          transform(function.body);
+        } else {
+          transform(stmt);
+        }
+      }
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+      if (!resolver.isReassigned(stmt.name) && isInlinable(stmt)) {
+        localCandidates.put(stmt.name, stmt);
+      }
+      return super.visitFunctionStmt(stmt);
+    }
+
+    // methods are called through their instance, never by name
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+      for (Function method : stmt.methods) {
+        transform(method.body);
+      }
+      return stmt;
+    }
+  }
+
+  // counts nodes and checks that the body only refers to parameters and globals
+  private class BodyCheck extends AstTransformer {
+
+    private final Set<Token> parameters;
+    private boolean valid = true;
+    private int size;
+
+    BodyCheck(Set<Token> parameters) {
+      this.parameters = parameters;
+    }
+
+    @Override
+    Expr transform(Expr expr) {
+      if (expr != null) {
+        size++;
+      }
+      return super.transform(expr);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+      check(expr);
+      return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+      check(expr);
+      return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitFunctionExpr(Expr.Function expr) {
+      valid = false;
+      return expr;
+    }
+
+    // the instance is a local of the enclosing method
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+      valid = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+      valid = false;
+      return expr;
+    }
+
+    private void check(Expr expr) {
+      Token declaration = resolver.declarationOf(expr);
+      if (declaration != null && !parameters.contains(declaration)) {
+        valid = false;
+      }
+    }
+  }
+
+  // the body gets its own variable nodes at every call site, they are resolved per site
+  private static class Copier extends AstTransformer {
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+      return new Variable(expr.name);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+      return new Assign(expr.name, transform(expr.value));
+    }
+  }
+}
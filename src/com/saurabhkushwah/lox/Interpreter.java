@@ -15,56 +15,189 @@ import com.saurabhkushwah.lox.Stmt.If;
 import com.saurabhkushwah.lox.Stmt.Print;
 import com.saurabhkushwah.lox.Stmt.Var;
 import com.saurabhkushwah.lox.Stmt.While;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
+/**
+ * Globals live in an {@link Environment}, locals in frames of a single value stack that every
+ * call reuses. A frame starts with the call's arguments and has a slot per local of the function,
+ * captured locals hold a {@link Cell} shared with the closures, which keep their cells in
+ * upvalues. Code that creates no closures doesn't allocate anything to hold its variables.
+ */
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
-  final Environment globals = new Environment();
-  final Map<Expr, Integer> locals = new HashMap<>();
-  private Environment environment = globals;
+  final Environment globals;
+  // a program's own resolution while it is the only one run, read only then
+  Resolution resolution = new Resolution();
+  private boolean sharedResolution;
 
-  public void interpret(List<Stmt> statements) {
-    globals.define("clock", new LoxCallable() {
-      @Override
-      public int arity() {
-        return 0;
-      }
+  private Object[] stack = new Object[256];
+  // current frame starts at base, the next one starts at top
+  private int base;
+  private int top;
+  private Cell[] upvalues = new Cell[0];
 
-      @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        return (double) System.currentTimeMillis() / 1000.0;
-      }
+  // a local slot holding WHOLE keeps its value unboxed in wholes, at the same index
+  private static final Object WHOLE = new Object();
+  private long[] wholes = new long[256];
+  // value of the last expression whole() computed
+  private long whole;
 
-      @Override
-      public String toString() {
-        return "<native fn>";
-      }
-    });
+  private enum Completion {
+    RETURN,
+    TAIL_CALL
+  }
+
+  // value of a speculative evaluation that raised an error
+  private static final Object FAILED = new Object();
+
+  private Object returnValue;
+  private LoxFunction tailCallee;
+
+  private Limits limits = Limits.NONE;
+  // null when the run has no limits, steps are counted down in fuel until the budget is charged
+  private Budget budget;
+  private long fuel = Long.MAX_VALUE;
+  private int depth;
+  private int maxDepth = Integer.MAX_VALUE;
+  // allocated bytes of the thread when the budget was last charged, -1 before the first time
+  private long allocationMark = -1;
+
+  // entries per memoized function, 0 turns memoization off
+  int memoSize;
+  long memoHits;
+  long memoMisses;
+
+  private final PrintStream out;
+  private final ErrorReporter reporter;
+  // runs functions for parallelMap, which must not assign cells of other interpreters
+  private final boolean parallel;
+
+  // the core natives intrinsics stand for, by Builtin ordinal
+  private final Object[] builtins;
+
+  // natives are defined once, the built-in ones first
+  public Interpreter(PrintStream out, ErrorReporter reporter, NativeModule... modules) {
+    this.out = out;
+    this.reporter = reporter;
+    this.parallel = false;
+    this.globals = new Environment();
+    this.builtins = new Object[Builtin.values().length];
+
+    NativeRegistry natives = new NativeRegistry(globals);
+    Natives.CORE.register(natives);
+    for (Builtin builtin : Builtin.values()) {
+      builtins[builtin.ordinal()] = globals.lookup(builtin.name);
+    }
+    for (NativeModule module : modules) {
+      module.register(natives);
+    }
+  }
+
+  // interpreter of a task or parallelMap worker: frames of its own, globals and everything else
+  // of its spawner
+  private Interpreter(Interpreter spawner, boolean parallel) {
+    this.out = spawner.out;
+    this.reporter = spawner.reporter;
+    this.parallel = parallel;
+    this.globals = spawner.globals;
+    this.builtins = spawner.builtins;
+    this.resolution = spawner.resolution;
+    this.sharedResolution = true;
+    this.limits = spawner.limits;
+    this.budget = spawner.budget;
+    this.maxDepth = spawner.maxDepth;
+    this.memoSize = spawner.memoSize;
+    this.fuel = budget != null ? 0 : Long.MAX_VALUE;
+  }
+
+  // applies from the next run on, see interpret
+  public void limit(Limits limits) {
+    this.limits = limits;
+  }
+
+  // applies to the pure functions declared from now on
+  public void memoize(int size) {
+    this.memoSize = size;
+  }
+
+  /**
+   * Calls function on a thread of its own, see {@link LoxTask}. Globals are synchronized from the
+   * first task on, the resolution is left to the tasks and copied by the next line of the prompt.
+   */
+  LoxTask spawn(LoxCallable function) {
+    globals.share();
+    sharedResolution = true;
+    Interpreter task = new Interpreter(this, false);
+    return LoxTask.start(() -> function.call(task, Collections.emptyList()));
+  }
+
+  // function applied to every element on the ForkJoinPool of ParallelMap, each worker gets an
+  // interpreter of its own
+  LoxArray parallelMap(LoxArray array, LoxCallable function) {
+    globals.share();
+    sharedResolution = true;
+    Object[] elements = new Object[array.size()];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = array.get(i);
+    }
+
+    Object[] results = ParallelMap.apply(elements,
+        () -> new Interpreter(this, true), function);
+
+    LoxArray result = new LoxArray(results.length);
+    for (Object value : results) {
+      result.push(value);
+    }
+    return result;
+  }
+
+  public void interpret(List<Stmt> statements) {
+    base = 0;
+    top = resolution.script.size;
+    ensureCapacity(top);
+
+    budget = limits.isNone() ? null : new Budget(limits);
+    fuel = budget != null ? 0 : Long.MAX_VALUE;
+    maxDepth = limits.depth > 0 ? limits.depth : Integer.MAX_VALUE;
+    allocationMark = -1;
 
     try {
       for (Stmt stmt : statements) {
         executeStatement(stmt);
       }
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      reporter.runtimeError(error);
     }
   }
 
   // catches invalid use of keywords
   private void executeStatement(Stmt stmt) {
+    Token keyword;
     try {
-      execute(stmt);
+      Object completion = execute(stmt);
+      if (completion == null) {
+        return;
+      }
+      keyword = ((Stmt.Break) completion).keyword;
     } catch (Break error) {
-      Lox.runtimeError(
-          new RuntimeError(error.keyword, "Cannot use 'break' outside for/while loop"));
+      keyword = error.keyword;
     }
+    reporter.runtimeError(new RuntimeError(keyword, "Cannot use 'break' outside for/while loop"));
   }
 
-  private void execute(Stmt stmt) {
-    stmt.accept(this);
+  /**
+   * Statements complete with null, or with what ends the enclosing loop or function: the Break
+   * statement, RETURN with the value in returnValue, TAIL_CALL with the callee in tailCallee and
+   * its arguments at the start of the current frame
+   */
+  private Object execute(Stmt stmt) {
+    return stmt.accept(this);
   }
 
   @Override
@@ -74,56 +207,604 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitVariableExpr(Variable expr) {
-    return lookUpVariable(expr.name, expr);
+    Slot slot = resolution.references.get(expr);
+    if (slot == null) {
+      return globals.get(expr.name);
+    }
+    return local(slot);
   }
 
-  private Object lookUpVariable(Token name, Variable expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.lexeme);
+  private Object local(Slot slot) {
+    switch (slot.kind) {
+      case LOCAL:
+        Object value = stack[base + slot.index];
+        return value == WHOLE ? (Object) wholes[base + slot.index] : value;
+      case CELL:
+        return ((Cell) stack[base + slot.index]).value;
+      default:
+        return upvalues[slot.index].value;
     }
-
-    return globals.get(name);
   }
 
   @Override
   public Object visitAssignExpr(Assign expr) {
+    Slot slot = resolution.references.get(expr);
+    if (slot != null && slot.kind == Slot.Kind.LOCAL && storeWhole(slot, expr.value)) {
+      return whole;
+    }
+
     Object value = evaluate(expr.value);
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.name, value);
-    } else {
+    if (slot == null) {
+      if (parallel) {
+        throw outsideParallelMap(expr.name);
+      }
       globals.assign(expr.name, value);
+      return value;
     }
 
+    switch (slot.kind) {
+      case LOCAL:
+        stack[base + slot.index] = value;
+        break;
+      case CELL:
+        ((Cell) stack[base + slot.index]).value = value;
+        break;
+      default:
+        Cell cell = upvalues[slot.index];
+        if (parallel && cell.owner != this) {
+          throw outsideParallelMap(expr.name);
+        }
+        cell.value = value;
+    }
     return value;
   }
 
+  // the elements are mapped at the same time, so they may only assign their own variables
+  private static RuntimeError outsideParallelMap(Token name) {
+    return new RuntimeError(name, "Can't assign a variable from outside parallelMap.");
+  }
+
   @Override
   public Object visitGroupingExpr(Grouping expr) {
     return evaluate(expr.expression);
   }
 
+  // arguments are pushed where the callee's frame will start, after the instance for a method
   @Override
   public Object visitCallExpr(Call expr) {
-    Object callee = evaluate(expr.callee);
+    int arguments = top;
 
-    List<Object> arguments = expr.arguments.stream()
-        .map(this::evaluate)
-        .collect(Collectors.toList());
+    try {
+      Object callee = callee(expr.callee);
+      for (Expr argument : expr.arguments) {
+        push(evaluate(argument));
+      }
+      return dispatch(callee, expr, arguments);
+    } finally {
+      pop(arguments);
+    }
+  }
+
+  private Object call(Object callee, Call expr) {
+    int arguments = top;
+
+    try {
+      pushReceiver(callee);
+      for (Expr argument : expr.arguments) {
+        push(evaluate(argument));
+      }
+      return dispatch(callee, expr, arguments);
+    } finally {
+      pop(arguments);
+    }
+  }
+
+  // a method called right where it is read from an instance is never bound
+  private Object callee(Expr expr) {
+    if (!(expr instanceof Expr.Get)) {
+      Object callee = evaluate(expr);
+      pushReceiver(callee);
+      return callee;
+    }
+
+    Expr.Get get = (Expr.Get) expr;
+    LoxInstance instance = instance(evaluate(get.object), get.name);
+    PropertyCache.Entry entry = property(get, instance);
+    if (entry.method == null) {
+      Object callee = instance.fields[entry.index];
+      pushReceiver(callee);
+      return callee;
+    }
 
+    push(instance);
+    return entry.method;
+  }
+
+  private void pushReceiver(Object callee) {
+    if (callee instanceof LoxFunction && ((LoxFunction) callee).receiver != null) {
+      push(((LoxFunction) callee).receiver);
+    }
+  }
+
+  private Object dispatch(Object callee, Call expr, int arguments) {
     if (!(callee instanceof LoxCallable)) {
       throw new RuntimeError(expr.paren, "Can only call functions and classes.");
     }
 
     LoxCallable function = (LoxCallable) callee;
-    if (arguments.size() != function.arity()) {
-      throw new RuntimeError(expr.paren,
-          String.format("Expect %d arguments but got %d.", function.arity(), arguments.size()));
+    if (expr.arguments.size() != function.arity()) {
+      throw new RuntimeError(expr.paren, String.format("Expect %d arguments but got %d.",
+          function.arity(), expr.arguments.size()));
+    }
+
+    if (function instanceof LoxFunction) {
+      return invoke((LoxFunction) function, arguments);
+    }
+    if (function instanceof LoxClass) {
+      return construct((LoxClass) function, arguments);
+    }
+
+    try {
+      if (function instanceof NativeFunction) {
+        return ((NativeFunction) function).call(this, stack, arguments);
+      }
+      return function.call(this, new ArrayList<>(Arrays.asList(stack).subList(arguments, top)));
+    } catch (RuntimeError error) {
+      // natives don't know where they were called from
+      if (error.token == null && !(error instanceof LimitError)) {
+        throw new RuntimeError(expr.paren, error.getMessage());
+      }
+      throw error;
+    }
+  }
+
+  // a builtin still bound to its global is computed right here, no argument is pushed
+  @Override
+  public Object visitIntrinsicExpr(Expr.Intrinsic expr) {
+    if (evaluate(expr.call.callee) != builtins[expr.builtin.ordinal()]) {
+      return visitCallExpr(expr.call);
+    }
+
+    List<Expr> arguments = expr.call.arguments;
+    Object a = evaluate(arguments.get(0));
+    Object b = arguments.size() > 1 ? evaluate(arguments.get(1)) : null;
+    Object c = arguments.size() > 2 ? evaluate(arguments.get(2)) : null;
+    try {
+      switch (expr.builtin) {
+        case SQRT:
+          return Natives.sqrt(a);
+        case FLOOR:
+          return Natives.floor(a);
+        case ABS:
+          return Natives.abs(a);
+        case MIN:
+          return Natives.min(a, b);
+        case MAX:
+          return Natives.max(a, b);
+        case LEN:
+          return Natives.len(a);
+        default:
+          return Natives.substring(a, b, c);
+      }
+    } catch (RuntimeError error) {
+      throw new RuntimeError(expr.call.paren, error.getMessage());
+    }
+  }
+
+  // the instance goes in front of the arguments already pushed at frame
+  private Object construct(LoxClass klass, int frame) {
+    LoxInstance instance = new LoxInstance(klass);
+    if (klass.initializer != null) {
+      push(null);
+      System.arraycopy(stack, frame, stack, frame + 1, top - frame - 1);
+      stack[frame] = instance;
+      enter(klass.initializer, frame);
+    }
+    return instance;
+  }
+
+  // entry point for callers that hold the arguments in a list
+  Object call(LoxFunction function, List<Object> arguments) {
+    int frame = top;
+    try {
+      pushReceiver(function);
+      for (Object argument : arguments) {
+        push(argument);
+      }
+      return invoke(function, frame);
+    } finally {
+      pop(frame);
+    }
+  }
+
+  private Object invoke(LoxFunction function, int frame) {
+    Memo memo = function.memo;
+    if (memo == null) {
+      return enter(function, frame);
     }
 
-    return function.call(this, arguments);
+    Object key = Memo.key(stack, frame, function.arity());
+    Object value = memo.get(key, globals.version());
+    if (value != Memo.MISSING) {
+      memoHits++;
+      return value;
+    }
+
+    memoMisses++;
+    value = enter(function, frame);
+    memo.put(key, value);
+    return value;
+  }
+
+  // tail calls reuse the frame, loop here instead of growing the Java stack
+  private Object enter(LoxFunction function, int frame) {
+    if (++depth > maxDepth) {
+      depth--;
+      throw budget.tooDeep();
+    }
+    int previousBase = base;
+    Cell[] previousUpvalues = upvalues;
+    base = frame;
+
+    try {
+      while (true) {
+        if (--fuel < 0) {
+          charge();
+        }
+        FrameLayout layout = function.layout;
+        Object receiver = stack[frame];
+        top = frame + layout.size;
+        ensureCapacity(top);
+        for (int i = 0; i < layout.capturedParameters.length; i++) {
+          if (layout.capturedParameters[i]) {
+            stack[frame + i] = new Cell(stack[frame + i], this);
+          }
+        }
+        upvalues = function.upvalues;
+
+        Object completion = executeAll(function.declaration.body);
+        if (completion == Completion.TAIL_CALL) {
+          function = tailCallee;
+          tailCallee = null;
+          continue;
+        }
+
+        if (completion == Completion.RETURN) {
+          Object value = returnValue;
+          returnValue = null;
+          return function.initializer ? receiver : value;
+        }
+        if (completion != null) {
+          throw new Break(((Stmt.Break) completion).keyword);
+        }
+        return function.initializer ? receiver : null;
+      }
+    } finally {
+      depth--;
+      base = previousBase;
+      upvalues = previousUpvalues;
+    }
+  }
+
+  // a step went over the fuel: takes more from the budget, which raises the limit errors
+  private void charge() {
+    if (budget == null) {
+      fuel = Long.MAX_VALUE;
+      return;
+    }
+
+    long allocated = Budget.allocatedBytes();
+    if (allocationMark >= 0 && allocated >= 0) {
+      budget.allocate(allocated - allocationMark);
+    }
+    allocationMark = allocated;
+    fuel = budget.take() - 1;
+  }
+
+  // evaluated like any call, but a Lox callee takes over the caller's frame
+  private Object tailCall(Call expr) {
+    int arguments = top;
+    Object callee = callee(expr.callee);
+
+    for (Expr argument : expr.arguments) {
+      push(evaluate(argument));
+    }
+
+    if (!(callee instanceof LoxFunction)
+        || expr.arguments.size() != ((LoxFunction) callee).arity()) {
+      try {
+        returnValue = dispatch(callee, expr, arguments);
+        return Completion.RETURN;
+      } finally {
+        pop(arguments);
+      }
+    }
+
+    int count = top - arguments;
+    System.arraycopy(stack, arguments, stack, base, count);
+    pop(base + count);
+    tailCallee = (LoxFunction) callee;
+    return Completion.TAIL_CALL;
+  }
+
+  private void push(Object value) {
+    ensureCapacity(top + 1);
+    stack[top++] = value;
+  }
+
+  // drops everything from start up, cleared so dead frames don't keep values alive
+  private void pop(int start) {
+    Arrays.fill(stack, start, top, null);
+    top = start;
+  }
+
+  private void ensureCapacity(int size) {
+    if (size > stack.length) {
+      stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+      wholes = Arrays.copyOf(wholes, stack.length);
+    }
+  }
+
+  /**
+   * Computes expr into whole without boxing anything when it is a whole number made of literals,
+   * locals and arithmetic, returns false (and leaves the evaluation to the caller) otherwise. Only
+   * locals are read on the way, so a failed attempt has no effect worth repeating.
+   */
+  private boolean whole(Expr expr) {
+    if (expr instanceof Variable) {
+      Slot slot = resolution.references.get(expr);
+      if (slot != null && slot.kind == Slot.Kind.LOCAL) {
+        Object value = stack[base + slot.index];
+        if (value == WHOLE) {
+          whole = wholes[base + slot.index];
+          return true;
+        }
+        return whole(value);
+      }
+      return false;
+    }
+
+    if (expr instanceof Expr.Arithmetic) {
+      Expr.Arithmetic arithmetic = (Expr.Arithmetic) expr;
+      return whole(arithmetic.operator, arithmetic.left, arithmetic.right);
+    }
+    if (expr instanceof Binary) {
+      Binary binary = (Binary) expr;
+      return whole(binary.operator, binary.left, binary.right);
+    }
+    if (expr instanceof Grouping) {
+      return whole(((Grouping) expr).expression);
+    }
+    if (expr instanceof Literal) {
+      return whole(((Literal) expr).value);
+    }
+    return false;
+  }
+
+  private boolean whole(Object value) {
+    if (value instanceof Long) {
+      whole = (long) value;
+      return true;
+    }
+    return false;
+  }
+
+  // the operations on doubles whose result is the same whole number, see Numbers
+  private boolean whole(Token operator, Expr leftOperand, Expr rightOperand) {
+    if (!whole(leftOperand)) {
+      return false;
+    }
+    long left = whole;
+    if (!whole(rightOperand)) {
+      return false;
+    }
+    long right = whole;
+
+    long result;
+    switch (operator.type) {
+      case PLUS:
+        result = left + right;
+        break;
+      case MINUS:
+        result = left - right;
+        break;
+      case STAR:
+        double product = (double) left * right;
+        result = (long) product;
+        if (result != product || result == 0 && (left < 0 || right < 0)) {
+          return false;
+        }
+        break;
+      case SLASH:
+        if (right == 0 || left % right != 0 || left == 0 && right < 0) {
+          return false;
+        }
+        result = left / right;
+        break;
+      default:
+        return false;
+    }
+
+    if (result < -Numbers.MAX_EXACT || result > Numbers.MAX_EXACT) {
+      return false;
+    }
+    whole = result;
+    return true;
+  }
+
+  // a whole value stored in a local stays unboxed
+  private boolean storeWhole(Slot slot, Expr value) {
+    if (!whole(value)) {
+      return false;
+    }
+    stack[base + slot.index] = WHOLE;
+    wholes[base + slot.index] = whole;
+    return true;
+  }
+
+  // evaluates expr for its effects only, a whole number assigned to a local isn't even boxed
+  private void effect(Expr expr) {
+    if (expr instanceof Assign) {
+      Slot slot = resolution.references.get(expr);
+      if (slot != null && slot.kind == Slot.Kind.LOCAL
+          && storeWhole(slot, ((Assign) expr).value)) {
+        return;
+      }
+    }
+    evaluate(expr);
+  }
+
+  // closures get the cells of the variables they capture when they are created
+  private Cell[] capture(FrameLayout layout) {
+    Cell[] cells = new Cell[layout.upvalues.length];
+    for (int i = 0; i < cells.length; i++) {
+      Slot slot = layout.upvalues[i];
+      cells[i] = slot.kind == Slot.Kind.CELL ? (Cell) stack[base + slot.index]
+          : upvalues[slot.index];
+    }
+    return cells;
+  }
+
+  @Override
+  public Object visitInlineExpr(Expr.Inline expr) {
+    Object callee = evaluate(expr.call.callee);
+    if (!(callee instanceof LoxFunction) || !((LoxFunction) callee).isDeclaredBy(expr.function)) {
+      return call(callee, expr.call);
+    }
+
+    if (expr.parameters.isEmpty()) {
+      return evaluate(expr.body);
+    }
+
+    // inlined bodies can't capture their parameters, a frame without upvalues is all they need
+    int frame = top;
+    int previousBase = base;
+    try {
+      for (Expr argument : expr.arguments) {
+        push(evaluate(argument));
+      }
+      base = frame;
+      return evaluate(expr.body);
+    } finally {
+      base = previousBase;
+      pop(frame);
+    }
+  }
+
+  @Override
+  public Object visitSpeculateExpr(Expr.Speculate expr) {
+    try {
+      return evaluate(expr.expression);
+    } catch (LimitError error) {
+      throw error;
+    } catch (RuntimeError error) {
+      return FAILED;
+    }
+  }
+
+  // a failed speculation is evaluated again where it was, so the error is raised there
+  @Override
+  public Object visitInvariantExpr(Expr.Invariant expr) {
+    Object value = local(resolution.references.get(expr));
+    return value == FAILED ? evaluate(expr.expression) : value;
+  }
+
+  // operands were proven to be numbers, only division by zero is left to check
+  @Override
+  public Object visitArithmeticExpr(Expr.Arithmetic expr) {
+    if (whole(expr.left)) {
+      long left = whole;
+      if (whole(expr.right)) {
+        return arithmetic(expr.operator, left, whole);
+      }
+    }
+    return arithmetic(expr.operator, evaluate(expr.left), evaluate(expr.right));
+  }
+
+  // whole operands take the integer path, see Numbers
+  private Object arithmetic(Token operator, Object left, Object right) {
+    if (left instanceof Long && right instanceof Long) {
+      return arithmetic(operator, (long) left, (long) right);
+    }
+    return arithmetic(operator, Numbers.toDouble(left), Numbers.toDouble(right));
+  }
+
+  private Object arithmetic(Token operator, long left, long right) {
+    switch (operator.type) {
+      case PLUS:
+        return Numbers.add(left, right);
+      case MINUS:
+        return Numbers.subtract(left, right);
+      case STAR:
+        return Numbers.multiply(left, right);
+      case SLASH:
+        if (right == 0) {
+          throw new RuntimeError(operator, "Division by zero");
+        }
+        return Numbers.divide(left, right);
+      case GREATER:
+        return left > right;
+      case GREATER_EQUAL:
+        return left >= right;
+      case LESS:
+        return left < right;
+      default:
+        return left <= right;
+    }
+  }
+
+  private Object arithmetic(Token operator, double left, double right) {
+    switch (operator.type) {
+      case PLUS:
+        return left + right;
+      case MINUS:
+        return left - right;
+      case STAR:
+        return left * right;
+      case SLASH:
+        if (right == 0) {
+          throw new RuntimeError(operator, "Division by zero");
+        }
+        return left / right;
+      case GREATER:
+        return left > right;
+      case GREATER_EQUAL:
+        return left >= right;
+      case LESS:
+        return left < right;
+      default:
+        return left <= right;
+    }
+  }
+
+  @Override
+  public Object visitNegateExpr(Expr.Negate expr) {
+    return Numbers.negate(evaluate(expr.right));
+  }
+
+  // the first operation of the chain was proven to concatenate a string, so are all the next ones.
+  // Short parts share one builder, long strings and ropes are linked without copying
+  @Override
+  public Object visitConcatExpr(Expr.Concat expr) {
+    Object result = "";
+    StringBuilder builder = new StringBuilder();
+
+    for (Expr operand : expr.operands) {
+      Object value = text(evaluate(operand));
+      if (Rope.length(value) < Rope.MIN_LENGTH) {
+        builder.append(value);
+        continue;
+      }
+
+      if (builder.length() > 0) {
+        result = Rope.concat(result, builder.toString());
+        builder.setLength(0);
+      }
+      result = Rope.concat(result, value);
+    }
+
+    return builder.length() == 0 ? result : Rope.concat(result, builder.toString());
   }
 
   @Override
@@ -133,7 +814,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     switch (expr.operator.type) {
       case MINUS:
         checkNumberOperand(expr.operator, right);
-        return -(double) right;
+        return Numbers.negate(right);
       case BANG:
         return !isTruthy(right);
     }
@@ -142,43 +823,35 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitBinaryExpr(Binary expr) {
+    if (whole(expr.left)) {
+      long left = whole;
+      if (whole(expr.right) && expr.operator.type != TokenType.EQUAL_EQUAL
+          && expr.operator.type != TokenType.BANG_EQUAL) {
+        return arithmetic(expr.operator, left, whole);
+      }
+    }
+
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right);
 
     switch (expr.operator.type) {
       case PLUS:
-        if (left instanceof String || right instanceof String) {
-          return stringify(left) + stringify(right);
-        } else if (left instanceof Double && right instanceof Double) {
-          return (double) left + (double) right;
+        if (Rope.isString(left) || Rope.isString(right)) {
+          return Rope.concat(text(left), text(right));
+        } else if (Numbers.isNumber(left) && Numbers.isNumber(right)) {
+          return arithmetic(expr.operator, left, right);
         }
         throw new RuntimeError(expr.operator,
             "Operands must be either 2 numbers or one of them must be string");
       case MINUS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left - (double) right;
       case STAR:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left * (double) right;
       case SLASH:
-        checkNumberOperands(expr.operator, left, right);
-        if ((double) right == 0) {
-          throw new RuntimeError(expr.operator, "Division by zero");
-        }
-        return (double) left / (double) right;
-
       case GREATER:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left > (double) right;
       case GREATER_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left >= (double) right;
       case LESS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left < (double) right;
       case LESS_EQUAL:
         checkNumberOperands(expr.operator, left, right);
-        return (double) left <= (double) right;
+        return arithmetic(expr.operator, left, right);
       case EQUAL_EQUAL:
         return isEqual(left, right);
       case BANG_EQUAL:
@@ -207,11 +880,163 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitFunctionExpr(Expr.Function expr) {
-    return new LoxFunction(new Function(null, expr.parameters, expr.body),
-        environment);
+    FrameLayout layout = resolution.layouts.get(expr);
+    return new LoxFunction(new Function(null, expr.parameters, expr.body), layout,
+        capture(layout), null);
+  }
+
+  @Override
+  public Object visitArrayExpr(Expr.Array expr) {
+    LoxArray array = new LoxArray(expr.elements.size());
+    for (Expr element : expr.elements) {
+      array.push(evaluate(element));
+    }
+    return array;
   }
 
-  private String stringify(Object object) {
+  @Override
+  public Object visitMapExpr(Expr.Map expr) {
+    LoxMap map = new LoxMap();
+    for (int i = 0; i < expr.keys.size(); i++) {
+      Object key = evaluate(expr.keys.get(i));
+      map.put(key, evaluate(expr.values.get(i)));
+    }
+    return map;
+  }
+
+  // a missing map key reads as nil
+  @Override
+  public Object visitIndexExpr(Expr.Index expr) {
+    Object object = evaluate(expr.object);
+    if (object instanceof LoxArray && whole(expr.index)) {
+      LoxArray array = (LoxArray) object;
+      return array.get(index(expr.bracket, array, whole));
+    }
+    Object index = evaluate(expr.index);
+
+    if (object instanceof LoxMap) {
+      return ((LoxMap) object).get(index);
+    }
+    LoxArray array = array(expr.bracket, object);
+    return array.get(index(expr.bracket, array, index));
+  }
+
+  @Override
+  public Object visitIndexAssignExpr(Expr.IndexAssign expr) {
+    Object object = evaluate(expr.object);
+    if (object instanceof LoxArray && whole(expr.index)) {
+      LoxArray array = (LoxArray) object;
+      int position = index(expr.bracket, array, whole);
+      Object value = evaluate(expr.value);
+      array.set(position, value);
+      return value;
+    }
+    Object index = evaluate(expr.index);
+
+    if (object instanceof LoxMap) {
+      Object value = evaluate(expr.value);
+      ((LoxMap) object).put(index, value);
+      return value;
+    }
+
+    LoxArray array = array(expr.bracket, object);
+    int position = index(expr.bracket, array, index);
+    Object value = evaluate(expr.value);
+    array.set(position, value);
+    return value;
+  }
+
+  @Override
+  public Object visitGetExpr(Expr.Get expr) {
+    LoxInstance instance = instance(evaluate(expr.object), expr.name);
+    PropertyCache.Entry entry = property(expr, instance);
+    return entry.method == null ? instance.fields[entry.index] : entry.method.bind(instance);
+  }
+
+  // the shape is looked at once the value is known, evaluating it may add fields
+  @Override
+  public Object visitSetExpr(Expr.Set expr) {
+    Object object = evaluate(expr.object);
+    if (!(object instanceof LoxInstance)) {
+      throw new RuntimeError(expr.name, "Only instances have fields.");
+    }
+
+    Object value = evaluate(expr.value);
+    LoxInstance instance = (LoxInstance) object;
+    PropertyCache.Entry entry = expr.cache.set(instance.shape, expr.name.lexeme);
+    if (entry.next != null) {
+      instance.extend(entry.next);
+    }
+    instance.fields[entry.index] = value;
+    return value;
+  }
+
+  @Override
+  public Object visitThisExpr(Expr.This expr) {
+    return local(resolution.references.get(expr));
+  }
+
+  @Override
+  public Object visitSuperExpr(Expr.Super expr) {
+    LoxClass superclass = (LoxClass) local(resolution.references.get(expr));
+    LoxFunction method = superclass.findMethod(expr.method.lexeme);
+    if (method == null) {
+      throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+    }
+    return method.bind((LoxInstance) evaluate(expr.receiver));
+  }
+
+  private LoxInstance instance(Object value, Token name) {
+    if (value instanceof LoxInstance) {
+      return (LoxInstance) value;
+    }
+    throw new RuntimeError(name, "Only instances have properties.");
+  }
+
+  private PropertyCache.Entry property(Expr.Get expr, LoxInstance instance) {
+    PropertyCache.Entry entry = expr.cache.get(instance.shape, expr.name.lexeme);
+    if (entry == null) {
+      throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+    }
+    return entry;
+  }
+
+  private LoxArray array(Token bracket, Object value) {
+    if (value instanceof LoxArray) {
+      return (LoxArray) value;
+    }
+    throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+  }
+
+  private int index(Token bracket, LoxArray array, Object value) {
+    if (value instanceof Long) {
+      return index(bracket, array, (long) value);
+    }
+    if (!(value instanceof Double)) {
+      throw new RuntimeError(bracket, "Index must be a number.");
+    }
+
+    double number = (double) value;
+    long index = (long) number;
+    if (index != number) {
+      throw new RuntimeError(bracket, "Index must be an integer.");
+    }
+    return index(bracket, array, index);
+  }
+
+  private int index(Token bracket, LoxArray array, long index) {
+    if (index < 0 || index >= array.size()) {
+      throw new RuntimeError(bracket, "Index out of bounds.");
+    }
+    return (int) index;
+  }
+
+  // ropes stay ropes when concatenated
+  private Object text(Object object) {
+    return object instanceof Rope ? object : stringify(object);
+  }
+
+  static String stringify(Object object) {
     if (object == null) {
       return "nil";
     }
@@ -220,6 +1045,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
       return (String) object;
     }
 
+    if (object instanceof Long) {
+      return stringify((double) (long) object);
+    }
+
     if (object instanceof Double) {
       String str = object.toString();
       if (str.endsWith(".0")) {
@@ -232,7 +1061,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   }
 
   private void checkNumberOperands(Token operator, Object left, Object right) {
-    if (left instanceof Double && right instanceof Double) {
+    if (Numbers.isNumber(left) && Numbers.isNumber(right)) {
       return;
     }
     throw new RuntimeError(operator, "Operands must be numbers.");
@@ -245,17 +1074,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
       return false;
     }
 
+    if (o1 instanceof Rope || o2 instanceof Rope) {
+      return Rope.isString(o1) && Rope.isString(o2) && o1.toString().equals(o2.toString());
+    }
+
+    if (Numbers.isNumber(o1) && Numbers.isNumber(o2)) {
+      return Numbers.equal(o1, o2);
+    }
+
     return o1.equals(o2);
   }
 
   private void checkNumberOperand(Token operator, Object operand) {
-    if (operand instanceof Double) {
+    if (Numbers.isNumber(operand)) {
       return;
     }
     throw new RuntimeError(operator, "Operand must be a number");
   }
 
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null) {
       return false;
     } else if (object instanceof Boolean) {
@@ -265,51 +1102,156 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     return true;
   }
 
-  private Object evaluate(Expr expr) {
+  Object evaluate(Expr expr) {
     return expr.accept(this);
   }
 
+  // a global currently bound to a native that declared itself pure
+  boolean isPureNative(String name) {
+    Object value = globals.lookup(name);
+    return value instanceof NativeFunction && ((NativeFunction) value).pure;
+  }
+
+  // globals may be assigned by other threads: a task was started, or code resolved so far can
+  // start one. Code compiled from now on must read them as if they changed at any time
+  boolean isConcurrent() {
+    return globals.isShared() || resolution.concurrent;
+  }
+
+  // the global of builtin is still bound to the core native, no module replaced it
+  boolean isBuiltin(Builtin builtin) {
+    return globals.lookup(builtin.name) == builtins[builtin.ordinal()];
+  }
+
   @Override
-  public Void visitExpressionStmt(Expression stmt) {
-    evaluate(stmt.expression);
+  public Object visitExpressionStmt(Expression stmt) {
+    effect(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Object visitFunctionStmt(Function stmt) {
+    FrameLayout layout = resolution.layouts.get(stmt);
+    Slot slot = resolution.definitions.get(stmt);
+
+    if (slot == null) {
+      globals.define(stmt.name.lexeme, function(stmt, layout));
+    } else if (slot.kind == Slot.Kind.CELL) {
+      // the cell exists before the closure so that a recursive function can capture itself
+      Cell cell = new Cell(null, this);
+      stack[base + slot.index] = cell;
+      cell.value = function(stmt, layout);
+    } else {
+      stack[base + slot.index] = function(stmt, layout);
+    }
     return null;
   }
 
+  // methods capture super like any closure, so it is set before they are created
   @Override
-  public Void visitFunctionStmt(Function stmt) {
-    LoxFunction loxFunction = new LoxFunction(stmt, environment);
-    environment.define(stmt.name.lexeme, loxFunction);
+  public Object visitClassStmt(Stmt.Class stmt) {
+    Slot slot = resolution.definitions.get(stmt);
+    Cell cell = null;
+    if (slot != null && slot.kind == Slot.Kind.CELL) {
+      cell = new Cell(null, this);
+      stack[base + slot.index] = cell;
+    }
+
+    LoxClass superclass = null;
+    if (stmt.superclass != null) {
+      Object value = evaluate(stmt.superclass);
+      if (!(value instanceof LoxClass)) {
+        throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+      }
+      superclass = (LoxClass) value;
+
+      Slot superSlot = resolution.superclasses.get(stmt);
+      stack[base + superSlot.index] =
+          superSlot.kind == Slot.Kind.CELL ? new Cell(superclass, this) : superclass;
+    }
+
+    Map<String, LoxFunction> methods = new HashMap<>();
+    for (Function method : stmt.methods) {
+      FrameLayout layout = resolution.layouts.get(method);
+      methods.put(method.name.lexeme, LoxFunction.method(method, layout, capture(layout)));
+    }
+    LoxClass klass = new LoxClass(stmt.name.lexeme, superclass, methods, globals);
+
+    if (slot == null) {
+      globals.define(stmt.name.lexeme, klass);
+    } else if (cell != null) {
+      cell.value = klass;
+    } else {
+      stack[base + slot.index] = klass;
+    }
     return null;
   }
 
+  private LoxFunction function(Function stmt, FrameLayout layout) {
+    Memo memo = memoSize > 0 && resolution.memoized.contains(stmt) ? new Memo(memoSize) : null;
+    return new LoxFunction(stmt, layout, capture(layout), memo);
+  }
+
   @Override
-  public Void visitIfStmt(If stmt) {
+  public Object visitIfStmt(If stmt) {
     Object value = evaluate(stmt.condition);
     if (isTruthy(value)) {
-      execute(stmt.thenBranch);
+      return execute(stmt.thenBranch);
     } else if (stmt.elseBranch != null) {
-      execute(stmt.elseBranch);
+      return execute(stmt.elseBranch);
     }
     return null;
   }
 
   @Override
   public Object visitBreakStmt(Stmt.Break stmt) {
-    throw new Break(stmt.keyword);
+    return stmt;
   }
 
   @Override
-  public Void visitPrintStmt(Print stmt) {
+  public Object visitPrintStmt(Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    out.println(stringify(value));
     return null;
   }
 
+  // Break is still thrown by a function breaking out of its caller's loop
   @Override
-  public Void visitWhileStmt(While stmt) {
+  public Object visitWhileStmt(While stmt) {
     try {
       while (isTruthy(evaluate(stmt.condition))) {
-        execute(stmt.body);
+        if (--fuel < 0) {
+          charge();
+        }
+        Object completion = execute(stmt.body);
+        if (completion != null) {
+          return completion instanceof Stmt.Break ? null : completion;
+        }
+      }
+    } catch (Break ignored) {
+    }
+
+    return null;
+  }
+
+  @Override
+  public Object visitForStmt(Stmt.For stmt) {
+    if (stmt.initializer != null) {
+      execute(stmt.initializer);
+    }
+
+    try {
+      while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+        if (--fuel < 0) {
+          charge();
+        }
+        Object completion = execute(stmt.body);
+        if (completion != null) {
+          return completion instanceof Stmt.Break ? null : completion;
+        }
+        if (stmt.increment != null) {
+          effect(stmt.increment);
+        }
       }
     } catch (Break ignored) {
     }
@@ -319,47 +1261,75 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitReturnStmt(Stmt.Return stmt) {
-    Object value = null;
-    if (stmt.value != null) {
-      value = evaluate(stmt.value);
+    if (resolution.tailCalls.contains(stmt)) {
+      return tailCall((Call) stmt.value);
     }
 
-    throw new Return(stmt.keyword, value);
+    returnValue = stmt.value == null ? null : evaluate(stmt.value);
+    return Completion.RETURN;
   }
 
   @Override
-  public Void visitVarStmt(Var stmt) {
+  public Object visitVarStmt(Var stmt) {
+    Slot slot = resolution.definitions.get(stmt);
+    if (slot != null && slot.kind == Slot.Kind.LOCAL && stmt.initializer != null
+        && storeWhole(slot, stmt.initializer)) {
+      return null;
+    }
+
     Object value = null;
 
     if (stmt.initializer != null) {
       value = evaluate(stmt.initializer);
     }
 
-    environment.define(stmt.name.lexeme, value);
+    if (slot == null) {
+      globals.define(stmt.name.lexeme, value);
+    } else if (slot.kind == Slot.Kind.CELL) {
+      // every execution declares a fresh variable, closures of earlier iterations keep theirs
+      stack[base + slot.index] = new Cell(value, this);
+    } else {
+      stack[base + slot.index] = value;
+    }
     return null;
   }
 
+  // the resolver gave the block's locals their slots, there is nothing to set up
   @Override
-  public Void visitBlockStmt(Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
-    return null;
+  public Object visitBlockStmt(Block stmt) {
+    return executeAll(stmt.statements);
   }
 
-  public void executeBlock(List<Stmt> statements, Environment environment) {
-    Environment previous = this.environment;
-
-    try {
-      this.environment = environment;
-      for (Stmt stmt : statements) {
-        execute(stmt);
+  private Object executeAll(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      Object completion = execute(statement);
+      if (completion != null) {
+        return completion;
       }
-    } finally {
-      this.environment = previous;
     }
+    return null;
   }
 
-  // tells interpreter current scope - scope at variable defined
-  public void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+  public void resolve(Resolution resolution) {
+    if (sharedResolution) {
+      Resolution own = new Resolution();
+      own.addAll(this.resolution);
+      this.resolution = own;
+      sharedResolution = false;
+    }
+    this.resolution.addAll(resolution);
+  }
+
+  // uses the resolution of a compiled program as is, until another program needs entries too
+  void share(Resolution resolution) {
+    if (this.resolution == resolution) {
+      return;
+    }
+    if (this.resolution.isEmpty()) {
+      this.resolution = resolution;
+      sharedResolution = true;
+      return;
+    }
+    resolve(resolution);
   }
 }
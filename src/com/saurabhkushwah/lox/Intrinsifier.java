@@ -0,0 +1,52 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.Expr.Call;
+import com.saurabhkushwah.lox.Expr.Variable;
+import java.util.List;
+
+/**
+ * Replaces calls to {@link Builtin} natives by {@link Expr.Intrinsic}s
+ * <p>
+ * A call is replaced when its callee is the builtin's global, the code never declares nor assigns
+ * that global, no module redefined it, and it passes the expected number of arguments. The global
+ * can still be redefined later (by the next line of the prompt), so the intrinsic checks it is
+ * still bound to the builtin before computing the result and makes the call otherwise.
+ */
+class Intrinsifier extends AstTransformer {
+
+  private final Resolver resolver;
+  private final Interpreter interpreter;
+
+  private int replaced;
+
+  Intrinsifier(Resolver resolver, Interpreter interpreter) {
+    this.resolver = resolver;
+    this.interpreter = interpreter;
+  }
+
+  List<Stmt> intrinsify(List<Stmt> statements) {
+    return transform(statements);
+  }
+
+  int replaced() {
+    return replaced;
+  }
+
+  @Override
+  public Expr visitCallExpr(Call expr) {
+    Call call = (Call) super.visitCallExpr(expr);
+    if (!(call.callee instanceof Variable) || resolver.declarationOf(expr.callee) != null) {
+      return call;
+    }
+
+    String name = ((Variable) call.callee).name.lexeme;
+    Builtin builtin = Builtin.named(name);
+    if (builtin == null || builtin.arity != call.arguments.size()
+        || resolver.isWrittenGlobal(name) || !interpreter.isBuiltin(builtin)) {
+      return call;
+    }
+
+    replaced++;
+    return new Expr.Intrinsic(call, builtin);
+  }
+}
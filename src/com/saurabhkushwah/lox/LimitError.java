@@ -0,0 +1,23 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Raised when a script goes over one of its {@link Limits}
+ * <p>
+ * Limits hold for the whole run, not for a line, so the error has no token.
+ */
+public class LimitError extends RuntimeError {
+
+  public enum Kind {
+    STEPS,
+    TIMEOUT,
+    DEPTH,
+    MEMORY
+  }
+
+  public final Kind kind;
+
+  LimitError(Kind kind, String message) {
+    super(null, message);
+    this.kind = kind;
+  }
+}
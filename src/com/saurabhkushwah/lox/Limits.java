@@ -0,0 +1,59 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Limits of one execution, 0 for no limit
+ * <p>
+ * steps    loop iterations plus calls, the work a script may do
+ * timeout  wall clock milliseconds from the start of the run
+ * depth    nested calls, tail calls don't nest
+ * memory   bytes allocated by the threads running the script, garbage included
+ * <p>
+ * A script going over one raises a {@link LimitError}. Steps are counted exactly, the clock and
+ * the allocations are looked at every 1024 steps, so a run overshoots those by what 1024 steps
+ * take. Tasks and parallelMap workers share the limits of the run
+ * that started them. The CLI reads them from -Djlox.limit.steps, .timeout, .depth and .memory.
+ */
+public final class Limits {
+
+  public static final Limits NONE = new Limits(0, 0, 0, 0);
+
+  final long steps;
+  final long timeout;
+  final int depth;
+  final long memory;
+
+  private Limits(long steps, long timeout, int depth, long memory) {
+    if (steps < 0 || timeout < 0 || depth < 0 || memory < 0) {
+      throw new IllegalArgumentException("Limits can't be negative.");
+    }
+    this.steps = steps;
+    this.timeout = timeout;
+    this.depth = depth;
+    this.memory = memory;
+  }
+
+  public static Limits fromSystemProperties() {
+    return new Limits(Long.getLong("jlox.limit.steps", 0), Long.getLong("jlox.limit.timeout", 0),
+        Integer.getInteger("jlox.limit.depth", 0), Long.getLong("jlox.limit.memory", 0));
+  }
+
+  public Limits withSteps(long steps) {
+    return new Limits(steps, timeout, depth, memory);
+  }
+
+  public Limits withTimeout(long millis) {
+    return new Limits(steps, millis, depth, memory);
+  }
+
+  public Limits withDepth(int depth) {
+    return new Limits(steps, timeout, depth, memory);
+  }
+
+  public Limits withMemory(long bytes) {
+    return new Limits(steps, timeout, depth, bytes);
+  }
+
+  boolean isNone() {
+    return steps == 0 && timeout == 0 && depth == 0 && memory == 0;
+  }
+}
@@ -0,0 +1,303 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.Expr.Assign;
+import com.saurabhkushwah.lox.Expr.Binary;
+import com.saurabhkushwah.lox.Expr.Call;
+import com.saurabhkushwah.lox.Expr.Grouping;
+import com.saurabhkushwah.lox.Expr.Literal;
+import com.saurabhkushwah.lox.Expr.Logical;
+import com.saurabhkushwah.lox.Expr.Unary;
+import com.saurabhkushwah.lox.Expr.Variable;
+import com.saurabhkushwah.lox.Stmt.Block;
+import com.saurabhkushwah.lox.Stmt.Function;
+import com.saurabhkushwah.lox.Stmt.Var;
+import com.saurabhkushwah.lox.Stmt.While;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hoists loop invariant expressions out of While and For loops
+ * <p>
+ * Unary, Binary, Logical and Grouping expressions, and calls to pure natives, whose operands are
+ * literals and variables that the loop can't change are evaluated once into a temporary declared
+ * in a block around the loop.
+ * A local is unchanged when it is declared outside the loop, not assigned in it, and not both
+ * captured and assigned anywhere (a closure called from the loop could assign it). Globals are
+ * only read from loops that call nothing but pure natives, and never in a program that runs
+ * tasks, which may assign them in the middle of the loop.
+ * <p>
+ * The hoisted expression may not have been evaluated at all by the original loop, or only after
+ * some output, so it is evaluated speculatively: an operation that fails (1 + "a") leaves a marker
+ * in the temporary and the expression is evaluated again at its place, raising the error there.
+ * Expressions are hoisted out of the outermost loop they are invariant in.
+ */
+class LoopInvariantMotion extends AstTransformer {
+
+  private final Resolver resolver;
+  private final Interpreter interpreter;
+
+  // enclosing loops of the function being transformed, outermost first
+  private List<Loop> loops = new ArrayList<>();
+
+  private int nextTemporary;
+  private int hoisted;
+
+  LoopInvariantMotion(Resolver resolver, Interpreter interpreter) {
+    this.resolver = resolver;
+    this.interpreter = interpreter;
+  }
+
+  List<Stmt> hoist(List<Stmt> statements) {
+    return transform(statements);
+  }
+
+  int hoisted() {
+    return hoisted;
+  }
+
+  @Override
+  Expr transform(Expr expr) {
+    if (expr != null && !loops.isEmpty() && isWorthHoisting(expr)) {
+      for (Loop loop : loops) {
+        if (loop.isInvariant(expr)) {
+          return loop.hoist(expr);
+        }
+      }
+    }
+    return super.transform(expr);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(While stmt) {
+    Loop loop = enter(stmt.condition, stmt.body);
+    Expr condition = transform(stmt.condition);
+    Stmt body = transformBranch(stmt.body);
+    loops.remove(loop);
+
+    if (condition == stmt.condition && body == stmt.body) {
+      return stmt;
+    }
+    return loop.wrap(new While(condition, body));
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    // the initializer belongs to the enclosing loops, it runs once
+    Stmt initializer = transform(stmt.initializer);
+
+    Loop loop = enter(stmt.initializer, stmt.condition, stmt.increment, stmt.body);
+    Expr condition = transform(stmt.condition);
+    Expr increment = transform(stmt.increment);
+    Stmt body = transformBranch(stmt.body);
+    loops.remove(loop);
+
+    if (initializer == stmt.initializer && condition == stmt.condition
+        && increment == stmt.increment && body == stmt.body) {
+      return stmt;
+    }
+
+    return loop.wrap(new Stmt.For(initializer, condition, increment, body));
+  }
+
+  // function bodies run in their own frame, nothing inside them moves out of the loop
+  @Override
+  public Stmt visitFunctionStmt(Function stmt) {
+    List<Loop> enclosing = loops;
+    loops = new ArrayList<>();
+    Stmt transformed = super.visitFunctionStmt(stmt);
+    loops = enclosing;
+    return transformed;
+  }
+
+  @Override
+  public Expr visitFunctionExpr(Expr.Function expr) {
+    List<Loop> enclosing = loops;
+    loops = new ArrayList<>();
+    Expr transformed = super.visitFunctionExpr(expr);
+    loops = enclosing;
+    return transformed;
+  }
+
+  // so do inlined bodies, their parameters are only bound inside the inlined call
+  @Override
+  public Expr visitInlineExpr(Expr.Inline expr) {
+    List<Loop> enclosing = loops;
+    Expr callee = transform(expr.call.callee);
+    List<Expr> callArguments = transformExpressions(expr.call.arguments);
+    List<Expr> arguments = transformExpressions(expr.arguments);
+    loops = new ArrayList<>();
+    Expr body = transform(expr.body);
+    loops = enclosing;
+
+    if (callee == expr.call.callee && callArguments == expr.call.arguments
+        && arguments == expr.arguments && body == expr.body) {
+      return expr;
+    }
+
+    Call call = callee == expr.call.callee && callArguments == expr.call.arguments
+        ? expr.call : new Call(callee, expr.call.paren, callArguments);
+    return new Expr.Inline(call, expr.function, expr.parameters, arguments, body);
+  }
+
+  private Loop enter(Object... parts) {
+    Loop loop = new Loop();
+    EffectCollector collector = new EffectCollector(loop);
+    for (Object part : parts) {
+      if (part instanceof Expr) {
+        collector.transform((Expr) part);
+      } else if (part instanceof Stmt) {
+        collector.transform((Stmt) part);
+      }
+    }
+    loops.add(loop);
+    return loop;
+  }
+
+  // operations only, a variable or a literal alone is as cheap as the temporary
+  private boolean isWorthHoisting(Expr expr) {
+    if (expr instanceof Grouping) {
+      return isWorthHoisting(((Grouping) expr).expression);
+    }
+    return expr instanceof Unary || expr instanceof Binary || expr instanceof Logical
+        || isPureNativeCall(expr);
+  }
+
+  private boolean isPureNativeCall(Expr expr) {
+    return expr instanceof Call
+        && PurityAnalysis.isPureNative(((Call) expr).callee, resolver, interpreter);
+  }
+
+  private class Loop {
+
+    // what the loop, including the functions declared in it, assigns and declares
+    final Set<Token> assigned = new HashSet<>();
+    final Set<String> assignedGlobals = new HashSet<>();
+    final Set<Token> declared = new HashSet<>();
+    boolean calls;
+
+    final List<Stmt> temporaries = new ArrayList<>();
+
+    boolean isInvariant(Expr expr) {
+      if (expr instanceof Literal) {
+        return true;
+      }
+      if (expr instanceof Variable) {
+        return isUnchanged((Variable) expr);
+      }
+      if (expr instanceof Grouping) {
+        return isInvariant(((Grouping) expr).expression);
+      }
+      if (expr instanceof Unary) {
+        return isInvariant(((Unary) expr).right);
+      }
+      if (expr instanceof Binary) {
+        return isInvariant(((Binary) expr).left) && isInvariant(((Binary) expr).right);
+      }
+      if (expr instanceof Logical) {
+        return isInvariant(((Logical) expr).left) && isInvariant(((Logical) expr).right);
+      }
+      if (isPureNativeCall(expr)) {
+        Call call = (Call) expr;
+        if (!isInvariant(call.callee)) {
+          return false;
+        }
+        for (Expr argument : call.arguments) {
+          if (!isInvariant(argument)) {
+            return false;
+          }
+        }
+        return true;
+      }
+      return false;
+    }
+
+    private boolean isUnchanged(Variable expr) {
+      Token declaration = resolver.declarationOf(expr);
+      if (declaration == null) {
+        return !calls && !assignedGlobals.contains(expr.name.lexeme) && !resolver.isConcurrent();
+      }
+
+      return !declared.contains(declaration) && !assigned.contains(declaration)
+          && !(resolver.isCaptured(declaration) && resolver.isReassigned(declaration));
+    }
+
+    Expr hoist(Expr expr) {
+      Token name = new Token(TokenType.IDENTIFIER, "$" + nextTemporary++, null, 0);
+      temporaries.add(new Var(name, new Expr.Speculate(expr)));
+      hoisted++;
+      return new Expr.Invariant(name, expr);
+    }
+
+    Stmt wrap(Stmt loop) {
+      if (temporaries.isEmpty()) {
+        return loop;
+      }
+
+      List<Stmt> statements = new ArrayList<>(temporaries);
+      statements.add(loop);
+      return new Block(statements);
+    }
+  }
+
+  private class EffectCollector extends AstTransformer {
+
+    private final Loop loop;
+
+    EffectCollector(Loop loop) {
+      this.loop = loop;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+      Token declaration = resolver.declarationOf(expr);
+      if (declaration == null) {
+        loop.assignedGlobals.add(expr.name.lexeme);
+      } else {
+        loop.assigned.add(declaration);
+      }
+      return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+      if (!isPureNativeCall(expr)) {
+        loop.calls = true;
+      }
+      return super.visitCallExpr(expr);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+      loop.calls = true;
+      loop.declared.addAll(expr.parameters);
+      return super.visitInlineExpr(expr);
+    }
+
+    @Override
+    public Expr visitFunctionExpr(Expr.Function expr) {
+      loop.declared.addAll(expr.parameters);
+      return super.visitFunctionExpr(expr);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+      loop.declared.add(stmt.name);
+      loop.declared.addAll(stmt.parameters);
+      return super.visitFunctionStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+      loop.declared.add(stmt.name);
+      return super.visitVarStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+      loop.declared.add(stmt.name);
+      return super.visitClassStmt(stmt);
+    }
+  }
+}
@@ -5,18 +5,29 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
 
-  private static final Interpreter interpreter = new Interpreter();
-  private static boolean hadError;
-  private static boolean hadRuntimeError;
+  static final String VERSION = "1.0";
+
+  private static final ScriptCache cache = ScriptCache.fromSystemProperties();
+  private static final Limits limits = Limits.fromSystemProperties();
+  // entries per memoized function, 0 (the default) turns memoization off
+  private static final int memoSize = Integer.getInteger("jlox.memo.size", 0);
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
+    if (args.length >= 1 && args[0].equals("--batch")) {
+      System.exit(runBatch(Arrays.asList(args).subList(1, args.length)));
+    } else if (args.length == 2 && args[0].equals("--daemon")) {
+      System.exit(new Daemon(Paths.get(args[1]), cache).serve());
+    } else if (args.length > 1) {
       System.err.println("Usage: jlox [script]");
+      System.err.println("       jlox --batch [--workers n] <directory | list file>...");
+      System.err.println("       jlox --daemon <socket>");
       System.exit(64);
     } else if (args.length == 1) {
       runFile(args[0]);
@@ -27,17 +38,55 @@ public class Lox {
 
   private static void runFile(String path) throws IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    String source = new String(bytes, Charset.defaultCharset());
+
+    ErrorReporter reporter = new ErrorReporter(System.err);
+    Interpreter interpreter = new Interpreter(System.out, reporter);
+    configure(interpreter);
+
+    List<Stmt> statements = load(source, interpreter, reporter, cache);
+    if (statements != null) {
+      interpreter.interpret(statements);
+    }
+
+    if (Boolean.getBoolean("jlox.stats") && interpreter.memoHits + interpreter.memoMisses > 0) {
+      long calls = interpreter.memoHits + interpreter.memoMisses;
+      reporter.note(String.format("memo: %d hits, %d misses (%.1f%% hit rate)",
+          interpreter.memoHits, interpreter.memoMisses, 100.0 * interpreter.memoHits / calls));
+    }
 
-    if (hadError) {
+    if (reporter.hadError()) {
       System.exit(65);
-    } else if (hadRuntimeError) {
+    } else if (reporter.hadRuntimeError()) {
       System.exit(70);
     }
   }
 
+  private static int runBatch(List<String> args) throws IOException {
+    int workers = Runtime.getRuntime().availableProcessors();
+    if (args.size() >= 2 && args.get(0).equals("--workers")) {
+      try {
+        workers = Integer.parseInt(args.get(1));
+      } catch (NumberFormatException e) {
+        workers = 0;
+      }
+      args = args.subList(2, args.size());
+    }
+
+    if (args.isEmpty() || workers < 1) {
+      System.err.println("Usage: jlox --batch [--workers n] <directory | list file>...");
+      return 64;
+    }
+
+    List<Path> scripts = BatchRunner.collect(args);
+    return new BatchRunner(cache, workers).run(scripts);
+  }
+
   private static void runPrompt() throws IOException {
     BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+    ErrorReporter reporter = new ErrorReporter(System.err);
+    Interpreter interpreter = new Interpreter(System.out, reporter);
+    configure(interpreter);
 
     while (true) {
       System.out.print("> ");
@@ -45,51 +94,119 @@ public class Lox {
       if (line == null) {
         continue;
       }
-      run(line);
-      hadError = false;
+
+      List<Stmt> statements = compile(line, interpreter, reporter);
+      if (statements != null) {
+        interpreter.interpret(statements);
+      }
+      reporter.reset();
     }
   }
 
-  private static void run(String str) {
-    Scanner scan = new Scanner(str);
+  // applies the -Djlox settings of a script run to the interpreter running it
+  static void configure(Interpreter interpreter) {
+    interpreter.limit(limits);
+    interpreter.memoize(memoSize);
+  }
+
+  // compiles source or picks it up from cache, returns null on compile error
+  static List<Stmt> load(String source, Interpreter interpreter, ErrorReporter reporter,
+      ScriptCache cache) {
+    List<Stmt> statements = cache != null ? cache.load(source, interpreter) : null;
+    if (statements == null) {
+      statements = compile(source, interpreter, reporter);
+      if (statements != null && cache != null) {
+        cache.store(source, statements, interpreter);
+      }
+    }
+    return statements;
+  }
+
+  // scans, parses and resolves source for interpreter, returns null on compile error
+  static List<Stmt> compile(String source, Interpreter interpreter, ErrorReporter reporter) {
+    return compile(source, interpreter, reporter, interpreter.isConcurrent());
+  }
+
+  // concurrent compiles for globals that other threads may assign, see Resolver#isConcurrent
+  static List<Stmt> compile(String source, Interpreter interpreter, ErrorReporter reporter,
+      boolean concurrent) {
+    Scanner scan = new Scanner(source, reporter);
     List<Token> tokens = scan.scanTokens();
 
-    Parser parser = new Parser(tokens);
+    Parser parser = new Parser(tokens, reporter);
     List<Stmt> statements = parser.parse();
 
-    if (hadError) {
-      return;
+    if (reporter.hadError()) {
+      return null;
     }
 
-    Resolver resolver = new Resolver(interpreter);
+    Resolver resolver = new Resolver(reporter, concurrent);
     resolver.resolve(statements);
 
-    if (hadError) {
-      return;
+    if (reporter.hadError()) {
+      return null;
     }
 
-    interpreter.interpret(statements);
+    statements = optimize(statements, resolver, interpreter, reporter, concurrent);
+    return statements;
   }
 
-  public static void error(int line, String message) {
-    report(line, "", message);
-  }
+  // every pass works on a freshly resolved tree, the final resolution is the one executed
+  private static List<Stmt> optimize(List<Stmt> statements, Resolver resolver,
+      Interpreter interpreter, ErrorReporter reporter, boolean concurrent) {
+    boolean stats = Boolean.getBoolean("jlox.stats");
 
-  private static void report(int line, String where, String message) {
-    System.err.printf("Error [Line %d] %s: %s\n", line, where, message);
-    hadError = true;
-  }
+    Inliner inliner = new Inliner(resolver, Inliner.maxSizeFromSystemProperties());
+    statements = inliner.inline(statements);
+    if (stats) {
+      reporter.note(String.format("inlined: %d call sites", inliner.inlined()));
+    }
 
-  public static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, "at end", message);
-    } else {
-      report(token.line, "at '" + token.lexeme + "'", message);
+    resolver = new Resolver(reporter, concurrent);
+    resolver.resolve(statements);
+    statements = new ConstantFolder(resolver, interpreter).fold(statements);
+
+    resolver = new Resolver(reporter, concurrent);
+    resolver.resolve(statements);
+    DeadCodeEliminator eliminator = new DeadCodeEliminator(resolver);
+    statements = eliminator.eliminate(statements);
+    if (stats) {
+      reporter.note(String.format("dead code: %d nodes removed", eliminator.removed()));
+    }
+
+    resolver = new Resolver(reporter, concurrent);
+    resolver.resolve(statements);
+    LoopInvariantMotion motion = new LoopInvariantMotion(resolver, interpreter);
+    statements = motion.hoist(statements);
+    if (stats) {
+      reporter.note(String.format("loop invariants: %d expressions hoisted", motion.hoisted()));
+    }
+
+    resolver = new Resolver(reporter, concurrent);
+    resolver.resolve(statements);
+    Intrinsifier intrinsifier = new Intrinsifier(resolver, interpreter);
+    statements = intrinsifier.intrinsify(statements);
+    if (stats) {
+      reporter.note(String.format("intrinsics: %d calls", intrinsifier.replaced()));
+    }
+
+    resolver = new Resolver(reporter, concurrent);
+    resolver.resolve(statements);
+    TypeInference inference = new TypeInference(resolver);
+    statements = inference.infer(statements);
+    if (stats) {
+      reporter.note(String.format("types: %d operations unchecked", inference.rewritten()));
+    }
+
+    resolver = new Resolver(reporter, concurrent);
+    resolver.resolve(statements);
+    Resolution resolution = resolver.resolution();
+    resolution.memoized.addAll(new PurityAnalysis(resolver, interpreter).memoizable(statements));
+    if (stats) {
+      reporter.note(String.format("pure: %d functions memoizable", resolution.memoized.size()));
     }
-  }
 
-  public static void runtimeError(RuntimeError error) {
-    System.err.printf("Error [Line %s] : %s\n", error.token.line, error.getMessage());
-    hadRuntimeError = true;
+    interpreter.resolve(resolution);
+    return statements;
   }
 }
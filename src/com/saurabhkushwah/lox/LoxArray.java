@@ -0,0 +1,98 @@
+package com.saurabhkushwah.lox;
+
+import java.util.Arrays;
+
+/**
+ * Growable array value
+ * <p>
+ * Elements are kept unboxed in a double[] while they are all numbers, the first element of another
+ * type moves them to an Object[] for good. Arrays are compared by identity, like functions.
+ */
+public class LoxArray {
+
+  // exactly one of them is in use
+  private double[] numbers;
+  private Object[] values;
+  private int size;
+
+  LoxArray(int capacity) {
+    numbers = new double[Math.max(capacity, 4)];
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isNumeric() {
+    return numbers != null;
+  }
+
+  Object get(int index) {
+    return numbers != null ? Numbers.of(numbers[index]) : values[index];
+  }
+
+  // only valid while isNumeric()
+  double number(int index) {
+    return numbers[index];
+  }
+
+  void set(int index, Object value) {
+    if (numbers != null) {
+      if (Numbers.isNumber(value)) {
+        numbers[index] = Numbers.toDouble(value);
+        return;
+      }
+      box();
+    }
+    values[index] = value;
+  }
+
+  void push(Object value) {
+    if (numbers != null) {
+      if (Numbers.isNumber(value)) {
+        if (size == numbers.length) {
+          numbers = Arrays.copyOf(numbers, size * 2);
+        }
+        numbers[size++] = Numbers.toDouble(value);
+        return;
+      }
+      box();
+    }
+
+    if (size == values.length) {
+      values = Arrays.copyOf(values, size * 2);
+    }
+    values[size++] = value;
+  }
+
+  Object pop() {
+    size--;
+    if (numbers != null) {
+      return Numbers.of(numbers[size]);
+    }
+
+    Object value = values[size];
+    values[size] = null;
+    return value;
+  }
+
+  private void box() {
+    values = new Object[numbers.length];
+    for (int i = 0; i < size; i++) {
+      values[i] = Numbers.of(numbers[i]);
+    }
+    numbers = null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(Interpreter.stringify(get(i)));
+    }
+    return builder.append("]").toString();
+  }
+}
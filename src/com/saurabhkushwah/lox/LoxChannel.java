@@ -0,0 +1,103 @@
+package com.saurabhkushwah.lox;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue between tasks, created by channel(capacity)
+ * <p>
+ * send(channel, value) waits while the channel is full, receive(channel) while it is empty. Once
+ * closed, sending raises an error and receiving drains what is left, then returns nil.
+ * <p>
+ * The buffer starts small and doubles as values pile up, a large capacity only costs memory once
+ * that many values wait in the channel, which memory limits then account for.
+ */
+final class LoxChannel {
+
+  private static final int INITIAL_SIZE = 16;
+
+  private final int capacity;
+  private Object[] buffer;
+  // next value to receive is at head, count values follow it around the buffer
+  private int head;
+  private int count;
+  private boolean closed;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+
+  LoxChannel(int capacity) {
+    this.capacity = capacity;
+    this.buffer = new Object[Math.min(capacity, INITIAL_SIZE)];
+  }
+
+  void send(Object value) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (count == capacity && !closed) {
+        notFull.await();
+      }
+      if (closed) {
+        throw NativeFunction.error("Can't send on a closed channel.");
+      }
+      if (count == buffer.length) {
+        grow();
+      }
+
+      buffer[(head + count) % buffer.length] = value;
+      count++;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  Object receive() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (count == 0 && !closed) {
+        notEmpty.await();
+      }
+      if (count == 0) {
+        return null;
+      }
+
+      Object value = buffer[head];
+      buffer[head] = null;
+      head = (head + 1) % buffer.length;
+      count--;
+      notFull.signal();
+      return value;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // the values in order from index 0 of a buffer twice the size, or of capacity
+  private void grow() {
+    Object[] grown = new Object[(int) Math.min(2L * buffer.length, capacity)];
+    for (int i = 0; i < count; i++) {
+      grown[i] = buffer[(head + i) % buffer.length];
+    }
+    buffer = grown;
+    head = 0;
+  }
+
+  // wakes up everyone waiting, senders to fail and receivers to drain
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<channel>";
+  }
+}
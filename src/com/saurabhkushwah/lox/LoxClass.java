@@ -0,0 +1,61 @@
+package com.saurabhkushwah.lox;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class value, calling it creates an instance and runs init on it
+ * <p>
+ * Methods are unbound functions taking the instance in their first slot, see {@link LoxFunction}.
+ */
+public class LoxClass implements LoxCallable {
+
+  final String name;
+  final LoxClass superclass;
+  private final Map<String, LoxFunction> methods;
+  final LoxFunction initializer;
+  // globals of the context that declared the class, tells apart the shapes of contexts sharing a
+  // program
+  final Environment context;
+
+  // shape of new instances
+  final Shape root = new Shape(this);
+  // most fields an instance got so far, new instances make room for as many
+  int capacity;
+
+  LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods,
+      Environment context) {
+    this.name = name;
+    this.superclass = superclass;
+    this.methods = methods;
+    this.context = context;
+    this.initializer = findMethod("init");
+  }
+
+  LoxFunction findMethod(String name) {
+    LoxFunction method = methods.get(name);
+    if (method == null && superclass != null) {
+      return superclass.findMethod(name);
+    }
+    return method;
+  }
+
+  @Override
+  public int arity() {
+    return initializer == null ? 0 : initializer.arity();
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    LoxInstance instance = new LoxInstance(this);
+    if (initializer != null) {
+      interpreter.call(initializer.bind(instance), arguments);
+    }
+    return instance;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
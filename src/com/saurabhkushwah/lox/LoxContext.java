@@ -0,0 +1,121 @@
+package com.saurabhkushwah.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Globals, output and error sink of one user of a {@link LoxEngine}
+ * <p>
+ * Programs run in a context see the globals left by the ones run before, like the lines of the
+ * prompt. Contexts share nothing with each other, any number of them may run at once, but a
+ * context runs one program at a time and must not be used by two threads at once.
+ * <p>
+ * Java values handed to {@link #define} become Lox values: numbers, strings, booleans and null as
+ * such, Lists as arrays and Maps as maps (converting their elements), Lox values as they are.
+ * <p>
+ * Every run gets the context's {@link Limits} afresh, none unless {@link #limit} set some. Tasks
+ * outlive the program that spawned them, programs run after one that could start tasks see
+ * globals as other threads may change them.
+ */
+public final class LoxContext {
+
+  private final LoxEngine engine;
+  private final ErrorReporter reporter;
+  private final Interpreter interpreter;
+
+  LoxContext(LoxEngine engine, PrintStream out, PrintStream err) {
+    this.engine = engine;
+    this.reporter = new ErrorReporter(err);
+    this.interpreter = engine.interpreter(out, reporter);
+  }
+
+  /**
+   * false when the program raised a runtime error, which is written to the context's err
+   */
+  public boolean run(LoxProgram program) {
+    if (program.engine != engine) {
+      throw new IllegalArgumentException("Program was compiled by another engine.");
+    }
+
+    if (interpreter.isConcurrent()) {
+      program = program.concurrent();
+    }
+
+    reporter.reset();
+    interpreter.share(program.resolution);
+    interpreter.interpret(program.statements);
+    return !reporter.hadRuntimeError();
+  }
+
+  // whether the last program run raised a runtime error
+  public boolean failed() {
+    return reporter.hadRuntimeError();
+  }
+
+  // the limit the last program run went over, null when it stayed within them
+  public LimitError.Kind exceeded() {
+    return reporter.exceeded();
+  }
+
+  public LoxContext limit(Limits limits) {
+    interpreter.limit(limits);
+    return this;
+  }
+
+  /**
+   * memoizes the pure functions of the programs run from now on, keeping size results per
+   * function, 0 (the default) turns memoization off
+   */
+  public LoxContext memoize(int size) {
+    interpreter.memoize(size);
+    return this;
+  }
+
+  public LoxContext define(String name, Object value) {
+    interpreter.globals.define(name, toLox(value));
+    return this;
+  }
+
+  /**
+   * value of a global, numbers as Doubles, strings as Strings, null when it is nil or undefined
+   */
+  public Object get(String name) {
+    Object value = interpreter.globals.lookup(name);
+    if (Rope.isString(value)) {
+      return value.toString();
+    }
+    return Numbers.isNumber(value) ? (Object) Numbers.toDouble(value) : value;
+  }
+
+  private static Object toLox(Object value) {
+    if (value instanceof Double || value instanceof Float) {
+      return Numbers.of(((Number) value).doubleValue());
+    }
+    if (value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      return Numbers.of(((Number) value).longValue());
+    }
+    if (value instanceof List) {
+      List<?> elements = (List<?>) value;
+      LoxArray array = new LoxArray(elements.size());
+      for (Object element : elements) {
+        array.push(toLox(element));
+      }
+      return array;
+    }
+    if (value instanceof Map) {
+      LoxMap map = new LoxMap();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        map.put(toLox(entry.getKey()), toLox(entry.getValue()));
+      }
+      return map;
+    }
+    if (value == null || value instanceof String || value instanceof Boolean
+        || value instanceof LoxCallable || value instanceof LoxArray || value instanceof LoxMap
+        || value instanceof LoxInstance) {
+      return value;
+    }
+    throw new IllegalArgumentException("Can't hand a " + value.getClass().getName() + " to Lox.");
+  }
+}
@@ -0,0 +1,52 @@
+package com.saurabhkushwah.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Embedding entry point: compiles {@link LoxProgram}s and creates the {@link LoxContext}s that run
+ * them
+ * <p>
+ * Engines and programs are immutable, a program compiled once can run in any number of contexts
+ * on any number of threads at the same time. Every context gets the natives of the engine's
+ * modules, the ones its programs were optimized against, so modules are registered again for each
+ * context and natives they share between contexts have to be thread safe.
+ */
+public final class LoxEngine {
+
+  private final NativeModule[] modules;
+
+  public LoxEngine(NativeModule... modules) {
+    this.modules = modules.clone();
+  }
+
+  /**
+   * null when source doesn't compile, the errors are written to err
+   */
+  public LoxProgram compile(String source, PrintStream err) {
+    return compile(source, err, false);
+  }
+
+  // concurrent compiles for a context whose globals other threads may assign
+  LoxProgram compile(String source, PrintStream err, boolean concurrent) {
+    ErrorReporter reporter = new ErrorReporter(err);
+    // the passes look at the natives with an interpreter of their own, nothing runs in a context
+    Interpreter interpreter = interpreter(new PrintStream(OutputStream.nullOutputStream()),
+        reporter);
+
+    List<Stmt> statements = Lox.compile(source, interpreter, reporter, concurrent);
+    if (statements == null) {
+      return null;
+    }
+    return new LoxProgram(this, source, statements, interpreter.resolution);
+  }
+
+  public LoxContext newContext(PrintStream out, PrintStream err) {
+    return new LoxContext(this, out, err);
+  }
+
+  Interpreter interpreter(PrintStream out, ErrorReporter reporter) {
+    return new Interpreter(out, reporter, modules);
+  }
+}
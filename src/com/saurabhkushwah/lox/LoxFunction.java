@@ -3,14 +3,49 @@ package com.saurabhkushwah.lox;
 import com.saurabhkushwah.lox.Stmt.Function;
 import java.util.List;
 
+/**
+ * Closure of a function or a method
+ * <p>
+ * A method's frame starts with the instance, then the arguments. The class keeps its methods
+ * unbound, reading one from an instance binds it: receiver is the instance callers push first.
+ */
 public class LoxFunction implements LoxCallable {
 
-  private final Stmt.Function declaration;
-  private final Environment closure;
+  final Stmt.Function declaration;
+  final FrameLayout layout;
+  final Cell[] upvalues;
+  // results by arguments when the function is pure and memoization is on, null otherwise
+  final Memo memo;
+  // init methods return the instance whatever the way they complete
+  final boolean initializer;
+  final LoxInstance receiver;
 
-  public LoxFunction(Function declaration, Environment closure) {
+  LoxFunction(Function declaration, FrameLayout layout, Cell[] upvalues, Memo memo) {
+    this(declaration, layout, upvalues, memo, false, null);
+  }
+
+  private LoxFunction(Function declaration, FrameLayout layout, Cell[] upvalues, Memo memo,
+      boolean initializer, LoxInstance receiver) {
     this.declaration = declaration;
-    this.closure = closure;
+    this.layout = layout;
+    this.upvalues = upvalues;
+    this.memo = memo;
+    this.initializer = initializer;
+    this.receiver = receiver;
+  }
+
+  static LoxFunction method(Function declaration, FrameLayout layout, Cell[] upvalues) {
+    return new LoxFunction(declaration, layout, upvalues, null,
+        declaration.name.lexeme.equals("init"), null);
+  }
+
+  LoxFunction bind(LoxInstance instance) {
+    return new LoxFunction(declaration, layout, upvalues, null, initializer, instance);
+  }
+
+  // name token identifies a declaration across the rebuilds of optimization passes
+  boolean isDeclaredBy(Token name) {
+    return declaration.name == name;
   }
 
   @Override
@@ -20,19 +55,7 @@ public class LoxFunction implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    Environment environment = new Environment(closure);
-
-    for (int i = 0; i < arguments.size(); i++) {
-      environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
-    }
-
-    try {
-      interpreter.executeBlock(declaration.body, environment);
-    } catch (Return returnValue) {
-      return returnValue.value;
-    }
-
-    return null;
+    return interpreter.call(this, arguments);
   }
 
   @Override
@@ -0,0 +1,31 @@
+package com.saurabhkushwah.lox;
+
+import java.util.Arrays;
+
+/**
+ * Instance of a class, its fields are laid out by its {@link Shape}
+ */
+public class LoxInstance {
+
+  Shape shape;
+  Object[] fields;
+
+  LoxInstance(LoxClass klass) {
+    this.shape = klass.root;
+    this.fields = new Object[klass.capacity];
+  }
+
+  // next is the current shape with one field appended
+  void extend(Shape next) {
+    if (next.size > fields.length) {
+      fields = Arrays.copyOf(fields, Math.max(next.size, fields.length * 2));
+      next.klass.capacity = Math.max(next.klass.capacity, next.size);
+    }
+    shape = next;
+  }
+
+  @Override
+  public String toString() {
+    return shape.klass.name + " instance";
+  }
+}
@@ -0,0 +1,207 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Hash map value, an open addressing table with linear probing
+ * <p>
+ * Keys compare like Lox values: numbers by value (NaN equal to itself, 0 and -0 different, as
+ * Double.equals), strings and ropes by text, everything else by identity. Number keys are kept as
+ * their bit pattern next to a marker in the key array so probing never boxes them, and every slot
+ * keeps the hash of any other key, string hashes are computed once when the key is stored. Removal
+ * shifts the following entries back instead of leaving tombstones.
+ * <p>
+ * Iteration walks the slots: {@link #next} returns the next full slot after a given one, so
+ * nothing is allocated to iterate.
+ */
+public class LoxMap {
+
+  // key markers, a null key is an empty slot
+  private static final Object NUMBER = new Object();
+  private static final Object NIL = new Object();
+
+  // key and value of slot i side by side at 2i and 2i + 1, so a probe touches one cache line
+  private Object[] entries = new Object[16];
+  // bits of a number key, hash of any other key
+  private long[] details = new long[8];
+  // a hash picks its home slot by its top bits, 32 - log2(capacity)
+  private int shift = 29;
+  private int size;
+
+  public int size() {
+    return size;
+  }
+
+  public Object get(Object key) {
+    int slot = find(key);
+    return slot < 0 ? null : entries[2 * slot + 1];
+  }
+
+  public boolean containsKey(Object key) {
+    return find(key) >= 0;
+  }
+
+  public void put(Object key, Object value) {
+    if ((size + 1) * 4 > details.length * 3) {
+      resize(details.length * 2);
+    }
+
+    int slot = find(key);
+    if (slot >= 0) {
+      entries[2 * slot + 1] = value;
+      return;
+    }
+
+    slot = -slot - 1;
+    if (Numbers.isNumber(key)) {
+      entries[2 * slot] = NUMBER;
+      details[slot] = Double.doubleToLongBits(Numbers.toDouble(key));
+    } else {
+      entries[2 * slot] = normalize(key);
+      details[slot] = hash(key);
+    }
+    entries[2 * slot + 1] = value;
+    size++;
+  }
+
+  public Object remove(Object key) {
+    int slot = find(key);
+    if (slot < 0) {
+      return null;
+    }
+
+    Object value = entries[2 * slot + 1];
+    size--;
+
+    // moves back every following entry whose probe sequence crosses the freed slot
+    int mask = details.length - 1;
+    int free = slot;
+    for (int i = (slot + 1) & mask; entries[2 * i] != null; i = (i + 1) & mask) {
+      int home = home(i) >>> shift;
+      if (((i - home) & mask) >= ((i - free) & mask)) {
+        entries[2 * free] = entries[2 * i];
+        entries[2 * free + 1] = entries[2 * i + 1];
+        details[free] = details[i];
+        free = i;
+      }
+    }
+    entries[2 * free] = null;
+    entries[2 * free + 1] = null;
+    return value;
+  }
+
+  // first full slot from slot on, -1 past the last, start with next(0)
+  public int next(int slot) {
+    for (int i = slot; i < details.length; i++) {
+      if (entries[2 * i] != null) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public Object keyAt(int slot) {
+    Object key = entries[2 * slot];
+    if (key == NUMBER) {
+      return Numbers.of(Double.longBitsToDouble(details[slot]));
+    }
+    return key == NIL ? null : key;
+  }
+
+  public Object valueAt(int slot) {
+    return entries[2 * slot + 1];
+  }
+
+  // slot of key, or -(free slot) - 1 where it would go
+  private int find(Object key) {
+    int mask = details.length - 1;
+
+    if (Numbers.isNumber(key)) {
+      long bits = Double.doubleToLongBits(Numbers.toDouble(key));
+      int slot = mix(bits) >>> shift;
+      for (Object candidate; (candidate = entries[2 * slot]) != null; slot = (slot + 1) & mask) {
+        if (candidate == NUMBER && details[slot] == bits) {
+          return slot;
+        }
+      }
+      return -slot - 1;
+    }
+
+    int hash = hash(key);
+    int slot = hash >>> shift;
+    Object normalized = normalize(key);
+    for (Object candidate; (candidate = entries[2 * slot]) != null; slot = (slot + 1) & mask) {
+      if (candidate != NUMBER && details[slot] == hash && matches(candidate, normalized)) {
+        return slot;
+      }
+    }
+    return -slot - 1;
+  }
+
+  // hash of the key in a full slot
+  private int home(int slot) {
+    return entries[2 * slot] == NUMBER ? mix(details[slot]) : (int) details[slot];
+  }
+
+  // strings and booleans by value, the rest by identity
+  private static boolean matches(Object candidate, Object key) {
+    if (candidate == key) {
+      return true;
+    }
+    return (key instanceof String || key instanceof Boolean) && key.equals(candidate);
+  }
+
+  private static Object normalize(Object key) {
+    if (key == null) {
+      return NIL;
+    }
+    return key instanceof Rope ? key.toString() : key;
+  }
+
+  // hash of any key but a number
+  private static int hash(Object key) {
+    if (key instanceof String || key instanceof Rope || key instanceof Boolean) {
+      return mix(key.hashCode());
+    }
+    return mix(System.identityHashCode(key));
+  }
+
+  // the top bits of the product depend on every bit, the bits of whole numbers all sit at the top
+  private static int mix(long bits) {
+    return (int) ((bits * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  private void resize(int capacity) {
+    Object[] oldEntries = entries;
+    long[] oldDetails = details;
+
+    entries = new Object[2 * capacity];
+    details = new long[capacity];
+    shift--;
+
+    int mask = capacity - 1;
+    for (int i = 0; i < oldDetails.length; i++) {
+      Object key = oldEntries[2 * i];
+      if (key != null) {
+        int slot = (key == NUMBER ? mix(oldDetails[i]) : (int) oldDetails[i]) >>> shift;
+        while (entries[2 * slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        entries[2 * slot] = key;
+        entries[2 * slot + 1] = oldEntries[2 * i + 1];
+        details[slot] = oldDetails[i];
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (int slot = next(0); slot >= 0; slot = next(slot + 1)) {
+      if (builder.length() > 1) {
+        builder.append(", ");
+      }
+      builder.append(Interpreter.stringify(keyAt(slot))).append(": ")
+          .append(Interpreter.stringify(valueAt(slot)));
+    }
+    return builder.append("}").toString();
+  }
+}
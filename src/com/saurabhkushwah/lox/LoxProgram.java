@@ -0,0 +1,68 @@
+package com.saurabhkushwah.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Script compiled by a {@link LoxEngine}: its optimized statements and their resolution
+ * <p>
+ * Neither changes once compiled, contexts only read them, so a program is shared freely between
+ * threads. The inline caches of its property accesses are the one thing written while it runs,
+ * see {@link PropertyCache}.
+ * <p>
+ * Scanning, parsing, resolving and optimizing happen once, in {@link LoxEngine#compile}, running
+ * the program again only costs the interpretation (and a context for {@link #execute}). A context
+ * whose globals tasks of earlier programs may still assign runs {@link #concurrent()} instead,
+ * compiled again once per program without assuming that globals only change on its own thread.
+ */
+public final class LoxProgram {
+
+  final LoxEngine engine;
+  final String source;
+  final List<Stmt> statements;
+  final Resolution resolution;
+
+  private volatile LoxProgram concurrent;
+
+  LoxProgram(LoxEngine engine, String source, List<Stmt> statements, Resolution resolution) {
+    this.engine = engine;
+    this.source = source;
+    this.statements = Collections.unmodifiableList(statements);
+    this.resolution = resolution;
+  }
+
+  // the program compiled for globals other threads may assign, itself when it already was
+  LoxProgram concurrent() {
+    if (resolution.concurrent) {
+      return this;
+    }
+    LoxProgram program = concurrent;
+    if (program == null) {
+      // compiled before, it can't fail now, two threads racing here compile the same program
+      program = engine.compile(source, new PrintStream(OutputStream.nullOutputStream()), true);
+      concurrent = program;
+    }
+    return program;
+  }
+
+  /**
+   * runs the program in a fresh context whose globals are the natives and inputs, the context is
+   * returned to read the globals it left and whether it {@link LoxContext#failed}
+   */
+  public LoxContext execute(Map<String, ?> inputs, PrintStream out, PrintStream err) {
+    return execute(inputs, Limits.NONE, out, err);
+  }
+
+  public LoxContext execute(Map<String, ?> inputs, Limits limits, PrintStream out,
+      PrintStream err) {
+    LoxContext context = engine.newContext(out, err).limit(limits);
+    for (Map.Entry<String, ?> input : inputs.entrySet()) {
+      context.define(input.getKey(), input.getValue());
+    }
+    context.run(this);
+    return context;
+  }
+}
@@ -0,0 +1,75 @@
+package com.saurabhkushwah.lox;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Function call running on a thread of its own, created by spawn(fn) and joined by await(task)
+ * <p>
+ * Tasks run on virtual threads when the JVM has them (Java 21 on), so thousands of tasks blocked
+ * in sleep or I/O natives cost no platform thread each. Older JVMs run them on a cached pool of
+ * daemon threads, unbounded so that tasks waiting on each other can't starve: there every running
+ * task holds a platform thread and its stack, tasks aren't cheap until Java 21.
+ * <p>
+ * Each task gets an interpreter of its own (value stack, frames) sharing the globals of its
+ * spawner, which are synchronized once a task exists. Captured variables are shared as they are,
+ * arrays, maps and instances aren't synchronized: a task must not change one while another task
+ * or its spawner uses it. Running tasks don't keep the JVM alive once the script ends.
+ */
+final class LoxTask {
+
+  // interpreter recursion is deep, pool threads get a main thread sized stack
+  private static final long THREAD_STACK_SIZE = 8L * 1024 * 1024;
+
+  private static final class Executor {
+
+    static final ExecutorService INSTANCE = create();
+
+    private static ExecutorService create() {
+      try {
+        Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) factory.invoke(null);
+      } catch (ReflectiveOperationException e) {
+        return Executors.newCachedThreadPool(runnable -> {
+          Thread thread = new Thread(null, runnable, "lox-task", THREAD_STACK_SIZE);
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+    }
+  }
+
+  private final Future<Object> result;
+
+  private LoxTask(Future<Object> result) {
+    this.result = result;
+  }
+
+  static LoxTask start(Callable<Object> call) {
+    return new LoxTask(Executor.INSTANCE.submit(call));
+  }
+
+  // the result of the call, its runtime error is raised again here
+  Object await() {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeError) {
+        throw (RuntimeError) e.getCause();
+      }
+      throw NativeFunction.error("Task failed: " + e.getCause() + ".");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw NativeFunction.error("Interrupted while awaiting a task.");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<task>";
+  }
+}
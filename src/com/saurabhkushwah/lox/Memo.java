@@ -0,0 +1,59 @@
+package com.saurabhkushwah.lox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of a pure function by arguments, the least recently used are evicted past capacity
+ * <p>
+ * Pure functions may call other functions by their global name, the results are dropped whenever
+ * a global function is replaced (a later script or REPL line redefining it).
+ */
+final class Memo {
+
+  static final Object MISSING = new Object();
+
+  private final Map<Object, Object> results;
+  // globals version the results were computed with
+  private int version;
+
+  Memo(int capacity) {
+    this.results = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  // arguments compare like Lox values, ropes by their text
+  static Object key(Object[] arguments, int start, int count) {
+    if (count == 1) {
+      return normalize(arguments[start]);
+    }
+
+    Object[] key = new Object[count];
+    for (int i = 0; i < count; i++) {
+      key[i] = normalize(arguments[start + i]);
+    }
+    return Arrays.asList(key);
+  }
+
+  private static Object normalize(Object value) {
+    return value instanceof Rope ? value.toString() : value;
+  }
+
+  // functions run on tasks share their memo
+  synchronized Object get(Object key, int version) {
+    if (version != this.version) {
+      results.clear();
+      this.version = version;
+    }
+    return results.getOrDefault(key, MISSING);
+  }
+
+  synchronized void put(Object key, Object value) {
+    results.put(key, value);
+  }
+}
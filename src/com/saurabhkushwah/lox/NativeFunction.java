@@ -0,0 +1,123 @@
+package com.saurabhkushwah.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Function implemented in Java, defined by a {@link NativeModule}
+ * <p>
+ * Natives of up to 3 arguments take them as plain parameters, the interpreter hands them over
+ * straight from its value stack. Errors are raised with {@link #error}, the interpreter reports
+ * them at the call.
+ */
+public abstract class NativeFunction implements LoxCallable {
+
+  public interface Body0 {
+
+    Object call();
+  }
+
+  public interface Body1 {
+
+    Object call(Object a);
+  }
+
+  public interface Body2 {
+
+    Object call(Object a, Object b);
+  }
+
+  public interface Body3 {
+
+    Object call(Object a, Object b, Object c);
+  }
+
+  // any arity, for natives that call back into the interpreter
+  public interface Body {
+
+    Object call(Interpreter interpreter, List<Object> arguments);
+  }
+
+  // the result only depends on the arguments and nothing else is observed or changed
+  final boolean pure;
+  private final int arity;
+
+  private NativeFunction(int arity, boolean pure) {
+    this.arity = arity;
+    this.pure = pure;
+  }
+
+  public static RuntimeError error(String message) {
+    return new RuntimeError(null, message);
+  }
+
+  // the arguments are stack[offset] to stack[offset + arity - 1]
+  abstract Object call(Interpreter interpreter, Object[] stack, int offset);
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return call(interpreter, arguments.toArray(), 0);
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+
+  static NativeFunction of(boolean pure, Body0 body) {
+    return new NativeFunction(0, pure) {
+      @Override
+      Object call(Interpreter interpreter, Object[] stack, int offset) {
+        return body.call();
+      }
+    };
+  }
+
+  static NativeFunction of(boolean pure, Body1 body) {
+    return new NativeFunction(1, pure) {
+      @Override
+      Object call(Interpreter interpreter, Object[] stack, int offset) {
+        return body.call(stack[offset]);
+      }
+    };
+  }
+
+  static NativeFunction of(boolean pure, Body2 body) {
+    return new NativeFunction(2, pure) {
+      @Override
+      Object call(Interpreter interpreter, Object[] stack, int offset) {
+        return body.call(stack[offset], stack[offset + 1]);
+      }
+    };
+  }
+
+  static NativeFunction of(boolean pure, Body3 body) {
+    return new NativeFunction(3, pure) {
+      @Override
+      Object call(Interpreter interpreter, Object[] stack, int offset) {
+        return body.call(stack[offset], stack[offset + 1], stack[offset + 2]);
+      }
+    };
+  }
+
+  static NativeFunction of(int arity, boolean pure, Body body) {
+    return new NativeFunction(arity, pure) {
+      @Override
+      Object call(Interpreter interpreter, Object[] stack, int offset) {
+        return body.call(interpreter,
+            new ArrayList<>(Arrays.asList(stack).subList(offset, offset + arity)));
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return body.call(interpreter, arguments);
+      }
+    };
+  }
+}
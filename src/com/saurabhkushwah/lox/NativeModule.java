@@ -0,0 +1,12 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Set of natives an embedder hands to the {@link Interpreter} when creating it
+ * <p>
+ * Modules are registered once, in order, after the built-in natives, so a module can replace one
+ * of them by defining the same name.
+ */
+public interface NativeModule {
+
+  void register(NativeRegistry natives);
+}
@@ -0,0 +1,49 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.NativeFunction.Body;
+import com.saurabhkushwah.lox.NativeFunction.Body0;
+import com.saurabhkushwah.lox.NativeFunction.Body1;
+import com.saurabhkushwah.lox.NativeFunction.Body2;
+import com.saurabhkushwah.lox.NativeFunction.Body3;
+
+/**
+ * Defines the natives of {@link NativeModule}s as globals of an interpreter
+ * <p>
+ * A pure native's result only depends on its arguments, and it neither changes anything nor looks
+ * into arrays, maps or instances it is given: calls to it may be hoisted out of loops and made
+ * from memoized functions. The arity of a body is the arity of the native.
+ */
+public final class NativeRegistry {
+
+  private final Environment globals;
+
+  NativeRegistry(Environment globals) {
+    this.globals = globals;
+  }
+
+  public NativeRegistry define(String name, boolean pure, Body0 body) {
+    return define(name, NativeFunction.of(pure, body));
+  }
+
+  public NativeRegistry define(String name, boolean pure, Body1 body) {
+    return define(name, NativeFunction.of(pure, body));
+  }
+
+  public NativeRegistry define(String name, boolean pure, Body2 body) {
+    return define(name, NativeFunction.of(pure, body));
+  }
+
+  public NativeRegistry define(String name, boolean pure, Body3 body) {
+    return define(name, NativeFunction.of(pure, body));
+  }
+
+  // arguments come as a list, body may call the Lox functions it is given
+  public NativeRegistry define(String name, int arity, boolean pure, Body body) {
+    return define(name, NativeFunction.of(arity, pure, body));
+  }
+
+  private NativeRegistry define(String name, NativeFunction function) {
+    globals.define(name, function);
+    return this;
+  }
+}
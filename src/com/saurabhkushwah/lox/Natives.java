@@ -0,0 +1,313 @@
+package com.saurabhkushwah.lox;
+
+import java.util.Collections;
+
+/**
+ * Built-in natives, registered before the modules of the embedder
+ * <p>
+ * clock()            seconds since the epoch
+ * nanotime()         nanoseconds since the interpreter was created, for timing
+ * len(value)         length of an array, a map or a string
+ * push(array, value) appends value
+ * pop(array)         removes and returns the last element
+ * sum(array)         sum of an array of numbers
+ * map(array, fn)     new array of fn applied to every element
+ * has(map, key)      whether the map holds key
+ * remove(map, key)   removes key, returns its value
+ * keys(map)          array of the keys
+ * values(map)        array of the values
+ * sqrt(x), floor(x), abs(x), min(x, y), max(x, y)
+ * substring(string, start, end)  characters from start up to end, excluded
+ * spawn(fn)          calls fn (no arguments) on a thread of its own, returns its {@link LoxTask}
+ * await(task)        waits for the task, returns what fn returned or raises its error
+ * sleep(ms)          blocks for ms milliseconds
+ * parallelMap(array, fn)  map on all cores, see {@link ParallelMap}
+ * channel(capacity), send(channel, value), receive(channel), close(channel), see {@link LoxChannel}
+ * <p>
+ * The math and string ones are pure, the others aren't: the clocks change, the others look into
+ * arrays and maps. The {@link Builtin}s also back the intrinsics, which call the same methods.
+ */
+final class Natives implements NativeModule {
+
+  static final Natives CORE = new Natives();
+
+  private Natives() {
+  }
+
+  @Override
+  public void register(NativeRegistry natives) {
+    registerClocks(natives);
+    registerArrays(natives);
+    registerMaps(natives);
+    registerMath(natives);
+    registerTasks(natives);
+    registerChannels(natives);
+    natives.define("substring", true, Natives::substring);
+  }
+
+  private static void registerClocks(NativeRegistry natives) {
+    natives.define("clock", false, () -> (double) System.currentTimeMillis() / 1000.0);
+
+    long origin = System.nanoTime();
+    natives.define("nanotime", false, () -> Numbers.of(System.nanoTime() - origin));
+  }
+
+  private static void registerArrays(NativeRegistry natives) {
+    natives.define("len", false, Natives::len);
+
+    natives.define("push", false, (array, value) -> {
+      array(array).push(value);
+      return null;
+    });
+
+    natives.define("pop", false, value -> {
+      LoxArray array = array(value);
+      if (array.size() == 0) {
+        throw NativeFunction.error("Can't pop from an empty array.");
+      }
+      return array.pop();
+    });
+
+    natives.define("sum", false, array -> Numbers.of(sum(array(array))));
+
+    natives.define("map", 2, false, (interpreter, arguments) -> {
+      LoxArray array = array(arguments.get(0));
+      LoxCallable function = function(arguments.get(1));
+      LoxArray result = new LoxArray(array.size());
+      for (int i = 0; i < array.size(); i++) {
+        result.push(function.call(interpreter, Collections.singletonList(array.get(i))));
+      }
+      return result;
+    });
+  }
+
+  private static void registerMaps(NativeRegistry natives) {
+    natives.define("has", false, (map, key) -> map(map).containsKey(key));
+
+    natives.define("remove", false, (map, key) -> map(map).remove(key));
+
+    natives.define("keys", false, value -> {
+      LoxMap map = map(value);
+      LoxArray keys = new LoxArray(map.size());
+      for (int slot = map.next(0); slot >= 0; slot = map.next(slot + 1)) {
+        keys.push(map.keyAt(slot));
+      }
+      return keys;
+    });
+
+    natives.define("values", false, value -> {
+      LoxMap map = map(value);
+      LoxArray values = new LoxArray(map.size());
+      for (int slot = map.next(0); slot >= 0; slot = map.next(slot + 1)) {
+        values.push(map.valueAt(slot));
+      }
+      return values;
+    });
+  }
+
+  private static void registerMath(NativeRegistry natives) {
+    natives.define("sqrt", true, Natives::sqrt);
+    natives.define("floor", true, Natives::floor);
+    natives.define("abs", true, Natives::abs);
+    natives.define("min", true, Natives::min);
+    natives.define("max", true, Natives::max);
+  }
+
+  private static void registerTasks(NativeRegistry natives) {
+    natives.define("spawn", 1, false, (interpreter, arguments) -> {
+      if (!(arguments.get(0) instanceof LoxCallable)
+          || ((LoxCallable) arguments.get(0)).arity() != 0) {
+        throw NativeFunction.error("Expect a function of 0 arguments to spawn.");
+      }
+      return interpreter.spawn((LoxCallable) arguments.get(0));
+    });
+
+    natives.define("await", false, task -> {
+      if (!(task instanceof LoxTask)) {
+        throw NativeFunction.error("Expect a task.");
+      }
+      return ((LoxTask) task).await();
+    });
+
+    natives.define("sleep", false, ms -> {
+      double millis = number(ms);
+      if (!(millis >= 0) || Double.isInfinite(millis)) {
+        throw NativeFunction.error("Sleep duration must be a non-negative finite number.");
+      }
+      try {
+        Thread.sleep((long) millis);
+      } catch (InterruptedException e) {
+        throw interrupted();
+      }
+      return null;
+    });
+
+    natives.define("parallelMap", 2, false, (interpreter, arguments) -> {
+      LoxArray array = array(arguments.get(0));
+      return interpreter.parallelMap(array, function(arguments.get(1)));
+    });
+  }
+
+  private static void registerChannels(NativeRegistry natives) {
+    natives.define("channel", false, capacity -> {
+      double size = number(capacity);
+      if (size < 1 || size != Math.floor(size) || size > Integer.MAX_VALUE) {
+        throw NativeFunction.error("Capacity must be a positive integer.");
+      }
+      return new LoxChannel((int) size);
+    });
+
+    natives.define("send", false, (channel, value) -> {
+      try {
+        channel(channel).send(value);
+      } catch (InterruptedException e) {
+        throw interrupted();
+      }
+      return null;
+    });
+
+    natives.define("receive", false, channel -> {
+      try {
+        return channel(channel).receive();
+      } catch (InterruptedException e) {
+        throw interrupted();
+      }
+    });
+
+    natives.define("close", false, channel -> {
+      channel(channel).close();
+      return null;
+    });
+  }
+
+  static Object len(Object value) {
+    if (value instanceof LoxArray) {
+      return (long) ((LoxArray) value).size();
+    }
+    if (value instanceof LoxMap) {
+      return (long) ((LoxMap) value).size();
+    }
+    if (Rope.isString(value)) {
+      return (long) Rope.length(value);
+    }
+    throw NativeFunction.error("Can only take the length of arrays, maps and strings.");
+  }
+
+  static Object sqrt(Object x) {
+    return Numbers.of(Math.sqrt(number(x)));
+  }
+
+  static Object floor(Object x) {
+    if (x instanceof Long) {
+      return x;
+    }
+    return Numbers.of(Math.floor(number(x)));
+  }
+
+  static Object abs(Object x) {
+    if (x instanceof Long) {
+      return Numbers.of(Math.abs((long) x));
+    }
+    return Numbers.of(Math.abs(number(x)));
+  }
+
+  static Object min(Object x, Object y) {
+    if (x instanceof Long && y instanceof Long) {
+      return Math.min((long) x, (long) y);
+    }
+    return Numbers.of(Math.min(number(x), number(y)));
+  }
+
+  static Object max(Object x, Object y) {
+    if (x instanceof Long && y instanceof Long) {
+      return Math.max((long) x, (long) y);
+    }
+    return Numbers.of(Math.max(number(x), number(y)));
+  }
+
+  static Object substring(Object string, Object start, Object end) {
+    if (!Rope.isString(string)) {
+      throw NativeFunction.error("Expect a string.");
+    }
+    int length = Rope.length(string);
+    int from = position(start, length);
+    int to = position(end, length);
+    if (from > to) {
+      throw NativeFunction.error("Start of substring is after its end.");
+    }
+    return string.toString().substring(from, to);
+  }
+
+  private static double number(Object value) {
+    if (!Numbers.isNumber(value)) {
+      throw NativeFunction.error("Expect a number.");
+    }
+    return Numbers.toDouble(value);
+  }
+
+  // integer from 0 to length, both included
+  private static int position(Object value, int length) {
+    double number = number(value);
+    if (number != Math.floor(number)) {
+      throw NativeFunction.error("Position must be an integer.");
+    }
+    if (number < 0 || number > length) {
+      throw NativeFunction.error("Position out of bounds.");
+    }
+    return (int) number;
+  }
+
+  private static LoxMap map(Object value) {
+    if (value instanceof LoxMap) {
+      return (LoxMap) value;
+    }
+    throw NativeFunction.error("Expect a map.");
+  }
+
+  private static LoxCallable function(Object value) {
+    if (value instanceof LoxCallable && ((LoxCallable) value).arity() == 1) {
+      return (LoxCallable) value;
+    }
+    throw NativeFunction.error("Expect a function of 1 argument to map with.");
+  }
+
+  private static LoxChannel channel(Object value) {
+    if (value instanceof LoxChannel) {
+      return (LoxChannel) value;
+    }
+    throw NativeFunction.error("Expect a channel.");
+  }
+
+  // the interrupt status is kept for the embedder
+  private static RuntimeError interrupted() {
+    Thread.currentThread().interrupt();
+    return NativeFunction.error("Interrupted.");
+  }
+
+  private static LoxArray array(Object value) {
+    if (value instanceof LoxArray) {
+      return (LoxArray) value;
+    }
+    throw NativeFunction.error("Expect an array.");
+  }
+
+  // numeric arrays are summed straight from their unboxed storage
+  private static double sum(LoxArray array) {
+    double sum = 0;
+    if (array.isNumeric()) {
+      for (int i = 0; i < array.size(); i++) {
+        sum += array.number(i);
+      }
+      return sum;
+    }
+
+    for (int i = 0; i < array.size(); i++) {
+      Object value = array.get(i);
+      if (!Numbers.isNumber(value)) {
+        throw NativeFunction.error("Can only sum numbers.");
+      }
+      sum += Numbers.toDouble(value);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,83 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Lox numbers are doubles, the whole ones within 2^53 of zero are held as Long
+ * <p>
+ * A Long stands for the double of the same value, so operations on Longs give exactly what the
+ * doubles would: while the result is such a whole number it stays a Long, otherwise (a fraction,
+ * -0, beyond 2^53 where doubles round) it is the Double the double operation gives. Counters and
+ * indexes stay integral, whatever the representation Lox code can't tell them apart.
+ */
+final class Numbers {
+
+  // whole numbers up to 2^53 are exact doubles
+  static final long MAX_EXACT = 1L << 53;
+
+  private Numbers() {
+  }
+
+  static boolean isNumber(Object value) {
+    return value instanceof Long || value instanceof Double;
+  }
+
+  static double toDouble(Object number) {
+    return number instanceof Long ? (long) number : (double) number;
+  }
+
+  static Object of(long value) {
+    if (value >= -MAX_EXACT && value <= MAX_EXACT) {
+      return value;
+    }
+    return (double) value;
+  }
+
+  static Object of(double value) {
+    long whole = (long) value;
+    if (whole == value && whole >= -MAX_EXACT && whole <= MAX_EXACT
+        && (whole != 0 || Double.doubleToRawLongBits(value) == 0)) {
+      return whole;
+    }
+    return value;
+  }
+
+  // operands are within MAX_EXACT, sums and differences can't overflow a long
+  static Object add(long left, long right) {
+    return of(left + right);
+  }
+
+  static Object subtract(long left, long right) {
+    return of(left - right);
+  }
+
+  // the double product is exact while it stays within MAX_EXACT, and signs zeros
+  static Object multiply(long left, long right) {
+    return of((double) left * right);
+  }
+
+  // right isn't 0
+  static Object divide(long left, long right) {
+    if (left % right != 0) {
+      return (double) left / right;
+    }
+    if (left == 0 && right < 0) {
+      return -0.0;
+    }
+    return left / right;
+  }
+
+  static Object negate(Object number) {
+    if (number instanceof Long) {
+      long value = (long) number;
+      return value == 0 ? (Object) (-0.0) : (Object) (-value);
+    }
+    return -(double) number;
+  }
+
+  // Double.equals on the double values: NaN equals itself, 0 and -0 differ
+  static boolean equal(Object left, Object right) {
+    if (left instanceof Long && right instanceof Long) {
+      return (long) left == (long) right;
+    }
+    return Double.doubleToLongBits(toDouble(left)) == Double.doubleToLongBits(toDouble(right));
+  }
+}
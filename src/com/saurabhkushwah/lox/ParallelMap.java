@@ -0,0 +1,65 @@
+package com.saurabhkushwah.lox;
+
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * parallelMap(array, fn) on a work stealing ForkJoinPool
+ * <p>
+ * The elements are split in halves down to chunks of about a sixteenth of what a worker gets, each
+ * chunk is mapped by an interpreter of its own. The pool has -Djlox.parallelism threads, the
+ * number of cores by default.
+ * <p>
+ * The function may read anything but must not change what another call uses: assigning a global or
+ * a variable captured from outside the call raises an error, changing a shared array, map or
+ * instance is a race.
+ */
+final class ParallelMap extends RecursiveAction {
+
+  private static final ForkJoinPool POOL = new ForkJoinPool(
+      Integer.getInteger("jlox.parallelism", Runtime.getRuntime().availableProcessors()));
+
+  private final Object[] elements;
+  private final Object[] results;
+  private final int from;
+  private final int to;
+  private final int chunk;
+  private final Supplier<Interpreter> workers;
+  private final LoxCallable function;
+
+  private ParallelMap(Object[] elements, Object[] results, int from, int to, int chunk,
+      Supplier<Interpreter> workers, LoxCallable function) {
+    this.elements = elements;
+    this.results = results;
+    this.from = from;
+    this.to = to;
+    this.chunk = chunk;
+    this.workers = workers;
+    this.function = function;
+  }
+
+  // the first runtime error raised by a call is raised again here
+  static Object[] apply(Object[] elements, Supplier<Interpreter> workers, LoxCallable function) {
+    Object[] results = new Object[elements.length];
+    int chunk = Math.max(1, elements.length / (POOL.getParallelism() * 16));
+    POOL.invoke(new ParallelMap(elements, results, 0, elements.length, chunk, workers, function));
+    return results;
+  }
+
+  @Override
+  protected void compute() {
+    if (to - from <= chunk) {
+      Interpreter interpreter = workers.get();
+      for (int i = from; i < to; i++) {
+        results[i] = function.call(interpreter, Collections.singletonList(elements[i]));
+      }
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+    invokeAll(new ParallelMap(elements, results, from, middle, chunk, workers, function),
+        new ParallelMap(elements, results, middle, to, chunk, workers, function));
+  }
+}
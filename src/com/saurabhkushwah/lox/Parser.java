@@ -4,7 +4,10 @@ import static com.saurabhkushwah.lox.TokenType.AND;
 import static com.saurabhkushwah.lox.TokenType.BANG;
 import static com.saurabhkushwah.lox.TokenType.BANG_EQUAL;
 import static com.saurabhkushwah.lox.TokenType.BREAK;
+import static com.saurabhkushwah.lox.TokenType.CLASS;
+import static com.saurabhkushwah.lox.TokenType.COLON;
 import static com.saurabhkushwah.lox.TokenType.COMMA;
+import static com.saurabhkushwah.lox.TokenType.DOT;
 import static com.saurabhkushwah.lox.TokenType.ELSE;
 import static com.saurabhkushwah.lox.TokenType.EOF;
 import static com.saurabhkushwah.lox.TokenType.EQUAL;
@@ -17,6 +20,7 @@ import static com.saurabhkushwah.lox.TokenType.GREATER_EQUAL;
 import static com.saurabhkushwah.lox.TokenType.IDENTIFIER;
 import static com.saurabhkushwah.lox.TokenType.IF;
 import static com.saurabhkushwah.lox.TokenType.LEFT_BRACE;
+import static com.saurabhkushwah.lox.TokenType.LEFT_BRACKET;
 import static com.saurabhkushwah.lox.TokenType.LEFT_PAREN;
 import static com.saurabhkushwah.lox.TokenType.LESS;
 import static com.saurabhkushwah.lox.TokenType.LESS_EQUAL;
@@ -28,25 +32,31 @@ import static com.saurabhkushwah.lox.TokenType.PLUS;
 import static com.saurabhkushwah.lox.TokenType.PRINT;
 import static com.saurabhkushwah.lox.TokenType.RETURN;
 import static com.saurabhkushwah.lox.TokenType.RIGHT_BRACE;
+import static com.saurabhkushwah.lox.TokenType.RIGHT_BRACKET;
 import static com.saurabhkushwah.lox.TokenType.RIGHT_PAREN;
 import static com.saurabhkushwah.lox.TokenType.SEMICOLON;
 import static com.saurabhkushwah.lox.TokenType.SLASH;
 import static com.saurabhkushwah.lox.TokenType.STAR;
 import static com.saurabhkushwah.lox.TokenType.STRING;
+import static com.saurabhkushwah.lox.TokenType.SUPER;
+import static com.saurabhkushwah.lox.TokenType.THIS;
 import static com.saurabhkushwah.lox.TokenType.TRUE;
 import static com.saurabhkushwah.lox.TokenType.VAR;
 import static com.saurabhkushwah.lox.TokenType.WHILE;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /*
  * program        → declaration* EOF
  * declaration    → varDec
  *                | funDec
+ *                | classDec
  *                | statement
  * varDec         → "var" IDENTIFIER ( "=" expression )? ";" ;
  * funDec         → "fun" function ;
+ * classDec       → "class" IDENTIFIER ( "<" IDENTIFIER )? "{" function* "}" ;
  * function       → IDENTIFIER "(" parameter? ")" block ;
  * parameter      → IDENTIFIER ( "," IDENTIFIER )* ;
  * statement      → exprStmt
@@ -66,7 +76,7 @@ import java.util.List;
  * whileStmt      → "while" "(" expression ")" statement ;
  * block          → "{" declaration* "}" ;
  * expression     → assignment ;
- * assignment     → IDENTIFIER "=" assignment
+ * assignment     → ( IDENTIFIER | call "[" expression "]" | call "." IDENTIFIER ) "=" assignment
  *                | logic_or ;
  * logic_or       → logic_and ( "or" logic_and )*
  * logic_and      → equality ( "and" equality )*
@@ -75,14 +85,21 @@ import java.util.List;
  * term           → factor ( ( "-" | "+" ) factor )* ;
  * factor         → unary ( ( "/" | "*" ) unary )* ;
  * unary          → ( "!" | "-" ) unary
- *                | call
- *                | funExpr ;
- * call           → primary ( "(" argument? ")" )* ;
+ *                | call ;
+ * call           → primary ( "(" argument? ")" | "[" expression "]" | "." IDENTIFIER )* ;
  * argument       → expression ( "," expression )* ;
+ * entry          → expression ":" expression ;
  * funExpr        → "fun" "(" parameter? ")" block ;
- * primary        → NUMBER | STRING | "true" | "false" | "nil"
+ * primary        → NUMBER | STRING | "true" | "false" | "nil" | "this"
+ *                | "super" "." IDENTIFIER
  *                | "(" expression ")"
- *                | IDENTIFIER ;
+ *                | IDENTIFIER
+ *                | "[" argument? "]"
+ *                | "{" ( entry ( "," entry )* )? "}"
+ *                | funExpr ;
+ *
+ * expressions are parsed by a Pratt parser, every level from assignment down to call is an entry
+ * in the precedence table at the bottom of this class instead of a method.
  */
 
 /**
@@ -96,10 +113,12 @@ import java.util.List;
 public class Parser {
 
   private final List<Token> tokens;
+  private final ErrorReporter reporter;
   private int current;
 
-  public Parser(List<Token> tokens) {
+  public Parser(List<Token> tokens, ErrorReporter reporter) {
     this.tokens = tokens;
+    this.reporter = reporter;
   }
 
   public List<Stmt> parse() {
@@ -126,6 +145,10 @@ public class Parser {
         return funDeclaration("function");
       }
 
+      if (match(CLASS)) {
+        return classDeclaration();
+      }
+
       return statement();
     } catch (ParseError error) {
       synchronize();
@@ -133,6 +156,26 @@ public class Parser {
     }
   }
 
+  private Stmt classDeclaration() {
+    Token name = consume(IDENTIFIER, "Expect class name.");
+
+    Expr.Variable superclass = null;
+    if (match(LESS)) {
+      consume(IDENTIFIER, "Expect superclass name.");
+      superclass = new Expr.Variable(previous());
+    }
+
+    consume(LEFT_BRACE, "Expect '{' before class body.");
+
+    List<Stmt.Function> methods = new ArrayList<>();
+    while (!check(RIGHT_BRACE) && !isAtEnd()) {
+      methods.add(funDeclaration("method"));
+    }
+
+    consume(RIGHT_BRACE, "Expect '}' after class body.");
+    return new Stmt.Class(name, superclass, methods);
+  }
+
   private Stmt.Function funDeclaration(String type) {
     Token name = consume(IDENTIFIER, "Expect " + type + " name.");
     consume(LEFT_PAREN, "Expect '(' after " + type + " name.");
@@ -241,23 +284,7 @@ public class Parser {
     }
     consume(RIGHT_PAREN, "Expect ')' after update.");
 
-    Stmt body = statement();
-
-    if (increment != null) {
-      body = new Stmt.Block(List.of(body, new Stmt.Expression(increment)));
-    }
-
-    if (condition == null) {
-      condition = new Expr.Literal(true);
-    }
-
-    body = new Stmt.While(condition, body);
-
-    if (initializer != null) {
-      body = new Stmt.Block(List.of(initializer, body));
-    }
-
-    return body;
+    return new Stmt.For(initializer, condition, increment, statement());
   }
 
   private Stmt whileStatement() {
@@ -309,114 +336,66 @@ public class Parser {
   }
 
   private Expr expression() {
-    return assignment();
+    return parsePrecedence(Precedence.ASSIGNMENT);
   }
 
-  private Expr assignment() {
-    Expr expr = or();
-
-    if (match(EQUAL)) {
-      Token equals = previous();
-      Expr value = assignment();
-
-      if (expr instanceof Expr.Variable) {
-        Token name = ((Expr.Variable) expr).name;
-        return new Expr.Assign(name, value);
-      }
-
-      error(equals, "Invalid assignment target.");
+  /**
+   * Pratt parser: parses a prefix expression then keeps folding infix operators into it for as
+   * long as they bind at least as tightly as precedence
+   */
+  private Expr parsePrecedence(Precedence precedence) {
+    PrefixRule prefix = PREFIX_RULES[peek().type.ordinal()];
+    if (prefix == null) {
+      throw error(peek(), "Expect expression");
     }
 
-    return expr;
-  }
-
-  private Expr or() {
-    Expr expr = and();
+    Expr expr = prefix.parse(this, advance());
 
-    while (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
+    while (precedence.compareTo(PRECEDENCES[peek().type.ordinal()]) <= 0) {
+      Token operator = advance();
+      expr = INFIX_RULES[operator.type.ordinal()].parse(this, expr, operator);
     }
 
     return expr;
   }
 
-  private Expr and() {
-    Expr expr = equality();
+  private Expr assignment(Expr target, Token equals) {
+    // right associative, a = b = c
+    Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-    while (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
+    if (target instanceof Expr.Variable) {
+      Token name = ((Expr.Variable) target).name;
+      return new Expr.Assign(name, value);
     }
-
-    return expr;
-  }
-
-  private Expr equality() {
-    Expr expr = comparison();
-
-    while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
+    if (target instanceof Expr.Index) {
+      Expr.Index index = (Expr.Index) target;
+      return new Expr.IndexAssign(index.object, index.bracket, index.index, value);
     }
-
-    return expr;
-  }
-
-  private Expr comparison() {
-    Expr expr = term();
-
-    while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = term();
-      expr = new Expr.Binary(expr, operator, right);
+    if (target instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get) target;
+      return new Expr.Set(get.object, get.name, value);
     }
 
-    return expr;
+    error(equals, "Invalid assignment target.");
+    return target;
   }
 
-  private Expr term() {
-    Expr expr = factor();
-
-    while (match(PLUS, MINUS)) {
-      Token operator = previous();
-      Expr right = factor();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
+  private Expr logical(Expr left, Token operator) {
+    Expr right = parsePrecedence(PRECEDENCES[operator.type.ordinal()].next());
+    return new Expr.Logical(left, operator, right);
   }
 
-  private Expr factor() {
-    Expr expr = unary();
-
-    while (match(STAR, SLASH)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
+  private Expr binary(Expr left, Token operator) {
+    Expr right = parsePrecedence(PRECEDENCES[operator.type.ordinal()].next());
+    return new Expr.Binary(left, operator, right);
   }
 
-  private Expr unary() {
-    if (match(BANG, MINUS)) {
-      Token operator = previous();
-      Expr right = unary();
-      return new Expr.Unary(operator, right);
-    }
-
-    if (match(FUN)) {
-      return funExpression();
-    }
-
-    return call();
+  private Expr unary(Token operator) {
+    Expr right = parsePrecedence(Precedence.UNARY);
+    return new Expr.Unary(operator, right);
   }
 
-  private Expr funExpression() {
+  private Expr funExpression(Token keyword) {
     consume(LEFT_PAREN, "Expect '(' after fun keyword.");
 
     List<Token> parameters = new ArrayList<>();
@@ -436,21 +415,7 @@ public class Parser {
     return new Expr.Function(parameters, body);
   }
 
-  private Expr call() {
-    Expr expr = primary();
-
-    while (true) {
-      if (match(LEFT_PAREN)) {
-        expr = finishCall(expr);
-      } else {
-        break;
-      }
-    }
-
-    return expr;
-  }
-
-  private Expr finishCall(Expr expr) {
+  private Expr finishCall(Expr expr, Token leftParen) {
     List<Expr> arguments = new ArrayList<>();
 
     if (!check(RIGHT_PAREN)) {
@@ -466,34 +431,80 @@ public class Parser {
     return new Expr.Call(expr, paren, arguments);
   }
 
-  private Expr primary() {
-    if (match(TRUE)) {
-      return new Expr.Literal(true);
-    }
+  private Expr index(Expr object, Token leftBracket) {
+    Expr index = expression();
+    Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+    return new Expr.Index(object, bracket, index);
+  }
 
-    if (match(FALSE)) {
-      return new Expr.Literal(false);
-    }
+  private Expr property(Expr object, Token dot) {
+    Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+    return new Expr.Get(object, name);
+  }
 
-    if (match(NIL)) {
-      return new Expr.Literal(null);
-    }
+  private Expr thisExpression(Token keyword) {
+    return new Expr.This(keyword);
+  }
 
-    if (match(IDENTIFIER)) {
-      return new Expr.Variable(previous());
-    }
+  // the receiver is read like this, it is the same instance
+  private Expr superExpression(Token keyword) {
+    consume(DOT, "Expect '.' after 'super'.");
+    Token method = consume(IDENTIFIER, "Expect superclass method name.");
+    return new Expr.Super(keyword, method,
+        new Expr.This(new Token(THIS, "this", null, keyword.line)));
+  }
+
+  private Expr array(Token leftBracket) {
+    List<Expr> elements = new ArrayList<>();
 
-    if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
+    if (!check(RIGHT_BRACKET)) {
+      do {
+        elements.add(expression());
+      } while (match(COMMA));
     }
 
-    if (match(LEFT_PAREN)) {
-      Expr expr = expression();
-      consume(RIGHT_PAREN, "Expect ')' after expression.");
-      return new Expr.Grouping(expr);
+    consume(RIGHT_BRACKET, "Expect ']' after array elements.");
+    return new Expr.Array(leftBracket, elements);
+  }
+
+  // a brace only starts a map where an expression is expected, statements take it as a block
+  private Expr map(Token leftBrace) {
+    List<Expr> keys = new ArrayList<>();
+    List<Expr> values = new ArrayList<>();
+
+    if (!check(RIGHT_BRACE)) {
+      do {
+        keys.add(expression());
+        consume(COLON, "Expect ':' after map key.");
+        values.add(expression());
+      } while (match(COMMA));
     }
 
-    throw error(peek(), "Expect expression");
+    consume(RIGHT_BRACE, "Expect '}' after map entries.");
+    return new Expr.Map(leftBrace, keys, values);
+  }
+
+  private Expr grouping(Token leftParen) {
+    Expr expr = expression();
+    consume(RIGHT_PAREN, "Expect ')' after expression.");
+    return new Expr.Grouping(expr);
+  }
+
+  private Expr variable(Token name) {
+    return new Expr.Variable(name);
+  }
+
+  private Expr literal(Token token) {
+    switch (token.type) {
+      case TRUE:
+        return new Expr.Literal(true);
+      case FALSE:
+        return new Expr.Literal(false);
+      case NIL:
+        return new Expr.Literal(null);
+      default:
+        return new Expr.Literal(token.literal);
+    }
   }
 
   private Token consume(TokenType type, String message) {
@@ -505,7 +516,7 @@ public class Parser {
   }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    reporter.error(token, message);
     return new ParseError();
   }
 
@@ -542,12 +553,10 @@ public class Parser {
     }
   }
 
-  private boolean match(TokenType... types) {
-    for (TokenType type : types) {
-      if (check(type)) {
-        advance();
-        return true;
-      }
+  private boolean match(TokenType type) {
+    if (check(type)) {
+      advance();
+      return true;
     }
     return false;
   }
@@ -581,4 +590,84 @@ public class Parser {
   private static class ParseError extends RuntimeException {
 
   }
+
+  // binding power of infix operators, lowest first
+  private enum Precedence {
+    NONE,
+    ASSIGNMENT, // =
+    OR,         // or
+    AND,        // and
+    EQUALITY,   // == !=
+    COMPARISON, // < > <= >=
+    TERM,       // + -
+    FACTOR,     // * /
+    UNARY,      // ! -
+    CALL;       // () [] .
+
+    private static final Precedence[] values = values();
+
+    Precedence next() {
+      return values[ordinal() + 1];
+    }
+  }
+
+  private interface PrefixRule {
+
+    Expr parse(Parser parser, Token token);
+  }
+
+  private interface InfixRule {
+
+    Expr parse(Parser parser, Expr left, Token operator);
+  }
+
+  // parse rules indexed by TokenType ordinal
+  private static final PrefixRule[] PREFIX_RULES = new PrefixRule[TokenType.values().length];
+  private static final InfixRule[] INFIX_RULES = new InfixRule[TokenType.values().length];
+  private static final Precedence[] PRECEDENCES = new Precedence[TokenType.values().length];
+
+  static {
+    Arrays.fill(PRECEDENCES, Precedence.NONE);
+
+    prefix(LEFT_PAREN, Parser::grouping);
+    prefix(BANG, Parser::unary);
+    prefix(MINUS, Parser::unary);
+    prefix(FUN, Parser::funExpression);
+    prefix(LEFT_BRACKET, Parser::array);
+    prefix(LEFT_BRACE, Parser::map);
+    prefix(IDENTIFIER, Parser::variable);
+    prefix(THIS, Parser::thisExpression);
+    prefix(SUPER, Parser::superExpression);
+    prefix(NUMBER, Parser::literal);
+    prefix(STRING, Parser::literal);
+    prefix(TRUE, Parser::literal);
+    prefix(FALSE, Parser::literal);
+    prefix(NIL, Parser::literal);
+
+    infix(EQUAL, Precedence.ASSIGNMENT, Parser::assignment);
+    infix(OR, Precedence.OR, Parser::logical);
+    infix(AND, Precedence.AND, Parser::logical);
+    infix(BANG_EQUAL, Precedence.EQUALITY, Parser::binary);
+    infix(EQUAL_EQUAL, Precedence.EQUALITY, Parser::binary);
+    infix(GREATER, Precedence.COMPARISON, Parser::binary);
+    infix(GREATER_EQUAL, Precedence.COMPARISON, Parser::binary);
+    infix(LESS, Precedence.COMPARISON, Parser::binary);
+    infix(LESS_EQUAL, Precedence.COMPARISON, Parser::binary);
+    infix(PLUS, Precedence.TERM, Parser::binary);
+    infix(MINUS, Precedence.TERM, Parser::binary);
+    infix(STAR, Precedence.FACTOR, Parser::binary);
+    infix(SLASH, Precedence.FACTOR, Parser::binary);
+    infix(LEFT_PAREN, Precedence.CALL, Parser::finishCall);
+    infix(LEFT_BRACKET, Precedence.CALL, Parser::index);
+    infix(DOT, Precedence.CALL, Parser::property);
+  }
+
+  private static void prefix(TokenType type, PrefixRule rule) {
+    PREFIX_RULES[type.ordinal()] = rule;
+  }
+
+  private static void infix(TokenType type, Precedence precedence, InfixRule rule) {
+    INFIX_RULES[type.ordinal()] = rule;
+    PRECEDENCES[type.ordinal()] = precedence;
+  }
 }
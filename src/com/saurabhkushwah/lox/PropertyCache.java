@@ -0,0 +1,101 @@
+package com.saurabhkushwah.lox;
+
+import java.util.Arrays;
+
+/**
+ * Inline cache of a Get or Set node, what the property resolved to on the shapes the node has seen
+ * <p>
+ * A hit costs a shape comparison per entry, then the interpreter loads the field or calls the
+ * method right away. Up to LIMIT shapes are remembered, a node seeing more of them is megamorphic
+ * and looks the property up in the shape every time instead of churning its entries.
+ * <p>
+ * Contexts running the same program have shapes of their own that never match each other's. A
+ * shape of another context replaces the entries of the others, so a program run in context after
+ * context keeps hitting and doesn't hold on to the shapes of the contexts it ran in before. Entries
+ * are immutable and the array is replaced as a whole, so contexts running at the same time on
+ * other threads at worst lose entries to each other.
+ */
+final class PropertyCache {
+
+  static final int LIMIT = 4;
+
+  private static final Entry[] EMPTY = new Entry[0];
+
+  /**
+   * Field index on instances of shape, or the method they get (index -1). next is the shape an
+   * assignment moves the instance to when it adds the field, null otherwise
+   */
+  static final class Entry {
+
+    final Shape shape;
+    final int index;
+    final LoxFunction method;
+    final Shape next;
+
+    private Entry(Shape shape, int index, LoxFunction method, Shape next) {
+      this.shape = shape;
+      this.index = index;
+      this.method = method;
+      this.next = next;
+    }
+  }
+
+  private volatile Entry[] entries = EMPTY;
+
+  // fields shadow methods, null when instances of shape have neither
+  Entry get(Shape shape, String name) {
+    for (Entry entry : entries) {
+      if (entry.shape == shape) {
+        return entry;
+      }
+    }
+
+    int index = shape.indexOf(name);
+    if (index >= 0) {
+      return remember(new Entry(shape, index, null, null));
+    }
+
+    LoxFunction method = shape.klass.findMethod(name);
+    return method == null ? null : remember(new Entry(shape, -1, method, null));
+  }
+
+  Entry set(Shape shape, String name) {
+    for (Entry entry : entries) {
+      if (entry.shape == shape) {
+        return entry;
+      }
+    }
+
+    int index = shape.indexOf(name);
+    if (index >= 0) {
+      return remember(new Entry(shape, index, null, null));
+    }
+    return remember(new Entry(shape, shape.size, null, shape.with(name)));
+  }
+
+  private Entry remember(Entry entry) {
+    Entry[] entries = this.entries;
+    if (entries.length == LIMIT) {
+      entries = ofContext(entries, entry.shape.klass.context);
+      if (entries.length == LIMIT) {
+        return entry;
+      }
+    }
+
+    Entry[] grown = Arrays.copyOf(entries, entries.length + 1);
+    grown[entries.length] = entry;
+    this.entries = grown;
+    return entry;
+  }
+
+  private static Entry[] ofContext(Entry[] entries, Environment context) {
+    int count = 0;
+    Entry[] kept = new Entry[entries.length];
+    for (Entry entry : entries) {
+      if (entry.shape.klass.context == context) {
+        kept[count++] = entry;
+      }
+    }
+    return count == entries.length ? entries : Arrays.copyOf(kept, count);
+  }
+}
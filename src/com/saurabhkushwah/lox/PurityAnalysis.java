@@ -0,0 +1,267 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.Expr.Assign;
+import com.saurabhkushwah.lox.Expr.Call;
+import com.saurabhkushwah.lox.Expr.Variable;
+import com.saurabhkushwah.lox.Stmt.Function;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the functions whose result only depends on their arguments, so that it can be memoized
+ * <p>
+ * A function is pure when its body only reads and assigns its parameters and its own locals, and
+ * only calls, or refers to, pure functions by a name that is never assigned (and declared once when
+ * it is a global) or natives registered as pure that the script leaves alone. It prints nothing,
+ * declares no closures, touches no array, map or instance (their contents change, a memoized one
+ * would be shared) and doesn't break out of its caller's loop. Pure functions are assumed to be
+ * pure until one of the functions they call turns out not to be, so recursion doesn't get in the
+ * way.
+ * <p>
+ * Only pure functions that call something or loop are memoized, looking the arguments up costs
+ * more than a straight line of arithmetic.
+ */
+class PurityAnalysis {
+
+  private final Resolver resolver;
+  private final Interpreter interpreter;
+
+  // candidates by global name or by declaring token of a local function
+  private final Map<String, Function> globalFunctions = new HashMap<>();
+  private final Map<Token, Function> localFunctions = new HashMap<>();
+
+  PurityAnalysis(Resolver resolver, Interpreter interpreter) {
+    this.resolver = resolver;
+    this.interpreter = interpreter;
+  }
+
+  // global bound to a pure native that the code never declares nor assigns
+  static boolean isPureNative(Expr expr, Resolver resolver, Interpreter interpreter) {
+    if (!(expr instanceof Variable) || resolver.declarationOf(expr) != null) {
+      return false;
+    }
+    String name = ((Variable) expr).name.lexeme;
+    return !resolver.isWrittenGlobal(name) && interpreter.isPureNative(name);
+  }
+
+  Set<Function> memoizable(List<Stmt> statements) {
+    new FunctionCollector().collect(statements);
+
+    Map<Function, BodyCheck> checks = new HashMap<>();
+    List<Function> functions = new ArrayList<>(globalFunctions.values());
+    functions.addAll(localFunctions.values());
+    for (Function function : functions) {
+      BodyCheck check = new BodyCheck(function);
+      check.transform(function.body);
+      if (check.pure) {
+        checks.put(function, check);
+      }
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = checks.values().removeIf(check -> !checks.keySet().containsAll(check.callees));
+    }
+
+    Set<Function> memoizable = new HashSet<>();
+    checks.forEach((function, check) -> {
+      if (check.worthMemoizing) {
+        memoizable.add(function);
+      }
+    });
+    return memoizable;
+  }
+
+  private class FunctionCollector extends AstTransformer {
+
+    void collect(List<Stmt> statements) {
+      for (Stmt stmt : statements) {
+        if (stmt instanceof Function) {
+          Function function = (Function) stmt;
+          if (!resolver.isReassignedGlobal(function.name.lexeme)) {
+            globalFunctions.put(function.name.lexeme, function);
+          }
+          transform(function.body);
+        } else {
+          transform(stmt);
+        }
+      }
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+      if (!resolver.isReassigned(stmt.name)) {
+        localFunctions.put(stmt.name, stmt);
+      }
+      return super.visitFunctionStmt(stmt);
+    }
+
+    // methods depend on their instance, only the functions they declare are candidates
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+      for (Function method : stmt.methods) {
+        transform(method.body);
+      }
+      return stmt;
+    }
+  }
+
+  private class BodyCheck extends AstTransformer {
+
+    private final Set<Token> locals = new HashSet<>();
+    private final Set<Function> callees = new HashSet<>();
+    private boolean pure = true;
+    private boolean worthMemoizing;
+    private int loops;
+
+    BodyCheck(Function function) {
+      locals.addAll(function.parameters);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+      Token declaration = resolver.declarationOf(expr);
+      if (declaration == null || !locals.contains(declaration)) {
+        Function function = declaration == null
+            ? globalFunctions.get(expr.name.lexeme) : localFunctions.get(declaration);
+        if (function == null) {
+          pure = isPureNative(expr, resolver, interpreter) && pure;
+        } else {
+          callees.add(function);
+        }
+      }
+      return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+      if (!locals.contains(resolver.declarationOf(expr))) {
+        pure = false;
+      }
+      return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+      worthMemoizing = true;
+      return super.visitCallExpr(expr);
+    }
+
+    // the inlined body belongs to the callee, which has to be pure anyway
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+      worthMemoizing = true;
+      transform(expr.call);
+      transformExpressions(expr.arguments);
+      return expr;
+    }
+
+    @Override
+    public Expr visitFunctionExpr(Expr.Function expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+      pure = false;
+      return stmt;
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitIndexAssignExpr(Expr.IndexAssign expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitMapExpr(Expr.Map expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+      pure = false;
+      return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+      pure = false;
+      return stmt;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+      if (loops == 0) {
+        pure = false;
+      }
+      return stmt;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+      locals.add(stmt.name);
+      return super.visitVarStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+      worthMemoizing = true;
+      loops++;
+      super.visitWhileStmt(stmt);
+      loops--;
+      return stmt;
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+      worthMemoizing = true;
+      loops++;
+      super.visitForStmt(stmt);
+      loops--;
+      return stmt;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.saurabhkushwah.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything the interpreter needs to know about where variables live
+ * <p>
+ * references: slot of every local Variable and Assign, globals are absent
+ * definitions: slot of every local Var, Function and Class statement
+ * superclasses: slot of the super variable of every class that has a superclass
+ * layouts: frame of every Stmt.Function (methods included), Expr.Function and Expr.Inline
+ * tailCalls: returns of a call, which the interpreter runs in the returning function's frame
+ * memoized: pure functions whose results can be memoized
+ * concurrent: the code may start tasks, or was compiled for globals other threads assign
+ * script: frame holding the locals of the top level blocks
+ */
+public class Resolution {
+
+  final Map<Expr, Slot> references = new HashMap<>();
+  final Map<Stmt, Slot> definitions = new HashMap<>();
+  final Map<Stmt.Class, Slot> superclasses = new HashMap<>();
+  final Map<Object, FrameLayout> layouts = new HashMap<>();
+  final Set<Stmt.Return> tailCalls = new HashSet<>();
+  final Set<Stmt.Function> memoized = new HashSet<>();
+  FrameLayout script = FrameLayout.EMPTY;
+  boolean concurrent;
+
+  // nothing resolved to a slot, a script of globals only
+  boolean isEmpty() {
+    return references.isEmpty() && definitions.isEmpty() && layouts.isEmpty();
+  }
+
+  // the REPL resolves line by line, closures of earlier lines keep their entries
+  void addAll(Resolution resolution) {
+    references.putAll(resolution.references);
+    definitions.putAll(resolution.definitions);
+    superclasses.putAll(resolution.superclasses);
+    layouts.putAll(resolution.layouts);
+    tailCalls.addAll(resolution.tailCalls);
+    memoized.addAll(resolution.memoized);
+    concurrent |= resolution.concurrent;
+    script = resolution.script;
+  }
+}
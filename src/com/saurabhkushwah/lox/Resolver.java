@@ -15,27 +15,122 @@ import com.saurabhkushwah.lox.Stmt.If;
 import com.saurabhkushwah.lox.Stmt.Print;
 import com.saurabhkushwah.lox.Stmt.Var;
 import com.saurabhkushwah.lox.Stmt.While;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   private enum FunctionType {
     FUNCTION,
+    METHOD,
+    INITIALIZER,
     NONE
   }
 
-  private final Interpreter interpreter;
+  private enum ClassType {
+    CLASS,
+    SUBCLASS,
+    NONE
+  }
+
+  private final ErrorReporter reporter;
+
+  private Stack<HashMap<String, Local>> scopes = new Stack<>();
+
+  // function whose body is being resolved, the script itself owns the top level blocks
+  private final FunctionScope script = new FunctionScope(null);
+  private FunctionScope function = script;
+
+  // where the interpreter finds variables, finished in resolution() once captures are all known
+  private final Map<Expr, Reference> references = new HashMap<>();
+  private final Map<Stmt, Local> definitions = new HashMap<>();
+  private final Map<Stmt.Class, Local> superclasses = new HashMap<>();
+  private final Map<Object, FunctionScope> functions = new HashMap<>();
+  private final Set<Stmt.Return> tailCalls = new HashSet<>();
+  private Resolution resolution;
 
-  // String, Boolean -> token, isDefined
-  private final Stack<HashMap<String, Boolean>> scopes = new Stack<>();
+  // binding facts consumed by optimization passes, declarations are keyed by their name token
+  private final Map<Expr, Token> declarations = new HashMap<>();
+  private final Set<Token> reassigned = new HashSet<>();
+  private final Map<Token, Integer> reads = new HashMap<>();
+  private final Set<String> reassignedGlobals = new HashSet<>();
+  private final Set<String> globals = new HashSet<>();
+  private final Set<Token> captured = new HashSet<>();
+  private boolean concurrent;
 
   private FunctionType currentFunction = FunctionType.NONE;
+  private ClassType currentClass = ClassType.NONE;
+
+  public Resolver(ErrorReporter reporter) {
+    this(reporter, false);
+  }
+
+  // concurrent when tasks already run or may be started by code resolved before
+  Resolver(ErrorReporter reporter, boolean concurrent) {
+    this.reporter = reporter;
+    this.concurrent = concurrent;
+  }
+
+  public Resolution resolution() {
+    if (resolution != null) {
+      return resolution;
+    }
+
+    resolution = new Resolution();
+    references.forEach((expr, reference) -> resolution.references.put(expr, reference.slot()));
+    definitions.forEach((stmt, local) -> resolution.definitions.put(stmt, local.slot()));
+    superclasses.forEach((stmt, local) -> resolution.superclasses.put(stmt, local.slot()));
+    functions.forEach((node, scope) -> resolution.layouts.put(node, scope.layout()));
+    resolution.script = script.layout();
+    resolution.tailCalls.addAll(tailCalls);
+    resolution.concurrent = concurrent;
+    return resolution;
+  }
+
+  // declaring name token of a local Variable or Assign, null for globals
+  Token declarationOf(Expr expr) {
+    return declarations.get(expr);
+  }
+
+  boolean isReassigned(Token declaration) {
+    return reassigned.contains(declaration);
+  }
+
+  // name token of a local variable, function or parameter declaration
+  boolean isLocal(Token declaration) {
+    return reads.containsKey(declaration);
+  }
+
+  // local variable or function that no Variable expression refers to
+  boolean isUnread(Token declaration) {
+    Integer count = reads.get(declaration);
+    return count != null && count == 0;
+  }
+
+  // some closure refers to the local, it may change whenever a function is called
+  boolean isCaptured(Token declaration) {
+    return captured.contains(declaration);
+  }
 
-  public Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
+  // assigned anywhere or declared more than once at top level
+  boolean isReassignedGlobal(String name) {
+    return reassignedGlobals.contains(name);
+  }
+
+  // refers to spawn or parallelMap, or was created concurrent, so another thread may assign any
+  // global at any time
+  boolean isConcurrent() {
+    return concurrent;
+  }
+
+  // declared or assigned anywhere, a global the code leaves alone keeps what the engine defined
+  boolean isWrittenGlobal(String name) {
+    return globals.contains(name) || reassignedGlobals.contains(name);
   }
 
   @Override
@@ -46,29 +141,52 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   @Override
   public Void visitVariableExpr(Variable expr) {
     // case var a = a;
-    if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-      Lox.error(expr.name, "Can't read local variable in its own initializer.");
+    if (!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme)
+        && !scopes.peek().get(expr.name.lexeme).defined) {
+      reporter.error(expr.name, "Can't read local variable in its own initializer.");
     }
 
-    resolveLocal(expr, expr.name);
+    read(resolveLocal(expr, expr.name));
     return null;
   }
 
-  private void resolveLocal(Expr expr, Token name) {
+  private void read(Local local) {
+    if (local != null) {
+      reads.merge(local.name, 1, Integer::sum);
+    }
+  }
+
+  private Local resolveLocal(Expr expr, Token name) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
-        return;
+      Local local = scopes.get(i).get(name.lexeme);
+      if (local != null) {
+        if (local.function == function) {
+          references.put(expr, new Reference(local, -1));
+        } else {
+          references.put(expr, new Reference(local, function.capture(local)));
+          captured.add(local.name);
+        }
+        declarations.put(expr, local.name);
+        return local;
       }
     }
 
-    // global variable, do nothing
+    // global variable, nothing to resolve
+    if (name.lexeme.equals("spawn") || name.lexeme.equals("parallelMap")) {
+      concurrent = true;
+    }
+    return null;
   }
 
   @Override
   public Object visitAssignExpr(Assign expr) {
     resolve(expr.value);
-    resolveLocal(expr, expr.name);
+    Local local = resolveLocal(expr, expr.name);
+    if (local != null) {
+      reassigned.add(local.name);
+    } else {
+      reassignedGlobals.add(expr.name.lexeme);
+    }
     return null;
   }
 
@@ -109,6 +227,146 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitFunctionExpr(Function expr) {
+    resolveFunction(expr, expr.parameters, expr.body, FunctionType.FUNCTION);
+    return null;
+  }
+
+  @Override
+  public Object visitInlineExpr(Expr.Inline expr) {
+    resolve(expr.call);
+    for (Expr argument : expr.arguments) {
+      resolve(argument);
+    }
+
+    // the body only sees its bound parameters and globals, whatever the call site has in scope
+    Stack<HashMap<String, Local>> enclosingScopes = scopes;
+    FunctionScope enclosingFunction = function;
+    scopes = new Stack<>();
+    function = new FunctionScope(null);
+    functions.put(expr, function);
+
+    beginScope();
+    for (Token parameter : expr.parameters) {
+      function.parameters.add(declare(parameter));
+      define(parameter);
+    }
+    resolve(expr.body);
+    endScope();
+
+    scopes = enclosingScopes;
+    function = enclosingFunction;
+    return null;
+  }
+
+  @Override
+  public Object visitSpeculateExpr(Expr.Speculate expr) {
+    resolve(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Object visitInvariantExpr(Expr.Invariant expr) {
+    resolveLocal(expr, expr.name);
+    resolve(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Object visitArithmeticExpr(Expr.Arithmetic expr) {
+    resolve(expr.left);
+    resolve(expr.right);
+    return null;
+  }
+
+  @Override
+  public Object visitNegateExpr(Expr.Negate expr) {
+    resolve(expr.right);
+    return null;
+  }
+
+  @Override
+  public Object visitConcatExpr(Expr.Concat expr) {
+    for (Expr operand : expr.operands) {
+      resolve(operand);
+    }
+    return null;
+  }
+
+  @Override
+  public Object visitArrayExpr(Expr.Array expr) {
+    for (Expr element : expr.elements) {
+      resolve(element);
+    }
+    return null;
+  }
+
+  @Override
+  public Object visitIndexExpr(Expr.Index expr) {
+    resolve(expr.object);
+    resolve(expr.index);
+    return null;
+  }
+
+  @Override
+  public Object visitIndexAssignExpr(Expr.IndexAssign expr) {
+    resolve(expr.object);
+    resolve(expr.index);
+    resolve(expr.value);
+    return null;
+  }
+
+  @Override
+  public Object visitMapExpr(Expr.Map expr) {
+    for (int i = 0; i < expr.keys.size(); i++) {
+      resolve(expr.keys.get(i));
+      resolve(expr.values.get(i));
+    }
+    return null;
+  }
+
+  @Override
+  public Object visitGetExpr(Expr.Get expr) {
+    resolve(expr.object);
+    return null;
+  }
+
+  @Override
+  public Object visitSetExpr(Expr.Set expr) {
+    resolve(expr.object);
+    resolve(expr.value);
+    return null;
+  }
+
+  @Override
+  public Object visitThisExpr(Expr.This expr) {
+    if (currentClass == ClassType.NONE) {
+      reporter.error(expr.keyword, "Can't use 'this' outside of a class.");
+      return null;
+    }
+
+    read(resolveLocal(expr, expr.keyword));
+    return null;
+  }
+
+  @Override
+  public Object visitSuperExpr(Expr.Super expr) {
+    if (currentClass == ClassType.NONE) {
+      reporter.error(expr.keyword, "Can't use 'super' outside of a class.");
+      return null;
+    }
+    if (currentClass != ClassType.SUBCLASS) {
+      reporter.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+      return null;
+    }
+
+    read(resolveLocal(expr, expr.keyword));
+    resolve(expr.receiver);
+    return null;
+  }
+
+  @Override
+  public Object visitIntrinsicExpr(Expr.Intrinsic expr) {
+    resolve(expr.call);
     return null;
   }
 
@@ -124,10 +382,42 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitFunctionStmt(Stmt.Function stmt) {
-    declare(stmt.name);
-    define(stmt.name);
+    define(stmt, declare(stmt.name));
 
-    resolveFunction(stmt, FunctionType.FUNCTION);
+    resolveFunction(stmt, stmt.parameters, stmt.body, FunctionType.FUNCTION);
+    return null;
+  }
+
+  // methods see super as a variable of a scope around them, set to the superclass
+  @Override
+  public Object visitClassStmt(Stmt.Class stmt) {
+    ClassType enclosingClass = currentClass;
+    currentClass = ClassType.CLASS;
+    define(stmt, declare(stmt.name));
+
+    if (stmt.superclass != null) {
+      if (stmt.superclass.name.lexeme.equals(stmt.name.lexeme)) {
+        reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
+      }
+      currentClass = ClassType.SUBCLASS;
+      resolve(stmt.superclass);
+
+      beginScope();
+      Local local = declare(new Token(TokenType.SUPER, "super", null, stmt.name.line));
+      local.defined = true;
+      superclasses.put(stmt, local);
+    }
+
+    for (Stmt.Function method : stmt.methods) {
+      FunctionType type = method.name.lexeme.equals("init")
+          ? FunctionType.INITIALIZER : FunctionType.METHOD;
+      resolveFunction(method, method.parameters, method.body, type);
+    }
+
+    if (stmt.superclass != null) {
+      endScope();
+    }
+    currentClass = enclosingClass;
     return null;
   }
 
@@ -159,14 +449,40 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     return null;
   }
 
+  // the initializer's variable is scoped to the loop and shared by all iterations
+  @Override
+  public Object visitForStmt(Stmt.For stmt) {
+    beginScope();
+    if (stmt.initializer != null) {
+      resolve(stmt.initializer);
+    }
+    if (stmt.condition != null) {
+      resolve(stmt.condition);
+    }
+    resolve(stmt.body);
+    if (stmt.increment != null) {
+      resolve(stmt.increment);
+    }
+    endScope();
+    return null;
+  }
+
   @Override
   public Object visitReturnStmt(Stmt.Return stmt) {
     if(currentFunction == FunctionType.NONE){
-      Lox.error(stmt.keyword, "Can't return from top-level code");
+      reporter.error(stmt.keyword, "Can't return from top-level code");
     }
 
     if (stmt.value != null) {
+      if (currentFunction == FunctionType.INITIALIZER) {
+        reporter.error(stmt.keyword, "Can't return a value from an initializer.");
+      }
+
       resolve(stmt.value);
+      if (stmt.value instanceof Call && (currentFunction == FunctionType.FUNCTION
+          || currentFunction == FunctionType.METHOD)) {
+        tailCalls.add(stmt);
+      }
     }
 
     return null;
@@ -174,11 +490,11 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitVarStmt(Var stmt) {
-    declare(stmt.name);
+    Local local = declare(stmt.name);
     if (stmt.initializer != null) {
       resolve(stmt.initializer);
     }
-    define(stmt.name);
+    define(stmt, local);
     return null;
   }
 
@@ -190,18 +506,33 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     return null;
   }
 
-  private void declare(Token name) {
+  // returns null for globals
+  private Local declare(Token name) {
     if (scopes.isEmpty()) {
-      return;
+      if (!globals.add(name.lexeme)) {
+        reassignedGlobals.add(name.lexeme);
+      }
+      return null;
     }
 
-    Map<String, Boolean> scope = scopes.peek();
+    Map<String, Local> scope = scopes.peek();
 
     if (scope.containsKey(name.lexeme)) {
-      Lox.error(name, "Already variable with the same name in this scope.");
+      reporter.error(name, "Already variable with the same name in this scope.");
     }
 
-    scope.put(name.lexeme, false);
+    Local local = new Local(name, function, function.allocate());
+    scope.put(name.lexeme, local);
+    // parameters are declared again by every call site they are inlined at
+    reads.putIfAbsent(name, 0);
+    return local;
+  }
+
+  private void define(Stmt stmt, Local local) {
+    if (local != null) {
+      local.defined = true;
+      definitions.put(stmt, local);
+    }
   }
 
   private void define(Token name) {
@@ -210,21 +541,33 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
       return;
     }
 
-    Map<String, Boolean> scope = this.scopes.peek();
-    scope.put(name.lexeme, true);
+    Map<String, Local> scope = this.scopes.peek();
+    scope.get(name.lexeme).defined = true;
   }
 
-  private void resolveFunction(Stmt.Function stmt, FunctionType functionType) {
-    FunctionType enclosingType = functionType;
-    currentFunction = functionType;
+  // a method's instance is its first parameter, named this
+  private void resolveFunction(Object node, List<Token> parameters, List<Stmt> body,
+      FunctionType type) {
+    FunctionType enclosingType = currentFunction;
+    currentFunction = type;
+    function = new FunctionScope(function);
+    functions.put(node, function);
 
     beginScope();
-    for (Token param : stmt.parameters) {
-      declare(param);
+    if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+      Token receiver = new Token(TokenType.THIS, "this", null, ((Stmt.Function) node).name.line);
+      function.parameters.add(declare(receiver));
+      define(receiver);
+    }
+    for (Token param : parameters) {
+      function.parameters.add(declare(param));
       define(param);
     }
-    resolve(stmt.body);
+    resolve(body);
     endScope();
+
+    function = function.enclosing;
+    currentFunction = enclosingType;
   }
 
   private void beginScope() {
@@ -237,12 +580,98 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     }
   }
 
+  // slots of a finished block are reused by the next one
   private void endScope() {
-    scopes.pop();
+    function.slots -= scopes.pop().size();
   }
 
   private void resolve(Stmt stmt) {
     stmt.accept(this);
   }
 
+  private static class Local {
+
+    final Token name;
+    final FunctionScope function;
+    final int slot;
+    boolean defined;
+    boolean captured;
+
+    Local(Token name, FunctionScope function, int slot) {
+      this.name = name;
+      this.function = function;
+      this.slot = slot;
+    }
+
+    Slot slot() {
+      return new Slot(captured ? Slot.Kind.CELL : Slot.Kind.LOCAL, slot);
+    }
+  }
+
+  // variable reference, upvalue is -1 when the variable belongs to the referring function
+  private static class Reference {
+
+    final Local local;
+    final int upvalue;
+
+    Reference(Local local, int upvalue) {
+      this.local = local;
+      this.upvalue = upvalue;
+    }
+
+    Slot slot() {
+      return upvalue < 0 ? local.slot() : new Slot(Slot.Kind.UPVALUE, upvalue);
+    }
+  }
+
+  private static class FunctionScope {
+
+    final FunctionScope enclosing;
+    final List<Local> parameters = new ArrayList<>();
+    // captured variables of enclosing functions, in upvalue order
+    final List<Local> captures = new ArrayList<>();
+    int slots;
+    int size;
+
+    FunctionScope(FunctionScope enclosing) {
+      this.enclosing = enclosing;
+    }
+
+    int allocate() {
+      size = Math.max(size, slots + 1);
+      return slots++;
+    }
+
+    // every function between the declaring one and this one passes the variable along
+    int capture(Local local) {
+      int index = captures.indexOf(local);
+      if (index >= 0) {
+        return index;
+      }
+
+      local.captured = true;
+      if (enclosing != local.function) {
+        enclosing.capture(local);
+      }
+      captures.add(local);
+      return captures.size() - 1;
+    }
+
+    FrameLayout layout() {
+      boolean[] capturedParameters = new boolean[parameters.size()];
+      for (int i = 0; i < capturedParameters.length; i++) {
+        capturedParameters[i] = parameters.get(i).captured;
+      }
+
+      Slot[] upvalues = new Slot[captures.size()];
+      for (int i = 0; i < upvalues.length; i++) {
+        Local local = captures.get(i);
+        upvalues[i] = local.function == enclosing
+            ? new Slot(Slot.Kind.CELL, local.slot)
+            : new Slot(Slot.Kind.UPVALUE, enclosing.captures.indexOf(local));
+      }
+      return new FrameLayout(size, capturedParameters, upvalues);
+    }
+  }
+
 }
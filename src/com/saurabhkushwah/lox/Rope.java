@@ -0,0 +1,110 @@
+package com.saurabhkushwah.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * String value built by concatenation, flattened the first time its characters are needed
+ * <p>
+ * Concatenating onto a rope only links the two parts, so a string built piece by piece in a loop
+ * costs time linear in its length instead of copying the whole prefix at every step. toString,
+ * equals and hashCode flatten it once and keep the result. Short results are plain Strings, a node
+ * isn't worth it for them. Tasks may flatten the same rope at once, the parts of a node are read
+ * and dropped under its lock.
+ * <p>
+ * Lox strings are Strings or Ropes, both are stringified to the same text and equal to each other.
+ */
+final class Rope {
+
+  static final int MIN_LENGTH = 64;
+
+  // String or Rope parts, dropped once flattened
+  private Object left;
+  private Object right;
+  private final int length;
+  private volatile String flat;
+
+  private Rope(Object left, Object right, int length) {
+    this.left = left;
+    this.right = right;
+    this.length = length;
+  }
+
+  static boolean isString(Object value) {
+    return value instanceof String || value instanceof Rope;
+  }
+
+  // both parts are Strings or Ropes
+  static Object concat(Object left, Object right) {
+    int leftLength = length(left);
+    int rightLength = length(right);
+    if (leftLength == 0) {
+      return right;
+    }
+    if (rightLength == 0) {
+      return left;
+    }
+
+    int length = leftLength + rightLength;
+    if (length < MIN_LENGTH) {
+      return left.toString() + right;
+    }
+    return new Rope(left, right, length);
+  }
+
+  static int length(Object string) {
+    return string instanceof Rope ? ((Rope) string).length : ((String) string).length();
+  }
+
+  @Override
+  public String toString() {
+    String flat = this.flat;
+    if (flat != null) {
+      return flat;
+    }
+
+    synchronized (this) {
+      if (this.flat == null) {
+        this.flat = flatten();
+        left = null;
+        right = null;
+      }
+      return this.flat;
+    }
+  }
+
+  private String flatten() {
+    // iterative, ropes built in loops are as deep as the loop ran
+    StringBuilder builder = new StringBuilder(length);
+    Deque<Object> pending = new ArrayDeque<>();
+    pending.push(this);
+    while (!pending.isEmpty()) {
+      Object part = pending.pop();
+      if (part instanceof String) {
+        builder.append((String) part);
+      } else {
+        Rope rope = (Rope) part;
+        synchronized (rope) {
+          if (rope.flat != null) {
+            builder.append(rope.flat);
+          } else {
+            pending.push(rope.right);
+            pending.push(rope.left);
+          }
+        }
+      }
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Rope && ((Rope) other).length == length
+        && toString().equals(other.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+}
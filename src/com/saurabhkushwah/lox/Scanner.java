@@ -5,6 +5,7 @@ import static com.saurabhkushwah.lox.TokenType.BANG;
 import static com.saurabhkushwah.lox.TokenType.BANG_EQUAL;
 import static com.saurabhkushwah.lox.TokenType.BREAK;
 import static com.saurabhkushwah.lox.TokenType.CLASS;
+import static com.saurabhkushwah.lox.TokenType.COLON;
 import static com.saurabhkushwah.lox.TokenType.COMMA;
 import static com.saurabhkushwah.lox.TokenType.DOT;
 import static com.saurabhkushwah.lox.TokenType.ELSE;
@@ -19,6 +20,7 @@ import static com.saurabhkushwah.lox.TokenType.GREATER_EQUAL;
 import static com.saurabhkushwah.lox.TokenType.IDENTIFIER;
 import static com.saurabhkushwah.lox.TokenType.IF;
 import static com.saurabhkushwah.lox.TokenType.LEFT_BRACE;
+import static com.saurabhkushwah.lox.TokenType.LEFT_BRACKET;
 import static com.saurabhkushwah.lox.TokenType.LEFT_PAREN;
 import static com.saurabhkushwah.lox.TokenType.LESS;
 import static com.saurabhkushwah.lox.TokenType.LESS_EQUAL;
@@ -30,6 +32,7 @@ import static com.saurabhkushwah.lox.TokenType.PLUS;
 import static com.saurabhkushwah.lox.TokenType.PRINT;
 import static com.saurabhkushwah.lox.TokenType.RETURN;
 import static com.saurabhkushwah.lox.TokenType.RIGHT_BRACE;
+import static com.saurabhkushwah.lox.TokenType.RIGHT_BRACKET;
 import static com.saurabhkushwah.lox.TokenType.RIGHT_PAREN;
 import static com.saurabhkushwah.lox.TokenType.SEMICOLON;
 import static com.saurabhkushwah.lox.TokenType.SLASH;
@@ -79,12 +82,14 @@ public class Scanner {
 
   final String source;
   final List<Token> tokens = new ArrayList<>();
+  private final ErrorReporter reporter;
   private int start; // start of the token
   private int current; // offset from start
   private int line = 1;
 
-  public Scanner(String source) {
+  public Scanner(String source, ErrorReporter reporter) {
     this.source = source;
+    this.reporter = reporter;
   }
 
   public List<Token> scanTokens() {
@@ -116,6 +121,15 @@ public class Scanner {
       case '}':
         addToken(RIGHT_BRACE);
         break;
+      case '[':
+        addToken(LEFT_BRACKET);
+        break;
+      case ']':
+        addToken(RIGHT_BRACKET);
+        break;
+      case ':':
+        addToken(COLON);
+        break;
       case ',':
         addToken(COMMA);
         break;
@@ -186,7 +200,7 @@ public class Scanner {
         } else if (isAlpha(ch)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          reporter.error(line, "Unexpected character.");
         }
     }
   }
@@ -225,7 +239,8 @@ public class Scanner {
       }
     }
 
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    // whole numbers come out as Long, see Numbers
+    addToken(NUMBER, Numbers.of(Double.parseDouble(source.substring(start, current))));
   }
 
   private void string() {
@@ -237,7 +252,7 @@ public class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+      reporter.error(line, "Unterminated string.");
       return;
     }
 
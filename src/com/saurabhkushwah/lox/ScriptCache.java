@@ -0,0 +1,245 @@
+package com.saurabhkushwah.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of resolved scripts, keyed by the SHA-256 of the optimizer settings and the source
+ * <p>
+ * Entry layout
+ * magic | format version | jlox version | settings | key hash | payload length | payload crc32 |
+ * payload
+ * <p>
+ * The settings are every option the optimized tree depends on, a script compiled under other ones
+ * (another -Djlox.inline.size) gets an entry of its own.
+ * <p>
+ * Entries are read through a memory mapped buffer. Anything unexpected while loading (missing
+ * file, version mismatch, checksum failure, malformed tree) is treated as a cache miss so the
+ * caller silently falls back to a full compile, failures while storing are ignored as well.
+ * <p>
+ * An entry is run once its checksum matches, so only entries the user wrote may be read: the
+ * directory is created rwx------, and one that isn't owned by the user or that other users can
+ * write to is neither read nor written.
+ */
+public class ScriptCache {
+
+  private static final int MAGIC = 0x4a4c4f58; // JLOX
+  private static final String EXTENSION = ".loxc";
+
+  private static final Set<PosixFilePermission> OWNER_ONLY =
+      PosixFilePermissions.fromString("rwx------");
+
+  private final Path directory;
+
+  public ScriptCache(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * cache directory is taken from -Djlox.cache, "off" disables caching. It defaults to the user's
+   * $XDG_CACHE_HOME/jlox, or ~/.cache/jlox.
+   */
+  public static ScriptCache fromSystemProperties() {
+    String property = System.getProperty("jlox.cache");
+    if ("off".equals(property)) {
+      return null;
+    }
+
+    if (property == null) {
+      String home = System.getenv("XDG_CACHE_HOME");
+      return new ScriptCache(home != null && !home.isEmpty() ? Paths.get(home, "jlox")
+          : Paths.get(System.getProperty("user.home"), ".cache", "jlox"));
+    }
+    return new ScriptCache(Paths.get(property));
+  }
+
+  /**
+   * returns cached statements and registers their resolution with interpreter, null on miss
+   */
+  public List<Stmt> load(String source, Interpreter interpreter) {
+    if (!isPrivate()) {
+      return null;
+    }
+    String settings = settings();
+    byte[] hash = hash(settings, source);
+    Path path = entry(hash);
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (buffer.getInt() != MAGIC || buffer.getInt() != AstWriter.FORMAT_VERSION) {
+        return null;
+      }
+
+      if (!Lox.VERSION.equals(readString(buffer)) || !settings.equals(readString(buffer))) {
+        return null;
+      }
+
+      byte[] storedHash = new byte[hash.length];
+      buffer.get(storedHash);
+      if (!Arrays.equals(hash, storedHash)) {
+        return null;
+      }
+
+      int length = buffer.getInt();
+      long checksum = buffer.getLong();
+      if (length != buffer.remaining()) {
+        return null;
+      }
+
+      ByteBuffer payload = buffer.slice();
+      CRC32 crc = new CRC32();
+      crc.update(payload.duplicate());
+      if (crc.getValue() != checksum) {
+        return null;
+      }
+
+      AstReader reader = new AstReader(payload);
+      List<Stmt> statements = reader.read();
+      interpreter.resolve(reader.resolution());
+      return statements;
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  public void store(String source, List<Stmt> statements, Interpreter interpreter) {
+    String settings = settings();
+    byte[] hash = hash(settings, source);
+
+    try {
+      byte[] payload = new AstWriter(interpreter.resolution).write(statements);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 128);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(AstWriter.FORMAT_VERSION);
+      writeString(out, Lox.VERSION);
+      writeString(out, settings);
+      out.write(hash);
+      out.writeInt(payload.length);
+      out.writeLong(crc.getValue());
+      out.write(payload);
+
+      // write aside and rename so that concurrent readers never see a partial entry
+      create();
+      if (!isPrivate()) {
+        return;
+      }
+      Path temp = Files.createTempFile(directory, "entry", ".tmp");
+      try {
+        Files.write(temp, bytes.toByteArray());
+        Files.move(temp, entry(hash), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException | RuntimeException ignored) {
+    }
+  }
+
+  private void create() throws IOException {
+    if (Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    Path parent = directory.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    try {
+      Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+    } catch (UnsupportedOperationException e) {
+      Files.createDirectory(directory);
+    } catch (FileAlreadyExistsException ignored) {
+      // created meanwhile, by this user or not, isPrivate tells
+    }
+  }
+
+  // a directory, not a link to one, of this user that no other user can write to
+  private boolean isPrivate() {
+    try {
+      UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService()
+          .lookupPrincipalByName(System.getProperty("user.name"));
+      PosixFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(directory, PosixFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+      } catch (UnsupportedOperationException e) {
+        return Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)
+            && Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).equals(user);
+      }
+      Set<PosixFilePermission> permissions = attributes.permissions();
+      return attributes.isDirectory() && attributes.owner().equals(user)
+          && !permissions.contains(PosixFilePermission.GROUP_WRITE)
+          && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+    } catch (IOException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  private Path entry(byte[] hash) {
+    StringBuilder name = new StringBuilder(hash.length * 2 + EXTENSION.length());
+    for (byte b : hash) {
+      name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return directory.resolve(name.append(EXTENSION).toString());
+  }
+
+  // the optimizer options the passes read in Lox.optimize. The memo size isn't one, which
+  // functions are memoizable doesn't depend on it and memos are only created at run time
+  private static String settings() {
+    return "inline.size=" + Inliner.maxSizeFromSystemProperties();
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(encoded.length);
+    out.write(encoded);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      return null;
+    }
+
+    byte[] encoded = new byte[length];
+    buffer.get(encoded);
+    return new String(encoded, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] hash(String settings, String source) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(settings.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      return digest.digest(source.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
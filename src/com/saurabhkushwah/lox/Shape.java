@@ -0,0 +1,48 @@
+package com.saurabhkushwah.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hidden class of instances, where each of their fields lives in their field array
+ * <p>
+ * A class starts its instances at its empty root shape, adding a field moves an instance to the
+ * shape with that field appended. Transitions are kept, so instances that get the same fields in
+ * the same order share their shape, and {@link PropertyCache} compares shapes by identity.
+ */
+final class Shape {
+
+  final LoxClass klass;
+  final int size;
+  private final Map<String, Integer> indexes;
+  private final Map<String, Shape> transitions = new HashMap<>();
+
+  Shape(LoxClass klass) {
+    this(klass, new HashMap<>());
+  }
+
+  private Shape(LoxClass klass, Map<String, Integer> indexes) {
+    this.klass = klass;
+    this.indexes = indexes;
+    this.size = indexes.size();
+  }
+
+  // -1 when instances of this shape have no such field
+  int indexOf(String name) {
+    Integer index = indexes.get(name);
+    return index == null ? -1 : index;
+  }
+
+  // shape once name is added, name must be missing from this one. Instances of a class may get
+  // fields on several tasks at once
+  synchronized Shape with(String name) {
+    Shape next = transitions.get(name);
+    if (next == null) {
+      Map<String, Integer> indexes = new HashMap<>(this.indexes);
+      indexes.put(name, size);
+      next = new Shape(klass, indexes);
+      transitions.put(name, next);
+    }
+    return next;
+  }
+}
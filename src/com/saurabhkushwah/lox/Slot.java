@@ -0,0 +1,25 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Where the resolver placed a local variable
+ * <p>
+ * LOCAL holds the value in the frame slot at index, CELL holds a {@link Cell} in that slot because
+ * some closure captured the variable, UPVALUE is the index of a captured variable of an enclosing
+ * function in the running closure's upvalues. Globals have no slot.
+ */
+final class Slot {
+
+  enum Kind {
+    LOCAL,
+    CELL,
+    UPVALUE
+  }
+
+  final Kind kind;
+  final int index;
+
+  Slot(Kind kind, int index) {
+    this.kind = kind;
+    this.index = index;
+  }
+}
@@ -20,11 +20,15 @@ abstract class Stmt {
 
     R visitWhileStmt(While stmt);
 
+    R visitForStmt(For stmt);
+
     R visitReturnStmt(Return stmt);
 
     R visitVarStmt(Var stmt);
 
     R visitBlockStmt(Block stmt);
+
+    R visitClassStmt(Class stmt);
   }
 
   static class Expression extends Stmt {
@@ -119,6 +123,26 @@ abstract class Stmt {
     }
   }
 
+  static class For extends Stmt {
+
+    final Stmt initializer;
+    final Expr condition;
+    final Expr increment;
+    final Stmt body;
+
+    For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+      this.initializer = initializer;
+      this.condition = condition;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+  }
+
   static class Return extends Stmt {
 
     final Token keyword;
@@ -164,4 +188,22 @@ abstract class Stmt {
       return visitor.visitBlockStmt(this);
     }
   }
+
+  static class Class extends Stmt {
+
+    final Token name;
+    final Expr.Variable superclass;
+    final List<Stmt.Function> methods;
+
+    Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
+      this.name = name;
+      this.superclass = superclass;
+      this.methods = methods;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitClassStmt(this);
+    }
+  }
 }
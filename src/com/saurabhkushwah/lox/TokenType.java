@@ -3,7 +3,8 @@ package com.saurabhkushwah.lox;
 public enum TokenType {
   // single character token
   LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
-  COMMA, DOT, PLUS, MINUS, STAR, SLASH, SEMICOLON,
+  COMMA, DOT, PLUS, MINUS, STAR, SLASH, SEMICOLON, LEFT_BRACKET, RIGHT_BRACKET,
+  COLON,
 
   // one or two character token
   BANG, BANG_EQUAL,
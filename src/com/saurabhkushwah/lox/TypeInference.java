@@ -0,0 +1,584 @@
+package com.saurabhkushwah.lox;
+
+import com.saurabhkushwah.lox.Expr.Binary;
+import com.saurabhkushwah.lox.Expr.Unary;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites operations whose operands are proven to be numbers or strings to variants that skip the
+ * runtime type checks
+ * <p>
+ * The analysis follows the control flow of each function, tracking the type of the value held by
+ * every local that no closure can assign, and of globals until the next call (any call can assign
+ * them) unless the program runs tasks, which may assign them at any time. Branches join at the end
+ * of if statements and logical expressions, loops are iterated until the types at their head stop
+ * changing. A loop can also be left from any call, a function body ending with break breaks the
+ * caller's loop. Parameters, call results and everything else are unknown.
+ * <p>
+ * The type of an expression is the type of its value when it completes, so after a - b both
+ * operands are known to have been numbers. An operation is only rewritten when every way of
+ * reaching it provides the required types, so it can't fail a type check and every type error is
+ * still raised by the original node.
+ */
+class TypeInference extends AstTransformer {
+
+  enum Type {
+    NUMBER, STRING, BOOLEAN, NIL, CALLABLE, UNKNOWN;
+
+    Type join(Type other) {
+      return this == other ? this : UNKNOWN;
+    }
+
+    static Type of(Object value) {
+      if (Numbers.isNumber(value)) {
+        return NUMBER;
+      }
+      if (value instanceof String) {
+        return STRING;
+      }
+      if (value instanceof Boolean) {
+        return BOOLEAN;
+      }
+      return value == null ? NIL : UNKNOWN;
+    }
+  }
+
+  private final Resolver resolver;
+
+  // join of the types every expression evaluated to, over all the paths reaching it
+  private final Map<Expr, Type> types = new IdentityHashMap<>();
+
+  // locals that closures read but nobody assigns hold the value of their declaration
+  private final Map<Token, Type> fixed = new HashMap<>();
+
+  private int rewritten;
+
+  TypeInference(Resolver resolver) {
+    this.resolver = resolver;
+  }
+
+  List<Stmt> infer(List<Stmt> statements) {
+    new Analyzer().analyze(statements);
+    return transform(statements);
+  }
+
+  int rewritten() {
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Binary expr) {
+    Type left = types.get(expr.left);
+    Type right = types.get(expr.right);
+    Expr transformed = super.visitBinaryExpr(expr);
+    Binary binary = (Binary) transformed;
+
+    switch (expr.operator.type) {
+      case PLUS:
+        if (left == Type.STRING || right == Type.STRING) {
+          rewritten++;
+          return concat(binary.left, binary.right);
+        }
+        return arithmetic(binary, left, right);
+      case MINUS:
+      case STAR:
+      case SLASH:
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        return arithmetic(binary, left, right);
+      default:
+        return transformed;
+    }
+  }
+
+  // unchecked arithmetic or comparison when both operands are known numbers
+  private Expr arithmetic(Binary binary, Type left, Type right) {
+    if (left == Type.NUMBER && right == Type.NUMBER) {
+      rewritten++;
+      return new Expr.Arithmetic(binary.left, binary.operator, binary.right);
+    }
+    return binary;
+  }
+
+  // a + b + c concatenates into one builder once a + b is known to be a string
+  private static Expr concat(Expr left, Expr right) {
+    List<Expr> operands = new ArrayList<>();
+    if (left instanceof Expr.Concat) {
+      operands.addAll(((Expr.Concat) left).operands);
+    } else {
+      operands.add(left);
+    }
+    operands.add(right);
+    return new Expr.Concat(operands);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Unary expr) {
+    Type right = types.get(expr.right);
+    Expr transformed = super.visitUnaryExpr(expr);
+
+    if (expr.operator.type == TokenType.MINUS && right == Type.NUMBER) {
+      rewritten++;
+      return new Expr.Negate(expr.operator, ((Unary) transformed).right);
+    }
+    return transformed;
+  }
+
+  /**
+   * Computes the types, a state maps declaring tokens of tracked locals and names of globals to the
+   * type of their value, a null state is unreachable code
+   */
+  private class Analyzer implements Expr.Visitor<Type>, Stmt.Visitor<Void> {
+
+    private Map<Object, Type> state = new HashMap<>();
+
+    // join of the states leaving the innermost loop early, null outside loops
+    private Map<Object, Type> exits;
+    private boolean inLoop;
+
+    void analyze(List<Stmt> statements) {
+      for (Stmt stmt : statements) {
+        if (state == null) {
+          return;
+        }
+        stmt.accept(this);
+      }
+    }
+
+    private void analyze(Stmt stmt) {
+      if (state != null) {
+        stmt.accept(this);
+      }
+    }
+
+    private Type analyze(Expr expr) {
+      if (state == null) {
+        return Type.UNKNOWN;
+      }
+
+      Type type = expr.accept(this);
+      types.merge(expr, type, Type::join);
+      return type;
+    }
+
+    private void analyzeFunction(List<Token> parameters, List<Stmt> body) {
+      Map<Object, Type> enclosing = state;
+      Map<Object, Type> enclosingExits = exits;
+      boolean enclosingInLoop = inLoop;
+
+      state = new HashMap<>();
+      exits = null;
+      inLoop = false;
+      analyze(body);
+
+      state = enclosing;
+      exits = enclosingExits;
+      inLoop = enclosingInLoop;
+    }
+
+    private void analyzeLoop(Expr condition, Stmt body, Expr increment) {
+      Map<Object, Type> enclosingExits = exits;
+      boolean enclosingInLoop = inLoop;
+      inLoop = true;
+
+      // the head only loses facts, so this ends once no more are lost
+      Map<Object, Type> head = state;
+      Map<Object, Type> exit;
+      while (true) {
+        state = copy(head);
+        exits = null;
+        if (condition != null) {
+          analyze(condition);
+        }
+
+        // while (true) and for (;;) are only left through exits
+        boolean endless = condition == null || condition instanceof Expr.Literal
+            && Interpreter.isTruthy(((Expr.Literal) condition).value);
+        exit = endless ? null : copy(state);
+
+        analyze(body);
+        if (increment != null) {
+          analyze(increment);
+        }
+
+        Map<Object, Type> next = join(head, state);
+        if (next.equals(head)) {
+          break;
+        }
+        head = next;
+      }
+
+      state = join(exit, exits);
+      exits = enclosingExits;
+      inLoop = enclosingInLoop;
+      leave();
+    }
+
+    // the current point may leave the enclosing loop, a called function can end with break
+    private void leave() {
+      if (inLoop && state != null) {
+        exits = join(exits, state);
+      }
+    }
+
+    private Type read(Expr expr, Token name) {
+      Token declaration = resolver.declarationOf(expr);
+      if (declaration == null) {
+        return resolver.isConcurrent()
+            ? Type.UNKNOWN : state.getOrDefault(name.lexeme, Type.UNKNOWN);
+      }
+      if (resolver.isCaptured(declaration)) {
+        return resolver.isReassigned(declaration)
+            ? Type.UNKNOWN : fixed.getOrDefault(declaration, Type.UNKNOWN);
+      }
+      return state.getOrDefault(declaration, Type.UNKNOWN);
+    }
+
+    private void write(Token declaration, Token name, Type type) {
+      Object key = declaration == null ? name.lexeme : declaration;
+      if (declaration != null && resolver.isCaptured(declaration)) {
+        fixed.merge(declaration, type, Type::join);
+      }
+      set(key, type);
+    }
+
+    private void set(Object key, Type type) {
+      if (type == Type.UNKNOWN) {
+        state.remove(key);
+      } else {
+        state.put(key, type);
+      }
+    }
+
+    private void forgetGlobals() {
+      state.keySet().removeIf(key -> key instanceof String);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+      return Type.of(expr.value);
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+      return read(expr, expr.name);
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+      Type type = analyze(expr.value);
+      if (state != null) {
+        write(resolver.declarationOf(expr), expr.name, type);
+      }
+      return type;
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+      return analyze(expr.expression);
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+      analyze(expr.callee);
+      for (Expr argument : expr.arguments) {
+        analyze(argument);
+      }
+      if (state != null) {
+        forgetGlobals();
+        leave();
+      }
+      return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Unary expr) {
+      analyze(expr.right);
+      return expr.operator.type == TokenType.MINUS ? Type.NUMBER : Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Binary expr) {
+      Type left = analyze(expr.left);
+      Type right = analyze(expr.right);
+
+      switch (expr.operator.type) {
+        case PLUS:
+          if (left == Type.STRING || right == Type.STRING) {
+            return Type.STRING;
+          }
+          return left == Type.NUMBER && right == Type.NUMBER ? Type.NUMBER : Type.UNKNOWN;
+        case MINUS:
+        case STAR:
+        case SLASH:
+          return Type.NUMBER;
+        default:
+          return Type.BOOLEAN;
+      }
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+      Type left = analyze(expr.left);
+      Map<Object, Type> skipped = copy(state);
+      Type right = analyze(expr.right);
+      state = join(skipped, state);
+      return left.join(right);
+    }
+
+    @Override
+    public Type visitFunctionExpr(Expr.Function expr) {
+      analyzeFunction(expr.parameters, expr.body);
+      return Type.CALLABLE;
+    }
+
+    // the body only runs when the guard passes, bound to the arguments, otherwise the call runs
+    @Override
+    public Type visitInlineExpr(Expr.Inline expr) {
+      analyze(expr.call.callee);
+      Map<Object, Type> guarded = copy(state);
+      for (Expr argument : expr.call.arguments) {
+        analyze(argument);
+      }
+      Map<Object, Type> called = state;
+
+      state = guarded;
+      List<Type> bound = new ArrayList<>();
+      for (Expr argument : expr.arguments) {
+        bound.add(analyze(argument));
+      }
+      if (state == null) {
+        return Type.UNKNOWN;
+      }
+
+      Map<Object, Type> inlined = state;
+      state = new HashMap<>();
+      for (int i = 0; i < bound.size(); i++) {
+        set(expr.parameters.get(i), bound.get(i));
+      }
+      analyze(expr.body);
+
+      state = join(called, inlined);
+      forgetGlobals();
+      leave();
+      return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitSpeculateExpr(Expr.Speculate expr) {
+      analyze(expr.expression);
+      return Type.UNKNOWN;
+    }
+
+    // either the value the speculation computed or a new evaluation of the same expression
+    @Override
+    public Type visitInvariantExpr(Expr.Invariant expr) {
+      return analyze(expr.expression);
+    }
+
+    @Override
+    public Type visitArithmeticExpr(Expr.Arithmetic expr) {
+      analyze(expr.left);
+      analyze(expr.right);
+      return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitNegateExpr(Expr.Negate expr) {
+      analyze(expr.right);
+      return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitConcatExpr(Expr.Concat expr) {
+      for (Expr operand : expr.operands) {
+        analyze(operand);
+      }
+      return Type.STRING;
+    }
+
+    @Override
+    public Type visitArrayExpr(Expr.Array expr) {
+      for (Expr element : expr.elements) {
+        analyze(element);
+      }
+      return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitIndexExpr(Expr.Index expr) {
+      analyze(expr.object);
+      analyze(expr.index);
+      return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitIndexAssignExpr(Expr.IndexAssign expr) {
+      analyze(expr.object);
+      analyze(expr.index);
+      return analyze(expr.value);
+    }
+
+    @Override
+    public Type visitMapExpr(Expr.Map expr) {
+      for (int i = 0; i < expr.keys.size(); i++) {
+        analyze(expr.keys.get(i));
+        analyze(expr.values.get(i));
+      }
+      return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+      analyze(expr.object);
+      return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+      analyze(expr.object);
+      return analyze(expr.value);
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+      return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+      return Type.UNKNOWN;
+    }
+
+    // the global may be something else by the time it runs, then it is a plain call
+    @Override
+    public Type visitIntrinsicExpr(Expr.Intrinsic expr) {
+      return visitCallExpr(expr.call);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      analyze(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      write(resolver.isLocal(stmt.name) ? stmt.name : null, stmt.name, Type.CALLABLE);
+      analyzeFunction(stmt.parameters, stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      analyze(stmt.condition);
+      Map<Object, Type> otherwise = copy(state);
+
+      analyze(stmt.thenBranch);
+      Map<Object, Type> then = state;
+
+      state = otherwise;
+      if (stmt.elseBranch != null) {
+        analyze(stmt.elseBranch);
+      }
+      state = join(then, state);
+      return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+      leave();
+      state = null;
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      analyze(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      analyzeLoop(stmt.condition, stmt.body, null);
+      return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+      if (stmt.initializer != null) {
+        analyze(stmt.initializer);
+      }
+      if (state != null) {
+        analyzeLoop(stmt.condition, stmt.body, stmt.increment);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      if (stmt.value != null) {
+        analyze(stmt.value);
+      }
+      state = null;
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      Type type = stmt.initializer == null ? Type.NIL : analyze(stmt.initializer);
+      if (state != null) {
+        write(resolver.isLocal(stmt.name) ? stmt.name : null, stmt.name, type);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      analyze(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      if (stmt.superclass != null) {
+        analyze(stmt.superclass);
+      }
+      if (state != null) {
+        write(resolver.isLocal(stmt.name) ? stmt.name : null, stmt.name, Type.CALLABLE);
+        for (Stmt.Function method : stmt.methods) {
+          analyzeFunction(method.parameters, method.body);
+        }
+      }
+      return null;
+    }
+  }
+
+  private static Map<Object, Type> copy(Map<Object, Type> state) {
+    return state == null ? null : new HashMap<>(state);
+  }
+
+  // keeps what both paths agree on, unreachable paths don't count
+  private static Map<Object, Type> join(Map<Object, Type> a, Map<Object, Type> b) {
+    if (a == null) {
+      return copy(b);
+    }
+    if (b == null) {
+      return copy(a);
+    }
+
+    Map<Object, Type> joined = new HashMap<>();
+    for (Map.Entry<Object, Type> entry : a.entrySet()) {
+      if (entry.getValue() == b.get(entry.getKey())) {
+        joined.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return joined;
+  }
+}
@@ -0,0 +1,54 @@
+package com.saurabhkushwah.tool;
+
+import com.saurabhkushwah.lox.DaemonClient;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Measures the round trip of a trivial script through a running jlox --daemon
+ * <p>
+ * Usage: daemon_benchmark socket [requests]
+ * every request opens a connection, sends the source, reads the output and the exit status, as a
+ * client process would, without the cost of starting that process.
+ */
+public class DaemonBenchmark {
+
+  private static final String SCRIPT = "var greeting = \"hello\"; print greeting + \" world\";";
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: daemon_benchmark <socket> [requests]");
+      System.exit(64);
+    }
+
+    Path socket = Path.of(args[0]);
+    int requests = args.length == 2 ? Integer.parseInt(args[1]) : 2000;
+
+    // the first requests warm up the daemon and this JVM
+    for (int i = 0; i < requests / 4; i++) {
+      request(socket);
+    }
+
+    long[] nanos = new long[requests];
+    for (int i = 0; i < requests; i++) {
+      long start = System.nanoTime();
+      request(socket);
+      nanos[i] = System.nanoTime() - start;
+    }
+
+    Arrays.sort(nanos);
+    System.out.printf("%d requests: median %.3f ms, p99 %.3f ms%n", requests,
+        nanos[requests / 2] / 1e6, nanos[requests * 99 / 100] / 1e6);
+  }
+
+  private static void request(Path socket) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int status = DaemonClient.execute(socket, SCRIPT, new PrintStream(out, true), System.err);
+    if (status != 0 || !out.toString().equals("hello world\n")) {
+      throw new IllegalStateException("request failed with status " + status);
+    }
+  }
+}
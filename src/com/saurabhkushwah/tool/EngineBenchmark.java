@@ -0,0 +1,123 @@
+package com.saurabhkushwah.tool;
+
+import com.saurabhkushwah.lox.LoxContext;
+import com.saurabhkushwah.lox.LoxEngine;
+import com.saurabhkushwah.lox.LoxProgram;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs one compiled program in many contexts on 1 to n threads at once
+ * <p>
+ * Usage: engine_benchmark [threads] [runs]
+ * every run executes the shared program in a fresh context with its own seed as input. The program
+ * exercises globals, closures, classes (inline caches) and maps. Each output is checked against the
+ * one a single thread computed for the same seed, so state leaking between contexts fails the
+ * benchmark instead of only slowing it down.
+ */
+public class EngineBenchmark {
+
+  private static final String PROGRAM = String.join("\n",
+      "class Counter {",
+      "  init(n) { this.n = n; }",
+      "  add(k) { this.n = this.n + k; return this; }",
+      "}",
+      "fun adder(k) { fun add(x) { return x + k; } return add; }",
+      "fun mod(a, b) { return a - floor(a / b) * b; }",
+      "var total = 0;",
+      "fun work() {",
+      "  var counter = Counter(seed);",
+      "  var add = adder(mod(seed, 13));",
+      "  var seen = {};",
+      "  for (var i = 0; i < 3000; i = i + 1) {",
+      "    counter.add(mod(i, 7));",
+      "    seen[mod(i, 101)] = add(counter.n);",
+      "  }",
+      "  var indexes = keys(seen);",
+      "  for (var i = 0; i < len(indexes); i = i + 1) {",
+      "    total = total + seen[indexes[i]];",
+      "  }",
+      "}",
+      "work();",
+      "print total;");
+
+  public static void main(String[] args) throws InterruptedException, ExecutionException {
+    if (args.length > 2) {
+      System.err.println("Usage: engine_benchmark [threads] [runs]");
+      System.exit(64);
+    }
+
+    int threads = args.length >= 1 ? Integer.parseInt(args[0])
+        : Runtime.getRuntime().availableProcessors();
+    int runs = args.length == 2 ? Integer.parseInt(args[1]) : 2000;
+
+    LoxEngine engine = new LoxEngine();
+    LoxProgram program = engine.compile(PROGRAM, System.err);
+    if (program == null) {
+      System.exit(65);
+    }
+
+    String[] expected = new String[runs];
+    for (int seed = 0; seed < runs; seed++) {
+      expected[seed] = run(engine, program, seed);
+    }
+
+    for (int count = 1; count <= threads; count *= 2) {
+      measure(engine, program, expected, count);
+      if (count < threads && count * 2 > threads) {
+        count = threads / 2;
+      }
+    }
+  }
+
+  private static void measure(LoxEngine engine, LoxProgram program, String[] expected,
+      int threads) throws InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      // warm up on the same threads, then measure
+      execute(executor, engine, program, expected);
+      long start = System.nanoTime();
+      execute(executor, engine, program, expected);
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.printf("threads: %d, %d runs in %.3f s, %.1f runs/s%n", threads,
+          expected.length, seconds, expected.length / seconds);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void execute(ExecutorService executor, LoxEngine engine, LoxProgram program,
+      String[] expected) throws InterruptedException, ExecutionException {
+    List<Future<String>> outputs = new ArrayList<>(expected.length);
+    for (int seed = 0; seed < expected.length; seed++) {
+      int contextSeed = seed;
+      outputs.add(executor.submit(() -> run(engine, program, contextSeed)));
+    }
+
+    for (int seed = 0; seed < expected.length; seed++) {
+      String output = outputs.get(seed).get();
+      if (!output.equals(expected[seed])) {
+        throw new IllegalStateException(String.format("seed %d printed %s instead of %s", seed,
+            output.trim(), expected[seed].trim()));
+      }
+    }
+  }
+
+  private static String run(LoxEngine engine, LoxProgram program, int seed) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LoxContext context = program.execute(Collections.singletonMap("seed", seed),
+        new PrintStream(out, true), System.err);
+    if (context.failed()) {
+      throw new IllegalStateException("seed " + seed + " failed");
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,86 @@
+package com.saurabhkushwah.tool;
+
+import com.saurabhkushwah.lox.LoxEngine;
+import com.saurabhkushwah.lox.LoxProgram;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+/**
+ * Compares compiling a script for every run with compiling it once and executing the program
+ * <p>
+ * Usage: execute_benchmark [script]
+ * the script gets a number as its input global n, without a script a small rule evaluation script
+ * is used, the kind a service runs thousands of times with different inputs. Output is discarded.
+ */
+public class ExecuteBenchmark {
+
+  private static final int WARMUP_RUNS = 5_000;
+  private static final int MEASURED_RUNS = 20_000;
+  private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+  private static final String SCRIPT = String.join("\n",
+      "fun clamp(x, low, high) { return max(low, min(x, high)); }",
+      "fun score(x) {",
+      "  var total = 0;",
+      "  for (var i = 1; i <= 10; i = i + 1) {",
+      "    if (x > i * 10) total = total + i; else total = total - 1;",
+      "  }",
+      "  return clamp(total, 0, 40);",
+      "}",
+      "var rules = {\"gold\": 30, \"silver\": 15, \"bronze\": 5};",
+      "var tier = \"none\";",
+      "var best = 0;",
+      "var names = keys(rules);",
+      "for (var i = 0; i < len(names); i = i + 1) {",
+      "  var limit = rules[names[i]];",
+      "  if (score(n) >= limit and limit > best) {",
+      "    best = limit;",
+      "    tier = names[i];",
+      "  }",
+      "}",
+      "print tier;");
+
+  private interface Run {
+
+    void run(int n);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length > 1) {
+      System.err.println("Usage: execute_benchmark [script]");
+      System.exit(64);
+    }
+
+    String source = args.length == 1
+        ? new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8)
+        : SCRIPT;
+    LoxEngine engine = new LoxEngine();
+    LoxProgram program = engine.compile(source, System.err);
+    if (program == null) {
+      System.exit(65);
+    }
+
+    measure("compile every run", n -> engine.compile(source, System.err)
+        .execute(Collections.singletonMap("n", n), DISCARD, System.err));
+    measure("compiled once", n -> program
+        .execute(Collections.singletonMap("n", n), DISCARD, System.err));
+  }
+
+  private static void measure(String name, Run run) {
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      run.run(i % 100);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      run.run(i % 100);
+    }
+    double micros = (System.nanoTime() - start) / 1e3 / MEASURED_RUNS;
+    System.out.printf("%s: %.1f us per run%n", name, micros);
+  }
+}
@@ -26,7 +26,23 @@ public class GenerateAst {
         "Unary    : Token operator, Expr right",
         "Binary   : Expr left, Token operator, Expr right",
         "Logical  : Expr left, Token operator, Expr right",
-        "Function : List<Token> parameters, List<Stmt> body"
+        "Function : List<Token> parameters, List<Stmt> body",
+        "Inline   : Call call, Token function, List<Token> parameters, List<Expr> arguments,"
+            + " Expr body",
+        "Speculate : Expr expression",
+        "Invariant : Token name, Expr expression",
+        "Arithmetic : Expr left, Token operator, Expr right",
+        "Negate     : Token operator, Expr right",
+        "Concat     : List<Expr> operands",
+        "Array       : Token bracket, List<Expr> elements",
+        "Index       : Expr object, Token bracket, Expr index",
+        "IndexAssign : Expr object, Token bracket, Expr index, Expr value",
+        "Map         : Token brace, List<Expr> keys, List<Expr> values",
+        "Get   : Expr object, Token name | PropertyCache cache",
+        "Set   : Expr object, Token name, Expr value | PropertyCache cache",
+        "This  : Token keyword",
+        "Super : Token keyword, Token method, This receiver",
+        "Intrinsic : Call call, Builtin builtin"
     ));
 
     defineAst(outputDir, "Stmt", Arrays.asList(
@@ -36,9 +52,11 @@ public class GenerateAst {
         "Break      : Token keyword",
         "Print      : Expr expression",
         "While      : Expr condition, Stmt body",
+        "For        : Stmt initializer, Expr condition, Expr increment, Stmt body",
         "Return     : Token keyword, Expr value",
         "Var        : Token name, Expr initializer",
-        "Block      : List<Stmt> statements"
+        "Block      : List<Stmt> statements",
+        "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods"
     ));
   }
 
@@ -84,8 +102,17 @@ public class GenerateAst {
     writer.println("  }");
   }
 
+  /**
+   * fields after a '|' are runtime state of the node, created with it instead of passed in
+   */
   private static void defineType(
       PrintWriter writer, String baseName, String className, String fieldList) {
+    String[] state = new String[0];
+    if (fieldList.contains("|")) {
+      state = fieldList.split("\\|")[1].trim().split(", ");
+      fieldList = fieldList.split("\\|")[0].trim();
+    }
+
     writer.println("  static class " + className + " extends " + baseName + " {");
 
     if (fieldList.length() > 64) {
@@ -113,6 +140,9 @@ public class GenerateAst {
     for (String field : fields) {
       writer.println("    final " + field + ";");
     }
+    for (String field : state) {
+      writer.println("    final " + field + " = new " + field.split(" ")[0] + "();");
+    }
 
     writer.println("  }");
   }
@@ -0,0 +1,75 @@
+package com.saurabhkushwah.tool;
+
+import com.saurabhkushwah.lox.Limits;
+import com.saurabhkushwah.lox.LoxContext;
+import com.saurabhkushwah.lox.LoxEngine;
+import com.saurabhkushwah.lox.LoxProgram;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+
+/**
+ * Measures what enforcing execution limits costs
+ * <p>
+ * Usage: limits_benchmark
+ * runs a loop heavy and a call heavy script without limits and with all four set high enough not
+ * to be reached, so only the checks are paid for.
+ */
+public class LimitsBenchmark {
+
+  private static final int RUNS = 7;
+
+  private static final Limits HIGH = Limits.NONE.withSteps(Long.MAX_VALUE / 2)
+      .withTimeout(3_600_000).withDepth(100_000).withMemory(Long.MAX_VALUE / 2);
+
+  private static final String LOOPS = String.join("\n",
+      "var total = 0;",
+      "for (var i = 0; i < 3000; i = i + 1) {",
+      "  var j = 0;",
+      "  while (j < 1000) { total = total + j; j = j + 1; }",
+      "}",
+      "print total;");
+
+  private static final String CALLS = String.join("\n",
+      "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }",
+      "print fib(27);");
+
+  public static void main(String[] args) {
+    if (args.length > 0) {
+      System.err.println("Usage: limits_benchmark");
+      System.exit(64);
+    }
+
+    LoxEngine engine = new LoxEngine();
+    measure("loops", engine.compile(LOOPS, System.err));
+    measure("calls", engine.compile(CALLS, System.err));
+  }
+
+  // runs alternate so that both get the same JIT state, the best of each is kept
+  private static void measure(String name, LoxProgram program) {
+    run(program, Limits.NONE);
+    run(program, HIGH);
+    double none = Double.MAX_VALUE;
+    double limited = Double.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      none = Math.min(none, time(program, Limits.NONE));
+      limited = Math.min(limited, time(program, HIGH));
+    }
+    System.out.printf("%s: %.3f s without limits, %.3f s with, %+.1f%%%n", name, none, limited,
+        100 * (limited - none) / none);
+  }
+
+  private static double time(LoxProgram program, Limits limits) {
+    long start = System.nanoTime();
+    run(program, limits);
+    return (System.nanoTime() - start) / 1e9;
+  }
+
+  private static void run(LoxProgram program, Limits limits) {
+    LoxContext context = program.execute(Collections.emptyMap(), limits,
+        new PrintStream(new ByteArrayOutputStream(), true), System.err);
+    if (context.failed()) {
+      throw new IllegalStateException("script failed");
+    }
+  }
+}
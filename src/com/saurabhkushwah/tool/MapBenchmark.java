@@ -0,0 +1,132 @@
+package com.saurabhkushwah.tool;
+
+import com.saurabhkushwah.lox.LoxMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the Lox map with java.util.HashMap on what scripts do with maps
+ * <p>
+ * Usage: map_benchmark [entries]
+ * both maps get the values scripts hand them, boxed Doubles and Strings: number keys are stored,
+ * looked up (half of them missing) and removed, string keys are stored and looked up, and the
+ * values are summed by iterating the map. Number keys come in a fixed random order, counting up
+ * would lay HashMap's entries out in memory in the order they are looked up.
+ */
+public class MapBenchmark {
+
+  private static final int WARMUP_ROUNDS = 10;
+  private static final int MEASURED_ROUNDS = 20;
+
+  private interface Operations {
+
+    double run(Object[] numbers, Object[] strings);
+  }
+
+  public static void main(String[] args) {
+    if (args.length > 1) {
+      System.err.println("Usage: map_benchmark [entries]");
+      System.exit(64);
+    }
+
+    int entries = args.length == 1 ? Integer.parseInt(args[0]) : 200_000;
+    Object[] numbers = new Object[entries * 2];
+    Object[] strings = new Object[entries];
+    for (int i = 0; i < numbers.length; i++) {
+      numbers[i] = (double) i;
+    }
+    Collections.shuffle(Arrays.asList(numbers), new Random(42));
+    for (int i = 0; i < entries; i++) {
+      strings[i] = "key" + i;
+    }
+
+    measure("LoxMap", MapBenchmark::loxMap, numbers, strings);
+    measure("HashMap", MapBenchmark::hashMap, numbers, strings);
+  }
+
+  private static void measure(String name, Operations operations, Object[] numbers,
+      Object[] strings) {
+    double check = 0;
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      check += operations.run(numbers, strings);
+    }
+
+    long best = Long.MAX_VALUE;
+    long total = 0;
+    for (int i = 0; i < MEASURED_ROUNDS; i++) {
+      long start = System.nanoTime();
+      check += operations.run(numbers, strings);
+      long elapsed = System.nanoTime() - start;
+      best = Math.min(best, elapsed);
+      total += elapsed;
+    }
+
+    System.out.printf("%-8s average: %.3f ms, best: %.3f ms (check %.0f)%n", name,
+        total / 1e6 / MEASURED_ROUNDS, best / 1e6, check);
+  }
+
+  private static double loxMap(Object[] numbers, Object[] strings) {
+    int entries = strings.length;
+    LoxMap map = new LoxMap();
+    for (int i = 0; i < entries; i++) {
+      map.put(numbers[i], numbers[i]);
+    }
+
+    double sum = 0;
+    for (Object key : numbers) {
+      Object value = map.get(key);
+      if (value != null) {
+        sum += (double) value;
+      }
+    }
+    for (int i = 0; i < entries; i += 2) {
+      map.remove(numbers[i]);
+    }
+
+    for (int i = 0; i < entries; i++) {
+      map.put(strings[i], numbers[i]);
+    }
+    for (Object key : strings) {
+      sum += (double) map.get(key);
+    }
+
+    for (int slot = map.next(0); slot >= 0; slot = map.next(slot + 1)) {
+      sum += (double) map.valueAt(slot);
+    }
+    return sum;
+  }
+
+  private static double hashMap(Object[] numbers, Object[] strings) {
+    int entries = strings.length;
+    Map<Object, Object> map = new HashMap<>();
+    for (int i = 0; i < entries; i++) {
+      map.put(numbers[i], numbers[i]);
+    }
+
+    double sum = 0;
+    for (Object key : numbers) {
+      Object value = map.get(key);
+      if (value != null) {
+        sum += (double) value;
+      }
+    }
+    for (int i = 0; i < entries; i += 2) {
+      map.remove(numbers[i]);
+    }
+
+    for (int i = 0; i < entries; i++) {
+      map.put(strings[i], numbers[i]);
+    }
+    for (Object key : strings) {
+      sum += (double) map.get(key);
+    }
+
+    for (Object value : map.values()) {
+      sum += (double) value;
+    }
+    return sum;
+  }
+}
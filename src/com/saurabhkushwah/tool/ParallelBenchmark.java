@@ -0,0 +1,76 @@
+package com.saurabhkushwah.tool;
+
+import com.saurabhkushwah.lox.LoxContext;
+import com.saurabhkushwah.lox.LoxEngine;
+import com.saurabhkushwah.lox.LoxProgram;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+
+/**
+ * Compares map with parallelMap on a CPU bound script
+ * <p>
+ * Usage: parallel_benchmark [elements]
+ * every element computes a naive fib, the script runs once with map and once with parallelMap and
+ * both must print the same sum. Run with -Djlox.parallelism=n to measure the scaling on n cores.
+ */
+public class ParallelBenchmark {
+
+  private static final int RUNS = 5;
+
+  private static final String SCRIPT = String.join("\n",
+      "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }",
+      "fun work(i) { return fib(18 + i - floor(i / 4) * 4); }",
+      "var xs = [];",
+      "for (var i = 0; i < elements; i = i + 1) push(xs, i);",
+      "print sum(MAP(xs, work));");
+
+  public static void main(String[] args) {
+    if (args.length > 1) {
+      System.err.println("Usage: parallel_benchmark [elements]");
+      System.exit(64);
+    }
+
+    int elements = args.length == 1 ? Integer.parseInt(args[0]) : 256;
+    LoxEngine engine = new LoxEngine();
+    LoxProgram sequential = engine.compile(SCRIPT.replace("MAP", "map"), System.err);
+    LoxProgram parallel = engine.compile(SCRIPT.replace("MAP", "parallelMap"), System.err);
+    if (sequential == null || parallel == null) {
+      System.exit(65);
+    }
+
+    System.out.printf("parallelism: %d%n",
+        Integer.getInteger("jlox.parallelism", Runtime.getRuntime().availableProcessors()));
+    String expected = run(sequential, elements);
+    double map = measure("map", sequential, elements, expected);
+    double parallelMap = measure("parallelMap", parallel, elements, expected);
+    System.out.printf("speedup: %.2fx%n", map / parallelMap);
+  }
+
+  // best of the runs, after a warm up one
+  private static double measure(String name, LoxProgram program, int elements, String expected) {
+    run(program, elements);
+    double best = Double.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      long start = System.nanoTime();
+      String output = run(program, elements);
+      best = Math.min(best, (System.nanoTime() - start) / 1e9);
+      if (!output.equals(expected)) {
+        throw new IllegalStateException(name + " printed " + output.trim());
+      }
+    }
+
+    System.out.printf("%s: %.3f s%n", name, best);
+    return best;
+  }
+
+  private static String run(LoxProgram program, int elements) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LoxContext context = program.execute(Collections.singletonMap("elements", elements),
+        new PrintStream(out, true), System.err);
+    if (context.failed()) {
+      throw new IllegalStateException("script failed");
+    }
+    return out.toString();
+  }
+}
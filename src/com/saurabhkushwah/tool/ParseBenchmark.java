@@ -0,0 +1,80 @@
+package com.saurabhkushwah.tool;
+
+import com.saurabhkushwah.lox.ErrorReporter;
+import com.saurabhkushwah.lox.Parser;
+import com.saurabhkushwah.lox.Scanner;
+import com.saurabhkushwah.lox.Token;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Measures parser throughput on expression dense source
+ * <p>
+ * Usage: parse_benchmark [script]
+ * without a script a synthetic source of arithmetic, comparison, logical and call expressions is
+ * generated. Tokens are scanned once up front so only parsing is timed.
+ */
+public class ParseBenchmark {
+
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int MEASURED_ROUNDS = 50;
+  private static final ErrorReporter REPORTER = new ErrorReporter(System.err);
+
+  public static void main(String[] args) throws IOException {
+    if (args.length > 1) {
+      System.err.println("Usage: parse_benchmark [script]");
+      System.exit(64);
+    }
+
+    String source = args.length == 1
+        ? new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8)
+        : generate(20_000);
+    List<Token> tokens = new Scanner(source, REPORTER).scanTokens();
+
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      parse(tokens);
+    }
+
+    long best = Long.MAX_VALUE;
+    long total = 0;
+    for (int i = 0; i < MEASURED_ROUNDS; i++) {
+      long start = System.nanoTime();
+      parse(tokens);
+      long elapsed = System.nanoTime() - start;
+      best = Math.min(best, elapsed);
+      total += elapsed;
+    }
+
+    double average = (double) total / MEASURED_ROUNDS;
+    System.out.printf("tokens: %d%n", tokens.size());
+    System.out.printf("average: %.3f ms, best: %.3f ms%n", average / 1e6, best / 1e6);
+    System.out.printf("throughput: %.1f Mtokens/s%n", tokens.size() / (average / 1e9) / 1e6);
+  }
+
+  private static int parse(List<Token> tokens) {
+    return new Parser(tokens, REPORTER).parse().size();
+  }
+
+  private static String generate(int statements) {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < statements; i++) {
+      switch (i % 4) {
+        case 0:
+          source.append("var v").append(i).append(" = 1 + 2 * 3 - 4 / (5 + 6) * -7;\n");
+          break;
+        case 1:
+          source.append("print (a + b) * c - d / e >= f + g and h != i or !j == k;\n");
+          break;
+        case 2:
+          source.append("x = f(a, b + 1, g(c * 2))(d) - -e * (\"s\" + t);\n");
+          break;
+        default:
+          source.append("if (a < b and b <= c or c > d) y = z = 1 + 2 + 3 + 4 + 5;\n");
+      }
+    }
+    return source.toString();
+  }
+}
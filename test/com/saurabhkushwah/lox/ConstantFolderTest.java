@@ -0,0 +1,69 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Constant folding and propagation compute what execution would, and leave every failing
+ * operation to raise at runtime on its own line
+ */
+public final class ConstantFolderTest {
+
+  public static void main(String[] args) {
+    foldsToLiterals();
+    propagatesConstantLocals();
+    reducesConstantConditions();
+    failingOperationsRaiseOnTheirLine();
+    System.out.println("ConstantFolderTest ok");
+  }
+
+  private static void foldsToLiterals() {
+    LoxProgram program = Tests.compile("print 1 + 2 * 3;");
+    Expr printed = ((Stmt.Print) program.statements.get(0)).expression;
+    Tests.check(printed instanceof Expr.Literal, "1 + 2 * 3 isn't folded: " + printed);
+
+    Tests.Run run = Tests.run(String.join("\n",
+        "print 1 + 2 * 3;",
+        "print \"a\" + \"b\";",
+        "print !(1 < 2);",
+        "print 7 / 2;",
+        "print nil == false;"), Limits.NONE);
+    Tests.check(run.out.equals("7\nab\nfalse\n3.5\nfalse\n"), "unexpected output: " + run.out);
+  }
+
+  // a local assigned after its declaration keeps being read
+  private static void propagatesConstantLocals() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "{",
+        "  var a = 2;",
+        "  var b = 2;",
+        "  b = 5;",
+        "  print a * 3;",
+        "  print b * 3;",
+        "}"), Limits.NONE);
+    Tests.check(run.out.equals("6\n15\n"), "unexpected output: " + run.out);
+  }
+
+  private static void reducesConstantConditions() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "if (1 > 2) print \"then\"; else print \"else\";",
+        "while (false) print \"never\";",
+        "for (var i = 0; false; i = i + 1) print \"never\";",
+        "print \"done\";"), Limits.NONE);
+    Tests.check(run.out.equals("else\ndone\n"), "unexpected output: " + run.out);
+  }
+
+  private static void failingOperationsRaiseOnTheirLine() {
+    Tests.Run division = Tests.run(String.join("\n",
+        "print \"before\";",
+        "print 1 / 0;"), Limits.NONE);
+    Tests.check(division.out.equals("before\n"), "unexpected output: " + division.out);
+    Tests.check(division.err.contains("[Line 2] : Division by zero"),
+        "unexpected error: " + division.err);
+
+    Tests.Run negation = Tests.run(String.join("\n",
+        "{",
+        "  var s = \"a\";",
+        "  print -s;",
+        "}"), Limits.NONE);
+    Tests.check(negation.err.contains("[Line 3] : Operand must be a number"),
+        "unexpected error: " + negation.err);
+  }
+}
@@ -0,0 +1,57 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Dead code elimination only drops what can't run or can't be observed: effects and errors of
+ * removed variables' initializers still happen, on their lines
+ */
+public final class DeadCodeEliminatorTest {
+
+  public static void main(String[] args) {
+    unreachableStatements();
+    unreadLocalsKeepTheirEffects();
+    System.out.println("DeadCodeEliminatorTest ok");
+  }
+
+  private static void unreachableStatements() {
+    String source = String.join("\n",
+        "fun sign(n) {",
+        "  if (n < 0) return -1; else return 1;",
+        "  print \"unreachable\";",
+        "}",
+        "fun first() {",
+        "  while (true) {",
+        "    break;",
+        "    print \"unreachable\";",
+        "  }",
+        "  return \"first\";",
+        "  print \"unreachable\";",
+        "}",
+        "print sign(-5);",
+        "print first();");
+    Tests.check(Tests.stat(source, "dead code") > 0, "nothing removed");
+
+    Tests.Run run = Tests.run(source, Limits.NONE);
+    Tests.check(run.out.equals("-1\nfirst\n"), "unexpected output: " + run.out);
+  }
+
+  private static void unreadLocalsKeepTheirEffects() {
+    Tests.Run effect = Tests.run(String.join("\n",
+        "fun f() { print \"effect\"; return 1; }",
+        "{",
+        "  var unused = f();",
+        "  var alsoUnused = 2;",
+        "  alsoUnused = f();",
+        "}"), Limits.NONE);
+    Tests.check(effect.out.equals("effect\neffect\n"), "lost an effect: " + effect.out);
+
+    Tests.Run failure = Tests.run(String.join("\n",
+        "{",
+        "  var unused = 1;",
+        "  var failing = unused / 0;",
+        "  print \"after\";",
+        "}"), Limits.NONE);
+    Tests.check(failure.out.isEmpty(), "ran past the failing initializer: " + failure.out);
+    Tests.check(failure.err.contains("[Line 3] : Division by zero"),
+        "unexpected error: " + failure.err);
+  }
+}
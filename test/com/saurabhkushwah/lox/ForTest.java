@@ -0,0 +1,72 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * For loops run as for statements of their own: scoping of the loop variable, break, closures
+ * over it, and errors raised on the line of the clause that failed
+ */
+public final class ForTest {
+
+  public static void main(String[] args) {
+    loops();
+    loopVariableScope();
+    clausesFailOnTheirLine();
+    System.out.println("ForTest ok");
+  }
+
+  private static void loops() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "var total = 0;",
+        "for (var i = 0; i < 3; i = i + 1) {",
+        "  for (var j = 0; j < 10; j = j + 1) {",
+        "    if (j == 2) break;",
+        "    total = total + 1;",
+        "  }",
+        "}",
+        "print total;",
+        "var k = 0;",
+        "for (; k < 3;) k = k + 1;",
+        "print k;",
+        "for (k = 10; ; k = k + 1) if (k == 12) break;",
+        "print k;"), Limits.NONE);
+    Tests.check(run.out.equals("6\n3\n12\n"), "unexpected output: " + run.out);
+  }
+
+  // closures share the single loop variable, block locals of the body are fresh every iteration
+  private static void loopVariableScope() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "var i = \"outer\";",
+        "var fs = [];",
+        "var gs = [];",
+        "for (var i = 0; i < 3; i = i + 1) {",
+        "  var j = i;",
+        "  push(fs, fun() { return i; });",
+        "  push(gs, fun() { return j; });",
+        "}",
+        "print i;",
+        "print fs[0]();",
+        "print gs[0]();"), Limits.NONE);
+    Tests.check(run.out.equals("outer\n3\n0\n"), "unexpected output: " + run.out);
+  }
+
+  private static void clausesFailOnTheirLine() {
+    Tests.Run increment = Tests.run(String.join("\n",
+        "for (var i = 0;",
+        "     i < 2;",
+        "     i = i - nil) {",
+        "  print i;",
+        "}"), Limits.NONE);
+    Tests.check(increment.out.equals("0\n"), "unexpected output: " + increment.out);
+    Tests.check(increment.err.contains("[Line 3] : Operands must be numbers"),
+        "unexpected error: " + increment.err);
+
+    Tests.Run condition = Tests.run(String.join("\n",
+        "for (var i = 0;",
+        "     i < \"2\";",
+        "     i = i + 1) {",
+        "  print i;",
+        "}"), Limits.NONE);
+    Tests.check(condition.out.isEmpty(), "unexpected output: " + condition.out);
+    Tests.check(condition.err.contains("[Line 2] : Operands must be numbers"),
+        "unexpected error: " + condition.err);
+  }
+}
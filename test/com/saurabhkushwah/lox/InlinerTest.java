@@ -0,0 +1,65 @@
+package com.saurabhkushwah.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Inlined calls behave like the calls they replace: arguments are evaluated once and in order,
+ * errors in the body are raised on the body's line, and redefining the callee is seen
+ */
+public final class InlinerTest {
+
+  private static final String SOURCE = String.join("\n",
+      "fun twice(x) { return x + x; }",
+      "fun next() { print \"next\"; return 1; }",
+      "fun half(x) {",
+      "  return x / 2;",
+      "}",
+      "print twice(next());",
+      "print twice(3) + twice(4);",
+      "print half(\"a\");");
+
+  public static void main(String[] args) {
+    Tests.check(Tests.stat(SOURCE, "inlined") > 0, "nothing inlined");
+    inlinedCalls();
+    sameAsWithoutInlining();
+    redefinedCallee();
+    System.out.println("InlinerTest ok");
+  }
+
+  private static void inlinedCalls() {
+    Tests.Run run = Tests.run(SOURCE, Limits.NONE);
+    Tests.check(run.out.equals("next\n2\n14\n"), "unexpected output: " + run.out);
+    Tests.check(run.err.contains("[Line 4] : Operands must be numbers"),
+        "error not on the body's line: " + run.err);
+  }
+
+  private static void sameAsWithoutInlining() {
+    Tests.Run inlined = Tests.run(SOURCE, Limits.NONE);
+    System.setProperty("jlox.inline.size", "0");
+    Tests.Run called;
+    try {
+      Tests.check(Tests.stat(SOURCE, "inlined") == 0, "inlined with inlining off");
+      called = Tests.run(SOURCE, Limits.NONE);
+    } finally {
+      System.clearProperty("jlox.inline.size");
+    }
+    Tests.check(inlined.out.equals(called.out) && inlined.err.equals(called.err),
+        "inlining changed the run: " + inlined.err + " vs " + called.err);
+  }
+
+  // use was compiled with sq inlined, a later program of the context replaces sq
+  private static void redefinedCallee() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LoxContext context = Tests.ENGINE.newContext(new PrintStream(out, true), System.err);
+    String first = String.join("\n",
+        "fun sq(x) { return x * x; }",
+        "fun use() { return sq(3); }",
+        "print use();");
+    Tests.check(Tests.stat(first, "inlined") > 0, "sq isn't inlined");
+    context.run(Tests.compile(first));
+    context.run(Tests.compile("fun sq(x) { return -1; }"));
+    context.run(Tests.compile("print use();"));
+    Tests.check(out.toString().equals("9\n-1\n"), "inlined body outlived its function: " + out);
+  }
+}
@@ -0,0 +1,83 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Hoisted loop invariants are evaluated speculatively: one that fails raises nothing unless the
+ * loop reaches it, and then on its own line after the output that precedes it
+ */
+public final class LoopInvariantMotionTest {
+
+  // the locals are assigned once more so that constant propagation leaves them to hoisting
+  private static final String HOISTED = String.join("\n",
+      "{",
+      "  var a = 0;",
+      "  var b = 0;",
+      "  a = 3;",
+      "  b = 4;",
+      "  var t = 0;",
+      "  for (var i = 0; i < 10; i = i + 1) t = t + a * b;",
+      "  print t;",
+      "}");
+
+  public static void main(String[] args) {
+    Tests.check(Tests.stat(HOISTED, "loop invariants") > 0, "a * b isn't hoisted");
+    Tests.check(Tests.run(HOISTED, Limits.NONE).out.equals("120\n"), "wrong hoisted result");
+    failureNeverReached();
+    failureReachedLate();
+    changedInTheLoop();
+    System.out.println("LoopInvariantMotionTest ok");
+  }
+
+  private static void failureNeverReached() {
+    String source = String.join("\n",
+        "{",
+        "  var s = nil;",
+        "  s = \"a\";",
+        "  var n = 0;",
+        "  while (n < 3) {",
+        "    if (n > 5) print s - 1;",
+        "    n = n + 1;",
+        "  }",
+        "  for (var i = 0; i < 0; i = i + 1) print s * 2;",
+        "  print \"done\";",
+        "}");
+    Tests.check(Tests.stat(source, "loop invariants") > 0, "nothing hoisted");
+
+    Tests.Run run = Tests.run(source, Limits.NONE);
+    Tests.check(run.err.isEmpty(), "raised a failure the loop never reached: " + run.err);
+    Tests.check(run.out.equals("done\n"), "unexpected output: " + run.out);
+  }
+
+  private static void failureReachedLate() {
+    String source = String.join("\n",
+        "{",
+        "  var s = nil;",
+        "  s = \"a\";",
+        "  for (var i = 0; i < 5; i = i + 1) {",
+        "    print i;",
+        "    if (i == 2)",
+        "      print s - 1;",
+        "  }",
+        "}");
+    Tests.check(Tests.stat(source, "loop invariants") > 0, "s - 1 isn't hoisted");
+
+    Tests.Run run = Tests.run(source, Limits.NONE);
+    Tests.check(run.out.equals("0\n1\n2\n"), "unexpected output: " + run.out);
+    Tests.check(run.err.contains("[Line 7] : Operands must be numbers"),
+        "unexpected error: " + run.err);
+  }
+
+  // assigned in the loop directly, or through a closure it calls
+  private static void changedInTheLoop() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "{",
+        "  var a = 1;",
+        "  var t = 0;",
+        "  fun bump() { a = a + 1; }",
+        "  for (var i = 0; i < 3; i = i + 1) { t = t + a * 10; bump(); }",
+        "  var b = 1;",
+        "  for (var i = 0; i < 3; i = i + 1) { t = t + b * 100; b = b + 1; }",
+        "  print t;",
+        "}"), Limits.NONE);
+    Tests.check(run.out.equals("660\n"), "unexpected output: " + run.out);
+  }
+}
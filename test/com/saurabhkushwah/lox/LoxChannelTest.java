@@ -0,0 +1,45 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Channels hand values over in order while their buffer grows, and only allocate for the values
+ * they hold
+ */
+public final class LoxChannelTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    orderAcrossGrowth();
+    hugeCapacity();
+    System.out.println("LoxChannelTest ok");
+  }
+
+  // wraps around the initial buffer before filling it up to capacity
+  private static void orderAcrossGrowth() throws InterruptedException {
+    LoxChannel channel = new LoxChannel(100);
+    int sent = 0;
+    int received = 0;
+    for (int i = 0; i < 10; i++) {
+      channel.send((double) sent++);
+    }
+    for (int i = 0; i < 5; i++) {
+      Tests.check(channel.receive().equals((double) received++), "out of order before growing");
+    }
+    while (sent - received < 100) {
+      channel.send((double) sent++);
+    }
+    channel.close();
+    Object value;
+    while ((value = channel.receive()) != null) {
+      Tests.check(value.equals((double) received++), "out of order after growing: " + value);
+    }
+    Tests.check(received == sent, "lost values: " + received + " of " + sent);
+  }
+
+  private static void hugeCapacity() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "var ch = channel(2000000000);",
+        "send(ch, 1);",
+        "print receive(ch);"), Limits.NONE.withMemory(64L * 1024 * 1024));
+    Tests.check(!run.context.failed(), "huge channel failed: " + run.err);
+    Tests.check(run.out.equals("1\n"), "unexpected output: " + run.out);
+  }
+}
@@ -0,0 +1,23 @@
+package com.saurabhkushwah.lox;
+
+import java.util.Collections;
+
+/**
+ * Globals read back through the embedding API are plain Java values
+ */
+public final class LoxContextTest {
+
+  public static void main(String[] args) {
+    Tests.Run run = Tests.run(Tests.compile(String.join("\n",
+        "var text = \"\";",
+        "for (var i = 0; i < 100; i = i + 1) text = text + \"ab\";",
+        "var short = \"a\" + \"b\";")), Collections.emptyMap(), Limits.NONE);
+    Tests.check(!run.context.failed(), "script failed: " + run.err);
+
+    Object text = run.context.get("text");
+    Tests.check(text instanceof String, "long concatenation read back as " + text.getClass());
+    Tests.check(text.equals("ab".repeat(100)), "wrong text: " + text);
+    Tests.check("ab".equals(run.context.get("short")), "short concatenation isn't \"ab\"");
+    System.out.println("LoxContextTest ok");
+  }
+}
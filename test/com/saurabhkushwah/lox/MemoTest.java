@@ -0,0 +1,86 @@
+package com.saurabhkushwah.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Memoized pure functions return what calling them would, also once a function they call is
+ * redefined, and only when the interpreter turned memoization on
+ */
+public final class MemoTest {
+
+  private static final String FIB = String.join("\n",
+      "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }",
+      "print fib(25);");
+
+  public static void main(String[] args) {
+    Tests.check(Tests.stat(FIB, "pure") > 0, "fib isn't memoizable");
+    memoizedOnlyWhenOn();
+    impureFunctions();
+    redefinedCallee();
+    errorsAreNotRemembered();
+    System.out.println("MemoTest ok");
+  }
+
+  private static void memoizedOnlyWhenOn() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Interpreter off = run(FIB, 0, out);
+    Tests.check(off.memoHits == 0, "memoized with memoization off");
+
+    Interpreter on = run(FIB, 100, out);
+    Tests.check(on.memoHits > 0, "no memo hits");
+    Tests.check(out.toString().equals("75025\n75025\n"), "unexpected output: " + out);
+  }
+
+  // reading a global makes a function impure, the result follows the global
+  private static void impureFunctions() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    run(String.join("\n",
+        "var k = 1;",
+        "fun f(n) { var r = 0; for (var i = 0; i < n; i = i + 1) r = r + k; return r; }",
+        "print f(3);",
+        "k = 2;",
+        "print f(3);"), 100, out);
+    Tests.check(out.toString().equals("3\n6\n"), "stale result of an impure function: " + out);
+  }
+
+  private static void redefinedCallee() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LoxContext context = Tests.ENGINE.newContext(new PrintStream(out, true), System.err)
+        .memoize(100);
+    context.run(Tests.compile(String.join("\n",
+        "fun g(n) { return n + 1; }",
+        "fun f(n) { if (n < 1) return g(n); return f(n - 1) + f(n - 1); }",
+        "print f(3);")));
+    context.run(Tests.compile("fun g(n) { return n + 10; }"));
+    context.run(Tests.compile("print f(3);"));
+    Tests.check(out.toString().equals("8\n80\n"), "stale memoized results: " + out);
+  }
+
+  private static void errorsAreNotRemembered() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    LoxContext context = Tests.ENGINE.newContext(new PrintStream(out, true),
+        new PrintStream(err, true)).memoize(100);
+    LoxProgram program = Tests.compile(String.join("\n",
+        "fun f(n) {",
+        "  if (n < 1)",
+        "    return n / 0;",
+        "  return f(n - 1);",
+        "}",
+        "print f(3);"));
+    Tests.check(!context.run(program) && !context.run(program), "memoized a failing call");
+    String line = "[Line 3] : Division by zero";
+    Tests.check(err.toString().indexOf(line) != err.toString().lastIndexOf(line),
+        "expected the error twice: " + err);
+  }
+
+  private static Interpreter run(String source, int memoSize, ByteArrayOutputStream out) {
+    ErrorReporter reporter = new ErrorReporter(System.err);
+    Interpreter interpreter = new Interpreter(new PrintStream(out, true), reporter);
+    interpreter.memoize(memoSize);
+    interpreter.interpret(Lox.compile(source, interpreter, reporter));
+    Tests.check(!reporter.hadError() && !reporter.hadRuntimeError(), "run failed");
+    return interpreter;
+  }
+}
@@ -0,0 +1,62 @@
+package com.saurabhkushwah.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+
+/**
+ * Calls of pure natives seen by the optimizer keep following their global once a later program
+ * of the context, or an input, binds it to something else
+ */
+public final class NativeRedefinitionTest {
+
+  public static void main(String[] args) {
+    redefinedByLaterProgram();
+    redefinedBeforeCompiledFunctionRuns();
+    replacedByInput();
+    memoizedResultAfterRedefinition();
+    System.out.println("NativeRedefinitionTest ok");
+  }
+
+  private static void redefinedByLaterProgram() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LoxContext context = Tests.ENGINE.newContext(new PrintStream(out, true), System.err);
+    context.run(Tests.compile("var sqrt = fun(x) { return \"mine\"; }; var min = max;"));
+    context.run(Tests.compile("print sqrt(16); print min(1, 2);"));
+
+    Tests.check(out.toString().equals("mine\n2\n"), "folded the old natives: " + out);
+  }
+
+  private static void redefinedBeforeCompiledFunctionRuns() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LoxContext context = Tests.ENGINE.newContext(new PrintStream(out, true), System.err);
+    context.run(Tests.compile("fun f() { return sqrt(16); }"));
+    context.run(Tests.compile("var sqrt = fun(x) { return \"mine\"; };"));
+    context.run(Tests.compile("print f();"));
+
+    Tests.check(out.toString().equals("mine\n"), "f still calls the old sqrt: " + out);
+  }
+
+  private static void replacedByInput() {
+    Tests.Run run = Tests.run(Tests.compile("print sqrt(16);"),
+        Collections.singletonMap("sqrt", "notfn"), Limits.NONE);
+
+    Tests.check(run.context.failed(), "called an input that isn't a function: " + run.out);
+    Tests.check(run.err.contains("Can only call functions and classes"),
+        "unexpected error: " + run.err);
+  }
+
+  // f's memoized results were computed with the old sqrt
+  private static void memoizedResultAfterRedefinition() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LoxContext context = Tests.ENGINE.newContext(new PrintStream(out, true), System.err)
+        .memoize(100);
+    context.run(Tests.compile(String.join("\n",
+        "fun f(n) { if (n < 1) return sqrt(n + 16); return f(n - 1) + f(n - 1); }",
+        "print f(3);")));
+    context.run(Tests.compile("var sqrt = fun(x) { return 100; };"));
+    context.run(Tests.compile("print f(3);"));
+
+    Tests.check(out.toString().equals("32\n800\n"), "stale memoized results: " + out);
+  }
+}
@@ -0,0 +1,31 @@
+package com.saurabhkushwah.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One compiled program run in more contexts than a property cache has entries: every context has
+ * shapes of its own, the cache of a property access must keep hitting on the latest one
+ */
+public final class PropertyCacheTest {
+
+  public static void main(String[] args) {
+    LoxProgram program = Tests.compile(String.join("\n",
+        "class Point { init(x) { this.x = x; } }",
+        "var p = Point(1);",
+        "var x = p.x;"));
+    List<Stmt> statements = program.statements;
+    PropertyCache cache = ((Expr.Get) ((Stmt.Var) statements.get(statements.size() - 1))
+        .initializer).cache;
+
+    for (int i = 0; i < 3 * PropertyCache.LIMIT; i++) {
+      Tests.Run run = Tests.run(program, Collections.emptyMap(), Limits.NONE);
+      Tests.check(!run.context.failed(), "run " + i + " failed: " + run.err);
+
+      Shape shape = ((LoxInstance) run.context.get("p")).shape;
+      Tests.check(cache.get(shape, "x") == cache.get(shape, "x"),
+          "context " + i + " misses the cache of p.x");
+    }
+    System.out.println("PropertyCacheTest ok");
+  }
+}
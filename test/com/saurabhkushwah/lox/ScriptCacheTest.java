@@ -0,0 +1,61 @@
+package com.saurabhkushwah.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Entries of the script cache only serve compiles under the optimizer settings that made them,
+ * and only from a directory no other user can write to
+ */
+public final class ScriptCacheTest {
+
+  private static final String SOURCE = String.join("\n",
+      "fun sq(x) { return x * x; }",
+      "print sq(3);");
+
+  public static void main(String[] args) throws IOException {
+    Path directory = Files.createTempDirectory("jlox-cache-test");
+    ScriptCache cache = new ScriptCache(directory);
+
+    System.setProperty("jlox.inline.size", "24");
+    Interpreter compiling = interpreter();
+    Tests.check(Lox.load(SOURCE, compiling, new ErrorReporter(System.err), cache) != null,
+        "doesn't compile");
+    Tests.check(cache.load(SOURCE, interpreter()) != null, "same settings miss the entry");
+
+    System.setProperty("jlox.inline.size", "0");
+    Tests.check(cache.load(SOURCE, interpreter()) == null, "inlined tree served without inlining");
+    System.clearProperty("jlox.inline.size");
+
+    // which functions are memoizable is in the entry, the memo size only matters at run time
+    Interpreter memoizing = interpreter();
+    memoizing.memoize(100);
+    Tests.check(cache.load(SOURCE, memoizing) != null, "memo size splits the cache");
+
+    sharedDirectory(directory);
+    System.out.println("ScriptCacheTest ok");
+  }
+
+  // entries of a directory others can write to could have been planted, they are never run
+  private static void sharedDirectory(Path parent) throws IOException {
+    Path directory = parent.resolve("created");
+    ScriptCache cache = new ScriptCache(directory);
+    Interpreter compiling = interpreter();
+    cache.store(SOURCE, Lox.compile(SOURCE, compiling, new ErrorReporter(System.err)), compiling);
+    Tests.check(Files.getPosixFilePermissions(directory).equals(
+        PosixFilePermissions.fromString("rwx------")), "cache directory isn't private");
+    Tests.check(cache.load(SOURCE, interpreter()) != null, "private directory misses the entry");
+
+    Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxrwxrwx"));
+    Tests.check(cache.load(SOURCE, interpreter()) == null, "entry read from a shared directory");
+  }
+
+  private static Interpreter interpreter() {
+    return new Interpreter(new PrintStream(new ByteArrayOutputStream()),
+        new ErrorReporter(System.err));
+  }
+}
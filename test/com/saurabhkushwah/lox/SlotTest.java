@@ -0,0 +1,66 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Locals in stack slots and captured locals in cells: closures see and make every assignment,
+ * outlive their frame, and each call or block entry gets variables of its own
+ */
+public final class SlotTest {
+
+  public static void main(String[] args) {
+    closuresShareTheirCells();
+    closuresOutliveTheirFrame();
+    framesDontLeakIntoEachOther();
+    System.out.println("SlotTest ok");
+  }
+
+  private static void closuresShareTheirCells() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "{",
+        "  var a = 1;",
+        "  fun get() { return a; }",
+        "  fun set(v) { a = v; }",
+        "  a = 2;",
+        "  print get();",
+        "  set(3);",
+        "  print a;",
+        "}"), Limits.NONE);
+    Tests.check(run.out.equals("2\n3\n"), "unexpected output: " + run.out);
+  }
+
+  // the value stack is reused by the calls after make returned
+  private static void closuresOutliveTheirFrame() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "fun make() {",
+        "  var n = 0;",
+        "  fun inc() { n = n + 1; return n; }",
+        "  return inc;",
+        "}",
+        "fun noise(a, b, c) { var d = a + b + c; return d; }",
+        "var first = make();",
+        "var second = make();",
+        "first();",
+        "noise(7, 8, 9);",
+        "print first();",
+        "print second();",
+        "var fs = [];",
+        "for (var i = 0; i < 3; i = i + 1) {",
+        "  var j = i;",
+        "  push(fs, fun() { return j; });",
+        "}",
+        "print fs[0]() + fs[2]() * 10;"), Limits.NONE);
+    Tests.check(run.out.equals("2\n1\n20\n"), "unexpected output: " + run.out);
+  }
+
+  private static void framesDontLeakIntoEachOther() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "fun keep(n) {",
+        "  var a = n;",
+        "  if (n > 0) keep(n - 1);",
+        "  return a;",
+        "}",
+        "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }",
+        "print keep(5);",
+        "print fib(15);"), Limits.NONE);
+    Tests.check(run.out.equals("5\n610\n"), "unexpected output: " + run.out);
+  }
+}
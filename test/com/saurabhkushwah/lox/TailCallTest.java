@@ -0,0 +1,52 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Tail calls run in the caller's frame: recursion in tail position doesn't grow the stack, yet
+ * closures over the frames it passed through keep their own variables
+ */
+public final class TailCallTest {
+
+  public static void main(String[] args) {
+    deepRecursion();
+    capturedFrames();
+    errorsOnTheirLine();
+    System.out.println("TailCallTest ok");
+  }
+
+  private static void deepRecursion() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }",
+        "fun even(n) { if (n == 0) return true; return odd(n - 1); }",
+        "fun odd(n) { if (n == 0) return false; return even(n - 1); }",
+        "print count(500000, 0);",
+        "print even(300001);"), Limits.NONE);
+    Tests.check(run.err.isEmpty(), "tail calls grew the stack: " + run.err);
+    Tests.check(run.out.equals("500000\nfalse\n"), "unexpected output: " + run.out);
+  }
+
+  // every frame build passes through is captured by the closure it creates before calling on
+  private static void capturedFrames() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "fun build(n, previous) {",
+        "  var k = n;",
+        "  fun sum() { return k + previous(); }",
+        "  if (n == 0) return sum;",
+        "  return build(n - 1, sum);",
+        "}",
+        "fun zero() { return 0; }",
+        "print build(4, zero)();",
+        "print build(200, zero)();"), Limits.NONE);
+    Tests.check(run.out.equals("10\n20100\n"), "closures saw a reused frame: " + run.out);
+  }
+
+  private static void errorsOnTheirLine() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "fun down(n) {",
+        "  if (n == 0)",
+        "    return n + nil;",
+        "  return down(n - 1);",
+        "}",
+        "print down(100000);"), Limits.NONE);
+    Tests.check(run.err.contains("[Line 3] : Operands must be"), "unexpected error: " + run.err);
+  }
+}
@@ -0,0 +1,78 @@
+package com.saurabhkushwah.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Loops reading globals that a task assigns meanwhile: neither the types nor the values of the
+ * globals may be taken as fixed for the loop, even when the task belongs to an earlier program
+ */
+public final class TaskGlobalsTest {
+
+  public static void main(String[] args) {
+    typeChangedByTask();
+    conditionChangedByTask();
+    taskOfEarlierProgram();
+    taskStartedByEarlierFunction();
+    System.out.println("TaskGlobalsTest ok");
+  }
+
+  // s + x must keep its type check, a number + string is a Lox error and not a Java exception
+  private static void typeChangedByTask() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "var x = 1;",
+        "var s = 0;",
+        "fun change() { sleep(200); x = \"s\"; return nil; }",
+        "spawn(change);",
+        "x = 2;",
+        "while (s < 1000000000000) { s = s + x; }"), Limits.NONE.withTimeout(20_000));
+
+    Tests.check(run.context.failed() && run.context.exceeded() == null,
+        "expected a runtime error, got: " + run.err);
+    Tests.check(run.err.contains("Operands must be"), "unexpected error: " + run.err);
+  }
+
+  // !done must be read on every iteration, not hoisted out of the loop
+  private static void conditionChangedByTask() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "var done = false;",
+        "var i = 0;",
+        "fun finish() { sleep(200); done = true; return nil; }",
+        "spawn(finish);",
+        "while (!done) { i = i + 1; }",
+        "print done;"), Limits.NONE.withTimeout(20_000));
+
+    Tests.check(!run.context.failed(), "loop didn't see the task's assignment: " + run.err);
+    Tests.check(run.out.equals("true\n"), "unexpected output: " + run.out);
+  }
+
+  // the task outlives the program that spawned it, like a line of the prompt
+  private static void taskOfEarlierProgram() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    LoxContext context = Tests.ENGINE.newContext(new PrintStream(out, true),
+        new PrintStream(err, true)).limit(Limits.NONE.withTimeout(20_000));
+    context.run(Tests.compile("var done = false;"));
+    context.run(Tests.compile(
+        "var t = spawn(fun() { sleep(200); done = true; return nil; });"));
+    context.run(Tests.compile("while (!done) {} print done;"));
+
+    Tests.check(!context.failed(), "loop didn't see the earlier task's assignment: " + err);
+    Tests.check(out.toString().equals("true\n"), "unexpected output: " + out);
+  }
+
+  // the program running the loop starts the task through a function of an earlier program
+  private static void taskStartedByEarlierFunction() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    LoxContext context = Tests.ENGINE.newContext(new PrintStream(out, true),
+        new PrintStream(err, true)).limit(Limits.NONE.withTimeout(20_000));
+    context.run(Tests.compile(String.join("\n",
+        "var done = false;",
+        "fun start() { spawn(fun() { sleep(200); done = true; return nil; }); }")));
+    context.run(Tests.compile("start(); while (!done) {} print done;"));
+
+    Tests.check(!context.failed(), "loop didn't see the task's assignment: " + err);
+    Tests.check(out.toString().equals("true\n"), "unexpected output: " + out);
+  }
+}
@@ -0,0 +1,76 @@
+package com.saurabhkushwah.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Shared by the tests: runs scripts through a {@link LoxEngine} and checks what they did
+ * <p>
+ * Tests are plain classes with a main that throws an AssertionError on the first failed check,
+ * they sit in the interpreter's package to look at its internals.
+ */
+final class Tests {
+
+  static final LoxEngine ENGINE = new LoxEngine();
+
+  private Tests() {
+  }
+
+  static final class Run {
+
+    final LoxContext context;
+    final String out;
+    final String err;
+
+    Run(LoxContext context, String out, String err) {
+      this.context = context;
+      this.out = out;
+      this.err = err;
+    }
+  }
+
+  static LoxProgram compile(String source) {
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    LoxProgram program = ENGINE.compile(source, new PrintStream(err, true));
+    check(program != null, "doesn't compile: " + err);
+    return program;
+  }
+
+  static Run run(String source, Limits limits) {
+    return run(compile(source), Collections.emptyMap(), limits);
+  }
+
+  static Run run(LoxProgram program, Map<String, ?> inputs, Limits limits) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    LoxContext context = program.execute(inputs, limits, new PrintStream(out, true),
+        new PrintStream(err, true));
+    return new Run(context, out.toString(), err.toString());
+  }
+
+  // the count a pass reports with -Djlox.stats for compiling source, as in "inlined: 2 call sites"
+  static int stat(String source, String pass) {
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    System.setProperty("jlox.stats", "true");
+    try {
+      check(ENGINE.compile(source, new PrintStream(err, true)) != null, "doesn't compile: " + err);
+    } finally {
+      System.clearProperty("jlox.stats");
+    }
+
+    for (String line : err.toString().split("\n")) {
+      if (line.startsWith(pass + ": ")) {
+        return Integer.parseInt(line.substring(pass.length() + 2).split(" ")[0]);
+      }
+    }
+    throw new AssertionError("no " + pass + " stats in: " + err);
+  }
+
+  static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.saurabhkushwah.lox;
+
+/**
+ * Operations proven to get numbers or strings skip their checks, every other one keeps them: a
+ * type error is always the Lox error on its line, never a Java exception
+ */
+public final class TypeInferenceTest {
+
+  public static void main(String[] args) {
+    uncheckedArithmetic();
+    concatenation();
+    typeDependsOnThePath();
+    typeChangesInTheLoop();
+    System.out.println("TypeInferenceTest ok");
+  }
+
+  private static void uncheckedArithmetic() {
+    String source = String.join("\n",
+        "{",
+        "  var total = 0;",
+        "  for (var i = 0; i < 100; i = i + 1) total = total + i * 2;",
+        "  print total;",
+        "}");
+    Tests.check(Tests.stat(source, "types") > 0, "nothing unchecked");
+    Tests.check(Tests.run(source, Limits.NONE).out.equals("9900\n"), "wrong unchecked result");
+  }
+
+  // a string on either side of + concatenates whatever the other operand is
+  private static void concatenation() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "{",
+        "  var label = \"n=\";",
+        "  var n = 0;",
+        "  n = 5;",
+        "  print label + n;",
+        "  print n + label;",
+        "  print label + n + n;",
+        "  print n + n + label;",
+        "}"), Limits.NONE);
+    Tests.check(run.out.equals("n=5\n5n=\nn=55\n10n=\n"), "unexpected output: " + run.out);
+  }
+
+  private static void typeDependsOnThePath() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "{",
+        "  var x = 1;",
+        "  if (clock() > 0) x = \"s\";",
+        "  print x + 1;",
+        "  print x - 1;",
+        "}"), Limits.NONE);
+    Tests.check(run.out.equals("s1\n"), "unexpected output: " + run.out);
+    Tests.check(run.err.contains("[Line 5] : Operands must be numbers"),
+        "unexpected error: " + run.err);
+  }
+
+  private static void typeChangesInTheLoop() {
+    Tests.Run run = Tests.run(String.join("\n",
+        "{",
+        "  var x = 0;",
+        "  for (var i = 0; i < 3; i = i + 1) {",
+        "    if (i == 2) x = \"s\";",
+        "    print x * 2;",
+        "  }",
+        "}"), Limits.NONE);
+    Tests.check(run.out.equals("0\n0\n"), "unexpected output: " + run.out);
+    Tests.check(run.err.contains("[Line 5] : Operands must be numbers"),
+        "unexpected error: " + run.err);
+  }
+}